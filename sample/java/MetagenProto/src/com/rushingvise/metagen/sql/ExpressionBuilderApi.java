@@ -29,7 +29,7 @@ public class ExpressionBuilderApi  {
     }
 
     public static class PostExpressionStep implements IBuildExpressionTransformation, IBinaryOperationTransition {
-        private  ExpressionBuilderImpl.Content content;
+        private ExpressionBuilderImpl.Content content;
 
         public PostExpressionStep(ExpressionBuilderImpl.Content _content) {
             content = _content;
@@ -96,7 +96,7 @@ public class ExpressionBuilderApi  {
 
     }
     public static class PostBinaryOperationStep implements IExpressionTransition {
-        private  ExpressionBuilderImpl.Content content;
+        private ExpressionBuilderImpl.Content content;
 
         public PostBinaryOperationStep(ExpressionBuilderImpl.Content _content) {
             content = _content;
@@ -134,7 +134,7 @@ public class ExpressionBuilderApi  {
 
     }
     public static class ExpressionStep implements IExpressionTransition {
-        private  ExpressionBuilderImpl.Content content;
+        private ExpressionBuilderImpl.Content content;
 
         public ExpressionStep(ExpressionBuilderImpl.Content _content) {
             content = _content;
@@ -34,7 +34,7 @@ public class QueryBuilderApi  {
     }
 
     public static class PostSelectStep implements IFromTransition {
-        private  QueryBuilderImpl.Content content;
+        private QueryBuilderImpl.Content content;
 
         public PostSelectStep(QueryBuilderImpl.Content _content) {
             content = _content;
@@ -48,7 +48,7 @@ public class QueryBuilderApi  {
 
     }
     public static class PostFromStep implements IBuildQueryTransformation, IWhereTransition, IGroupByTransition, IOrderByTransition {
-        private  QueryBuilderImpl.Content content;
+        private QueryBuilderImpl.Content content;
 
         public PostFromStep(QueryBuilderImpl.Content _content) {
             content = _content;
@@ -79,7 +79,7 @@ public class QueryBuilderApi  {
 
     }
     public static class PostWhereStep implements IBuildQueryTransformation, IGroupByTransition, IOrderByTransition {
-        private  QueryBuilderImpl.Content content;
+        private QueryBuilderImpl.Content content;
 
         public PostWhereStep(QueryBuilderImpl.Content _content) {
             content = _content;
@@ -104,7 +104,7 @@ public class QueryBuilderApi  {
 
     }
     public static class PostGroupByStep implements IBuildQueryTransformation, IOrderByTransition {
-        private  QueryBuilderImpl.Content content;
+        private QueryBuilderImpl.Content content;
 
         public PostGroupByStep(QueryBuilderImpl.Content _content) {
             content = _content;
@@ -123,7 +123,7 @@ public class QueryBuilderApi  {
 
     }
     public static class PostOrderByStep implements IOrderDirectionTransition {
-        private  QueryBuilderImpl.Content content;
+        private QueryBuilderImpl.Content content;
 
         public PostOrderByStep(QueryBuilderImpl.Content _content) {
             content = _content;
@@ -143,7 +143,7 @@ public class QueryBuilderApi  {
 
     }
     public static class PostOrderDirectionStep implements IBuildQueryTransformation {
-        private  QueryBuilderImpl.Content content;
+        private QueryBuilderImpl.Content content;
 
         public PostOrderDirectionStep(QueryBuilderImpl.Content _content) {
             content = _content;
@@ -156,7 +156,7 @@ public class QueryBuilderApi  {
 
     }
     public static class InitialStep implements ISelectTransition {
-        private  QueryBuilderImpl.Content content;
+        private QueryBuilderImpl.Content content;
 
         public InitialStep(QueryBuilderImpl.Content _content) {
             content = _content;
@@ -0,0 +1,61 @@
+type Expression;
+type Query;
+
+graph QueryBuilder initial Initial {
+    edge Select -> PostSelect {
+        select(string... columns);
+    }
+    edge From -> PostFrom {
+        from(string table);
+    }
+    edge Where -> PostWhere {
+        where(Expression expression);
+    }
+    edge GroupBy -> PostGroupBy {
+        groupBy(string column);
+    }
+    edge OrderBy -> PostOrderBy {
+        orderBy(string... columns);
+    }
+    edge OrderDirection -> PostOrderDirection {
+        asc();
+        desc();
+    }
+    action BuildQuery {
+        build(): Query;
+    }
+    node Initial edges Select;
+    node PostSelect edges From;
+    node PostFrom edges Where, GroupBy, OrderBy actions BuildQuery;
+    node PostWhere edges GroupBy, OrderBy actions BuildQuery;
+    node PostGroupBy edges OrderBy actions BuildQuery;
+    node PostOrderBy edges OrderDirection;
+    node PostOrderDirection actions BuildQuery;
+}
+
+graph ExpressionBuilder initial Expression {
+    edge Expression -> PostExpression {
+        tableColumn(string table, string column);
+        column(string column);
+        string(string value);
+        number(integer value);
+        expression(Expression expression);
+    }
+    edge BinaryOperation -> PostBinaryOperation {
+        equals();
+        lessThan();
+        lessThanOrEqual();
+        greaterThan();
+        greaterThanOrEqual();
+        and();
+        or();
+        plus();
+        minus();
+    }
+    action BuildExpression {
+        build(): Expression;
+    }
+    node Expression edges Expression;
+    node PostExpression edges BinaryOperation actions BuildExpression;
+    node PostBinaryOperation edges Expression;
+}
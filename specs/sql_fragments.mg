@@ -0,0 +1,62 @@
+// The SQL builders of sql.mg, with the logic generated from the emitted fragments.
+type Expression fragments;
+type Query fragments;
+
+graph QueryBuilder initial Initial {
+    edge Select -> PostSelect {
+        select(string... columns) emit "SELECT " columns[", "];
+    }
+    edge From -> PostFrom {
+        from(string table) emit " FROM " table;
+    }
+    edge Where -> PostWhere {
+        where(Expression expression) emit " WHERE " expression;
+    }
+    edge GroupBy -> PostGroupBy {
+        groupBy(string column) emit " GROUP BY " column;
+    }
+    edge OrderBy -> PostOrderBy {
+        orderBy(string... columns) emit " ORDER BY " columns[", "];
+    }
+    edge OrderDirection -> PostOrderDirection {
+        asc() emit " ASC";
+        desc() emit " DESC";
+    }
+    action BuildQuery {
+        build(): Query;
+    }
+    node Initial edges Select;
+    node PostSelect edges From;
+    node PostFrom edges Where, GroupBy, OrderBy actions BuildQuery;
+    node PostWhere edges GroupBy, OrderBy actions BuildQuery;
+    node PostGroupBy edges OrderBy actions BuildQuery;
+    node PostOrderBy edges OrderDirection;
+    node PostOrderDirection actions BuildQuery;
+}
+
+graph ExpressionBuilder initial Expression {
+    edge Expression -> PostExpression {
+        tableColumn(string table, string column) emit table "." column;
+        column(string column) emit column;
+        string(string value) emit "\"" value "\"";
+        number(integer value) emit value;
+        expression(Expression expression) emit "(" expression ")";
+    }
+    edge BinaryOperation -> PostBinaryOperation {
+        equals() emit " = ";
+        lessThan() emit " < ";
+        lessThanOrEqual() emit " <= ";
+        greaterThan() emit " > ";
+        greaterThanOrEqual() emit " >= ";
+        and() emit " AND ";
+        or() emit " OR ";
+        plus() emit " + ";
+        minus() emit " - ";
+    }
+    action BuildExpression {
+        build(): Expression;
+    }
+    node Expression edges Expression;
+    node PostExpression edges BinaryOperation actions BuildExpression;
+    node PostBinaryOperation edges Expression;
+}
@@ -0,0 +1,61 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.benchmarks;
+
+import com.rushingvise.metagen.generator.CodeGenerator;
+import com.rushingvise.metagen.generator.CodeGeneratorException;
+import com.rushingvise.metagen.generator.CodeModel;
+import com.rushingvise.metagen.generator.CppCodeGenerator;
+import com.rushingvise.metagen.generator.JavaCodeGenerator;
+import com.rushingvise.metagen.interpreter.BuilderPatternInterpreter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of rendering the code, generated files are passed to a {@link Blackhole} instead of being written.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GeneratorBenchmark {
+    @Param({"java", "cpp"})
+    public String language;
+
+    private CodeModel mCodeModel;
+
+    @Setup(Level.Trial)
+    public void setUp(SpecState state) throws Exception {
+        mCodeModel = new BuilderPatternInterpreter(state.structureModel).analyze().canonicalize();
+    }
+
+    @Benchmark
+    public void generate(Blackhole blackhole) throws CodeGeneratorException {
+        CodeGenerator codeGenerator;
+        if ("java".equals(language)) {
+            codeGenerator = new JavaCodeGenerator(null, mCodeModel, "com.rushingvise.benchmark");
+        } else {
+            codeGenerator = new CppCodeGenerator(null, mCodeModel, "benchmark");
+        }
+        codeGenerator.setOutputSink((fileName, content) -> blackhole.consume(content.size()));
+        codeGenerator.generate();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.benchmarks;
+
+import com.rushingvise.metagen.generator.CodeModel;
+import com.rushingvise.metagen.interpreter.BuilderPatternInterpreter;
+import com.rushingvise.metagen.interpreter.StructureInterpreterException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of interpreting the specification as a builder.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+    @Benchmark
+    public CodeModel analyze(SpecState state) throws StructureInterpreterException {
+        return new BuilderPatternInterpreter(state.structureModel).analyze();
+    }
+
+    @Benchmark
+    public CodeModel analyzeAndCanonicalize(SpecState state) throws StructureInterpreterException {
+        return new BuilderPatternInterpreter(state.structureModel).analyze().canonicalize();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.benchmarks;
+
+import com.rushingvise.metagen.parser.StructureModel;
+import com.rushingvise.metagen.parser.StructureParser;
+import com.rushingvise.metagen.parser.StructureParserException;
+import com.rushingvise.metagen.parser.StructureValidator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of parsing and validating the specification.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    @Benchmark
+    public StructureModel parse(SpecState state) throws StructureParserException {
+        return new StructureParser(state.specFile.getPath()).parse();
+    }
+
+    @Benchmark
+    public StructureModel validate(SpecState state) throws StructureParserException {
+        new StructureValidator(state.structureModel).validate();
+        return state.structureModel;
+    }
+}
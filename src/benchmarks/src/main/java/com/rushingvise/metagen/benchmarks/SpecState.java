@@ -0,0 +1,61 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.benchmarks;
+
+import com.rushingvise.metagen.parser.StructureModel;
+import com.rushingvise.metagen.synthetic.SyntheticSpecGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+
+/**
+ * Benchmark state holding a synthetic specification, parameterized by the graph size and density.
+ */
+@State(Scope.Benchmark)
+public class SpecState {
+    /**
+     * Number of nodes (and edges) in the graph.
+     */
+    @Param({"10", "100", "1000"})
+    public int nodes;
+
+    /**
+     * Number of edges included by each of the nodes.
+     */
+    @Param({"2", "16"})
+    public int fanOut;
+
+    public StructureModel structureModel;
+    public File specFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SyntheticSpecGenerator.Parameters parameters = new SyntheticSpecGenerator.Parameters();
+        parameters.seed = 42;
+        parameters.nodesPerGraph = nodes;
+        parameters.fanOut = fanOut;
+        structureModel = new SyntheticSpecGenerator(parameters).generate();
+        specFile = File.createTempFile("metagen-benchmark", ".xml");
+        specFile.deleteOnExit();
+        SyntheticSpecGenerator.write(structureModel, specFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        specFile.delete();
+    }
+}
@@ -0,0 +1,250 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen;
+
+import com.rushingvise.metagen.generator.CodeGenerator;
+import com.rushingvise.metagen.generator.CodeGeneratorException;
+import com.rushingvise.metagen.generator.CodeModel.MainClassModel;
+import com.rushingvise.metagen.generator.CodeModelCanonicalizer;
+import com.rushingvise.metagen.interpreter.StructureInterpreter;
+import com.rushingvise.metagen.interpreter.StructureInterpreterException;
+import com.rushingvise.metagen.parser.StructureModel;
+import com.rushingvise.metagen.parser.StructureModel.GraphModel;
+import com.rushingvise.metagen.parser.StructureModel.TypeModel;
+import com.rushingvise.metagen.parser.StructureParser;
+import com.rushingvise.metagen.parser.StructureParserException;
+import com.rushingvise.metagen.parser.StructureValidator;
+import com.rushingvise.metagen.stats.PipelineStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Streams the graphs specification through parsing, interpretation and code generation.
+ * Each stage runs in its own thread and hands its results to the next one through a bounded queue,
+ * so a graph is interpreted and its code is written as soon as it is parsed, while the parser
+ * is blocked whenever the later stages fall behind.
+ * Only a few graphs are kept in memory at a time, which allows generating code for specifications
+ * that would not fit in the memory as a whole.
+ */
+public class GenerationPipeline {
+    private static final Object END_OF_STREAM = new Object();
+
+    private final StructureParser mStructureParser;
+    private final Function<StructureModel, StructureInterpreter> mInterpreterFactory;
+    private final CodeGenerator mCodeGenerator;
+    private final int mQueueCapacity;
+    private PipelineStats mStats = PipelineStats.disabled();
+
+    /**
+     * @param structureParser Parser of the graphs specification.
+     * @param interpreterFactory Creates the interpreter for the specification, the model passed to it contains only the types.
+     * @param codeGenerator Generator used for writing the code units one by one.
+     * @param queueCapacity Maximal number of items waiting between two stages.
+     */
+    public GenerationPipeline(StructureParser structureParser, Function<StructureModel, StructureInterpreter> interpreterFactory,
+                              CodeGenerator codeGenerator, int queueCapacity) {
+        mStructureParser = structureParser;
+        mInterpreterFactory = interpreterFactory;
+        mCodeGenerator = codeGenerator;
+        mQueueCapacity = queueCapacity;
+    }
+
+    /**
+     * @param stats Collector of the validation and interpretation metrics.
+     *              Parser and generator metrics should be configured directly in these objects.
+     */
+    public void setStats(PipelineStats stats) {
+        mStats = stats;
+    }
+
+    /**
+     * Runs the pipeline until all graphs are generated or one of the stages fails.
+     * @throws StructureParserException
+     * @throws StructureInterpreterException
+     * @throws CodeGeneratorException
+     */
+    public void run() throws StructureParserException, StructureInterpreterException, CodeGeneratorException {
+        final BlockingQueue<Object> parsedQueue = new ArrayBlockingQueue<>(mQueueCapacity);
+        final BlockingQueue<Object> interpretedQueue = new ArrayBlockingQueue<>(mQueueCapacity);
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "metagen-pipeline-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            executor.execute(() -> runStage(parsedQueue, () -> parse(parsedQueue)));
+            executor.execute(() -> runStage(interpretedQueue, () -> interpret(parsedQueue, interpretedQueue)));
+            generate(interpretedQueue);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CodeGeneratorException("Code generation was interrupted.");
+        } finally {
+            // Unblocks the earlier stages in case generation has failed.
+            executor.shutdownNow();
+        }
+    }
+
+    private void parse(BlockingQueue<Object> parsedQueue) throws Exception {
+        mStructureParser.parse(new StructureParser.StructureHandler() {
+            @Override
+            public void onTypes(List<TypeModel> types) throws StructureParserException {
+                put(parsedQueue, types);
+            }
+
+            @Override
+            public void onGraph(GraphModel graphModel) throws StructureParserException {
+                put(parsedQueue, graphModel);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private void interpret(BlockingQueue<Object> parsedQueue, BlockingQueue<Object> interpretedQueue) throws Exception {
+        StructureValidator validator = null;
+        StructureInterpreter interpreter = null;
+        Object item;
+        while ((item = takeItem(parsedQueue)) != END_OF_STREAM) {
+            if (item instanceof GraphModel) {
+                GraphModel graphModel = (GraphModel) item;
+                final PipelineStats.Timer validateTimer = mStats.start(PipelineStats.STAGE_VALIDATE);
+                try {
+                    validator.validate(graphModel);
+                } finally {
+                    validateTimer.stop();
+                }
+                List<MainClassModel> classModels;
+                final PipelineStats.Timer analyzeTimer = mStats.start(PipelineStats.STAGE_ANALYZE);
+                try {
+                    classModels = interpreter.analyzeGraph(graphModel);
+                } finally {
+                    analyzeTimer.stop();
+                }
+                // Each graph is canonicalized separately, so the canonicalizer does not keep the already generated classes alive.
+                CodeModelCanonicalizer canonicalizer = new CodeModelCanonicalizer();
+                for (MainClassModel classModel : classModels) {
+                    interpretedQueue.put(canonicalizer.canonicalize(classModel));
+                }
+            } else {
+                // Types are always reported before the graphs.
+                StructureModel structureModel = new StructureModel();
+                structureModel.types = (List<TypeModel>) item;
+                structureModel.graphs = new ArrayList<>();
+                validator = new StructureValidator(structureModel);
+                final PipelineStats.Timer validateTimer = mStats.start(PipelineStats.STAGE_VALIDATE);
+                try {
+                    validator.validateTypes();
+                } finally {
+                    validateTimer.stop();
+                }
+                interpreter = mInterpreterFactory.apply(structureModel);
+                MainClassModel typesClass;
+                final PipelineStats.Timer analyzeTimer = mStats.start(PipelineStats.STAGE_ANALYZE);
+                try {
+                    typesClass = interpreter.analyzeTypes();
+                } finally {
+                    analyzeTimer.stop();
+                }
+                if (typesClass != null) {
+                    interpretedQueue.put(new CodeModelCanonicalizer().canonicalize(typesClass));
+                }
+            }
+        }
+    }
+
+    private void generate(BlockingQueue<Object> interpretedQueue) throws InterruptedException,
+            StructureParserException, StructureInterpreterException, CodeGeneratorException {
+        Object item;
+        while ((item = takeItem(interpretedQueue)) != END_OF_STREAM) {
+            mCodeGenerator.generate((MainClassModel) item);
+        }
+        mCodeGenerator.finish();
+    }
+
+    /**
+     * Takes the next item from the queue, rethrowing the failure of the previous stage if there was one.
+     */
+    private static Object takeItem(BlockingQueue<Object> queue) throws InterruptedException,
+            StructureParserException, StructureInterpreterException, CodeGeneratorException {
+        Object item = queue.take();
+        if (item instanceof StageFailure) {
+            Throwable failure = ((StageFailure) item).failure;
+            if (failure instanceof StructureParserException) {
+                throw (StructureParserException) failure;
+            } else if (failure instanceof StructureInterpreterException) {
+                throw (StructureInterpreterException) failure;
+            } else if (failure instanceof CodeGeneratorException) {
+                throw (CodeGeneratorException) failure;
+            } else if (failure instanceof InterruptedException) {
+                throw (InterruptedException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            } else {
+                throw new RuntimeException(failure);
+            }
+        }
+        return item;
+    }
+
+    private static void put(BlockingQueue<Object> queue, Object item) throws StructureParserException {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StructureParserException("Parsing was interrupted.");
+        }
+    }
+
+    /**
+     * Runs a pipeline stage, making sure that the next stage is always notified about its end or failure.
+     */
+    private static void runStage(BlockingQueue<Object> outputQueue, Stage stage) {
+        Object lastItem = END_OF_STREAM;
+        try {
+            stage.run();
+        } catch (Throwable e) {
+            lastItem = new StageFailure(e);
+        }
+        if (Thread.currentThread().isInterrupted() || lastItem instanceof StageFailure
+                && ((StageFailure) lastItem).failure instanceof InterruptedException) {
+            // The pipeline is being shut down, nobody is waiting for the result anymore.
+            outputQueue.offer(lastItem);
+        } else {
+            try {
+                outputQueue.put(lastItem);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    private static class StageFailure {
+        final Throwable failure;
+
+        StageFailure(Throwable failure) {
+            this.failure = failure;
+        }
+    }
+}
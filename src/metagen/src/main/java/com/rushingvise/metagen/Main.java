@@ -16,23 +16,58 @@ limitations under the License.
 
 package com.rushingvise.metagen;
 
+import com.rushingvise.metagen.cache.OutputCache;
 import com.rushingvise.metagen.generator.*;
 import com.rushingvise.metagen.interpreter.BuilderPatternInterpreter;
 import com.rushingvise.metagen.interpreter.StructureInterpreter;
 import com.rushingvise.metagen.interpreter.StructureInterpreterException;
+import com.rushingvise.metagen.interpreter.TransitionProfile;
+import com.rushingvise.metagen.parser.CompiledSpec;
 import com.rushingvise.metagen.parser.StructureModel;
 import com.rushingvise.metagen.parser.StructureParser;
 import com.rushingvise.metagen.parser.StructureParserException;
+import com.rushingvise.metagen.parser.TextSpecParser;
+import com.rushingvise.metagen.parser.TextSpecWriter;
+import com.rushingvise.metagen.stats.PipelineStats;
 import org.apache.commons.cli.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.*;
+
 public class Main {
     private static final String LANGUAGE_JAVA = "java";
     private static final String LANGUAGE_CPP = "cpp";
+    private static final int DEFAULT_QUEUE_CAPACITY = 16;
+    private static final String STATS_TABLE = "table";
+    private static final String STATS_JSON = "json";
+    private static final String METRICS_COUNTERS = "counters";
+    private static final String METRICS_LATENCY = "latency";
+    private static final String BYTES_HEAP = "heap";
+    private static final String BYTES_DIRECT = "direct";
+    private static final String UNREACHABLE_REPORT = "report";
+    private static final String UNREACHABLE_PRUNE = "prune";
+    private static final String COMMAND_COMPILE = "compile";
+    private static final String COMMAND_CONVERT = "convert";
+    private static final long DEFAULT_CACHE_SIZE_MB = 256;
+    private static final int DEFAULT_ARENA_SIZE = 1024;
+    private static final int DEFAULT_UNITY_SIZE = 8;
 
     public static void main(String[] args) {
+        if (args.length > 0 && COMMAND_COMPILE.equals(args[0])) {
+            compile(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && COMMAND_CONVERT.equals(args[0])) {
+            convert(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         final Option inputOption = Option.builder("i")
                 .required(true)
-                .desc("Spec input file")
+                .desc("Spec input file: XML, text (" + TextSpecParser.EXTENSION + ") or compiled with \"metagen compile\"")
                 .longOpt("input")
                 .hasArg(true)
                 .build();
@@ -64,6 +99,128 @@ public class Main {
                 .hasArg(true)
                 .build();
 
+        final Option streamingOption = Option.builder("s")
+                .required(false)
+                .desc("Process the graphs one by one as they are parsed, optionally limiting number of graphs queued between stages (default: " + DEFAULT_QUEUE_CAPACITY + ")")
+                .longOpt("streaming")
+                .hasArg(true)
+                .optionalArg(true)
+                .argName("capacity")
+                .build();
+
+        final Option statsOption = Option.builder()
+                .required(false)
+                .desc("Print time and memory spent in each of the stages [" + STATS_TABLE + " (default), " + STATS_JSON + "]")
+                .longOpt("stats")
+                .hasArg(true)
+                .optionalArg(true)
+                .argName("format")
+                .build();
+
+        final Option benchmarksOption = Option.builder()
+                .required(false)
+                .desc("Generate a benchmark of each builder (JMH benchmark for Java, timing harness for C++)")
+                .longOpt("benchmarks")
+                .hasArg(false)
+                .build();
+
+        final Option plansOption = Option.builder()
+                .required(false)
+                .desc("Generate a capture mode of each builder, recording chains of calls as reusable plans (C++17 for C++)")
+                .longOpt("plans")
+                .hasArg(false)
+                .build();
+
+        final Option persistentOption = Option.builder()
+                .required(false)
+                .desc("Generate persistent builder steps, which can be continued any number of times, also from multiple threads (C++17 for C++)")
+                .longOpt("persistent")
+                .hasArg(false)
+                .build();
+
+        final Option memoizeOption = Option.builder()
+                .required(false)
+                .desc("Memoize results of the builder actions in a cache of the given capacity (default: "
+                        + new BuilderPatternInterpreter.Options().memoizeCapacity + "), the logic is replayed on a miss (C++17 for C++)")
+                .longOpt("memoize")
+                .hasArg(true)
+                .optionalArg(true)
+                .argName("capacity")
+                .build();
+
+        final Option bytesOption = Option.builder()
+                .required(false)
+                .desc("Let the fragments be encoded as UTF-8 directly into reusable byte buffers [" + BYTES_HEAP + " (default), "
+                        + BYTES_DIRECT + " - allocate direct buffers in Java]")
+                .longOpt("bytes")
+                .hasArg(true)
+                .optionalArg(true)
+                .argName("mode")
+                .build();
+
+        final Option arenaOption = Option.builder()
+                .required(false)
+                .desc("Allocate the fragments of the C++ builders from arenas with the initial block of the given size (default: "
+                        + DEFAULT_ARENA_SIZE + "), released in bulk (C++17)")
+                .longOpt("arena")
+                .hasArg(true)
+                .optionalArg(true)
+                .argName("bytes")
+                .build();
+
+        final Option unityOption = Option.builder()
+                .required(false)
+                .desc("Generate unity sources including the given number of the C++ classes each (default: " + DEFAULT_UNITY_SIZE
+                        + "), a precompiled header and a CMake fragment listing the generated files")
+                .longOpt("unity")
+                .hasArg(true)
+                .optionalArg(true)
+                .argName("classes")
+                .build();
+
+        final Option metricsOption = Option.builder()
+                .required(false)
+                .desc("Instrument the builders with per-transition metrics [" + METRICS_COUNTERS + " (default), " + METRICS_LATENCY + "]")
+                .longOpt("metrics")
+                .hasArg(true)
+                .optionalArg(true)
+                .argName("mode")
+                .build();
+
+        final Option profileOption = Option.builder()
+                .required(false)
+                .desc("Specialize the builders for the call counts recorded by the --metrics instrumentation")
+                .longOpt("profile")
+                .hasArg(true)
+                .argName("file")
+                .build();
+
+        final Option unreachableOption = Option.builder()
+                .required(false)
+                .desc("Report nodes, edges and actions which cannot be reached from the initial node [" + UNREACHABLE_REPORT
+                        + " (default), " + UNREACHABLE_PRUNE + " - also leave them out of the generated code]")
+                .longOpt("unreachable")
+                .hasArg(true)
+                .optionalArg(true)
+                .argName("mode")
+                .build();
+
+        final Option cacheOption = Option.builder()
+                .required(false)
+                .desc("Reuse the output of previous runs with the same specification and options, stored in the given directory")
+                .longOpt("cache")
+                .hasArg(true)
+                .argName("directory")
+                .build();
+
+        final Option cacheSizeOption = Option.builder()
+                .required(false)
+                .desc("Maximal size of the cache in megabytes, least recently used entries are evicted (default: " + DEFAULT_CACHE_SIZE_MB + ")")
+                .longOpt("cache-size")
+                .hasArg(true)
+                .argName("MB")
+                .build();
+
         Options options = new Options();
         CommandLineParser parser = new DefaultParser();
 
@@ -72,42 +229,355 @@ public class Main {
         options.addOption(languageOption);
         options.addOption(javaPackageOption);
         options.addOption(cppNamespaceOption);
+        options.addOption(streamingOption);
+        options.addOption(statsOption);
+        options.addOption(benchmarksOption);
+        options.addOption(plansOption);
+        options.addOption(persistentOption);
+        options.addOption(memoizeOption);
+        options.addOption(bytesOption);
+        options.addOption(arenaOption);
+        options.addOption(unityOption);
+        options.addOption(metricsOption);
+        options.addOption(profileOption);
+        options.addOption(unreachableOption);
+        options.addOption(cacheOption);
+        options.addOption(cacheSizeOption);
 
         try {
             CommandLine commandLine = parser.parse(options, args, false);
 
-            // Parsing the graph specification
-            StructureParser structureParser = new StructureParser(commandLine.getOptionValue(inputOption.getOpt()));
-            StructureModel structureModel = structureParser.parse();
+            final String statsFormat = commandLine.getOptionValue(statsOption.getLongOpt(), STATS_TABLE);
+            if (!STATS_TABLE.equals(statsFormat) && !STATS_JSON.equals(statsFormat)) {
+                throw new ParseException("Unsupported stats format: " + statsFormat);
+            }
+            final PipelineStats stats = commandLine.hasOption(statsOption.getLongOpt()) ? new PipelineStats() : PipelineStats.disabled();
 
-            // Interpreting the graph model and creating code model based on it
-            StructureInterpreter analyzer = new BuilderPatternInterpreter(structureModel); // TODO: add analyzer switch
-            CodeModel codeModel = analyzer.analyze();
+            final BuilderPatternInterpreter.Options interpreterOptions = new BuilderPatternInterpreter.Options();
+            interpreterOptions.benchmarks = commandLine.hasOption(benchmarksOption.getLongOpt());
+            interpreterOptions.plans = commandLine.hasOption(plansOption.getLongOpt());
+            interpreterOptions.persistent = commandLine.hasOption(persistentOption.getLongOpt());
+            if (commandLine.hasOption(memoizeOption.getLongOpt())) {
+                interpreterOptions.memoize = true;
+                final String capacity = commandLine.getOptionValue(memoizeOption.getLongOpt());
+                if (capacity != null) {
+                    try {
+                        interpreterOptions.memoizeCapacity = Integer.parseInt(capacity);
+                    } catch (NumberFormatException e) {
+                        throw new ParseException("Invalid memoize capacity: " + capacity);
+                    }
+                }
+            }
+            if (commandLine.hasOption(bytesOption.getLongOpt())) {
+                final String bytesMode = commandLine.getOptionValue(bytesOption.getLongOpt(), BYTES_HEAP);
+                if (!BYTES_HEAP.equals(bytesMode) && !BYTES_DIRECT.equals(bytesMode)) {
+                    throw new ParseException("Unsupported bytes mode: " + bytesMode);
+                }
+                interpreterOptions.bytes = true;
+                interpreterOptions.directBytes = BYTES_DIRECT.equals(bytesMode);
+            }
+            if (commandLine.hasOption(arenaOption.getLongOpt())) {
+                final String arenaSize = commandLine.getOptionValue(arenaOption.getLongOpt(), String.valueOf(DEFAULT_ARENA_SIZE));
+                try {
+                    interpreterOptions.arena = Integer.parseInt(arenaSize);
+                } catch (NumberFormatException e) {
+                    throw new ParseException("Invalid arena size: " + arenaSize);
+                }
+                if (interpreterOptions.arena <= 0) {
+                    throw new ParseException("Invalid arena size: " + arenaSize);
+                }
+            }
+            final String metricsMode = commandLine.getOptionValue(metricsOption.getLongOpt(), METRICS_COUNTERS);
+            if (!METRICS_COUNTERS.equals(metricsMode) && !METRICS_LATENCY.equals(metricsMode)) {
+                throw new ParseException("Unsupported metrics mode: " + metricsMode);
+            }
+            interpreterOptions.metrics = commandLine.hasOption(metricsOption.getLongOpt());
+            interpreterOptions.latency = METRICS_LATENCY.equals(metricsMode);
+            if (commandLine.hasOption(unreachableOption.getLongOpt())) {
+                final String unreachableMode = commandLine.getOptionValue(unreachableOption.getLongOpt(), UNREACHABLE_REPORT);
+                if (!UNREACHABLE_REPORT.equals(unreachableMode) && !UNREACHABLE_PRUNE.equals(unreachableMode)) {
+                    throw new ParseException("Unsupported unreachable mode: " + unreachableMode);
+                }
+                interpreterOptions.unreachableReporter = reachability -> {
+                    for (String line : reachability.describeUnreachable()) {
+                        System.out.println("Warning: " + line);
+                    }
+                };
+                interpreterOptions.pruneUnreachable = UNREACHABLE_PRUNE.equals(unreachableMode);
+            }
+            if (commandLine.hasOption(profileOption.getLongOpt())) {
+                interpreterOptions.profile = TransitionProfile.load(new File(commandLine.getOptionValue(profileOption.getLongOpt())));
+            }
 
-            // Generating final code
-            final String targetLanguage = commandLine.getOptionValue(languageOption.getOpt());
+            final String inputFile = commandLine.getOptionValue(inputOption.getOpt());
             final String outputDirectory = commandLine.getOptionValue(outputOption.getOpt());
-            CodeGenerator codeGenerator;
-            if (LANGUAGE_JAVA.equals(targetLanguage)) {
-                final String packageName = commandLine.getOptionValue(javaPackageOption.getOpt());
-                codeGenerator = new JavaCodeGenerator(outputDirectory, codeModel, packageName);
-            } else if (LANGUAGE_CPP.equals(targetLanguage)) {
-                final String namespaceName = commandLine.getOptionValue(cppNamespaceOption.getOpt());
-                codeGenerator = new CppCodeGenerator(outputDirectory, codeModel, namespaceName);
-            } else {
-                throw new ParseException("Unsupported language: " + targetLanguage);
+            StructureParser structureParser = new StructureParser(inputFile);
+            structureParser.setStats(stats);
+
+            OutputCache outputCache = null;
+            String cacheKey = null;
+            Map<String, byte[]> generatedFiles = null;
+            if (commandLine.hasOption(cacheOption.getLongOpt())) {
+                final String cacheSize = commandLine.getOptionValue(cacheSizeOption.getLongOpt(), String.valueOf(DEFAULT_CACHE_SIZE_MB));
+                try {
+                    outputCache = new OutputCache(new File(commandLine.getOptionValue(cacheOption.getLongOpt())), Long.parseLong(cacheSize) * 1024 * 1024);
+                } catch (NumberFormatException e) {
+                    throw new ParseException("Invalid cache size: " + cacheSize);
+                }
+                // Options which do not change the generated files are left out of the key.
+                final Set<String> ignoredOptions = new HashSet<>(Arrays.asList(inputOption.getLongOpt(), outputOption.getLongOpt(),
+                        streamingOption.getLongOpt(), statsOption.getLongOpt(), cacheOption.getLongOpt(), cacheSizeOption.getLongOpt()));
+                final List<String> keyOptions = new ArrayList<>();
+                for (Option option : commandLine.getOptions()) {
+                    if (!ignoredOptions.contains(option.getLongOpt())) {
+                        keyOptions.add(option.getLongOpt() + "=" + option.getValuesList());
+                    }
+                }
+                Collections.sort(keyOptions);
+                final List<File> keyFiles = new ArrayList<>();
+                keyFiles.add(new File(inputFile));
+                keyFiles.addAll(structureParser.findImportedFiles());
+                if (commandLine.hasOption(profileOption.getLongOpt())) {
+                    keyFiles.add(new File(commandLine.getOptionValue(profileOption.getLongOpt())));
+                }
+                Map<String, byte[]> cachedFiles = null;
+                try {
+                    cacheKey = OutputCache.computeKey(keyOptions, keyFiles);
+                    cachedFiles = outputCache.get(cacheKey);
+                    stats.countCacheLookup(cachedFiles != null);
+                    generatedFiles = new LinkedHashMap<>();
+                } catch (IOException e) {
+                    System.out.println("Warning: output cache is not available: " + e.getMessage());
+                    outputCache = null;
+                }
+                if (cachedFiles != null) {
+                    final PipelineStats.Timer restoreTimer = stats.start(PipelineStats.STAGE_RESTORE);
+                    try {
+                        restoreFiles(new File(outputDirectory), cachedFiles);
+                    } catch (IOException e) {
+                        System.out.println("Exception occurred while restoring the output from the cache: " + e.getMessage());
+                        return;
+                    } finally {
+                        restoreTimer.stop();
+                    }
+                    printStats(stats, statsFormat);
+                    return;
+                }
             }
-            codeGenerator.generate();
+
+
+            final PipelineStats.Timer timer = stats.start(PipelineStats.STAGE_TOTAL);
+            try {
+                if (commandLine.hasOption(streamingOption.getOpt())) {
+                    final String capacity = commandLine.getOptionValue(streamingOption.getOpt());
+                    int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+                    if (capacity != null) {
+                        try {
+                            queueCapacity = Integer.parseInt(capacity);
+                        } catch (NumberFormatException e) {
+                            throw new ParseException("Invalid queue capacity: " + capacity);
+                        }
+                        if (queueCapacity <= 0) {
+                            throw new ParseException("Invalid queue capacity: " + capacity);
+                        }
+                    }
+                    // Graphs are parsed, interpreted and generated one by one, the code model is never built as a whole.
+                    CodeGenerator codeGenerator = createCodeGenerator(commandLine, new CodeModel(), generatedFiles);
+                    codeGenerator.setStats(stats);
+                    GenerationPipeline pipeline = new GenerationPipeline(structureParser,
+                            structureModel -> new BuilderPatternInterpreter(structureModel, interpreterOptions),
+                            codeGenerator, queueCapacity);
+                    pipeline.setStats(stats);
+                    pipeline.run();
+                } else {
+                    // Parsing the graph specification
+                    StructureModel structureModel = structureParser.parse();
+
+                    // Interpreting the graph model and creating code model based on it
+                    StructureInterpreter analyzer = new BuilderPatternInterpreter(structureModel, interpreterOptions); // TODO: add analyzer switch
+                    CodeModel codeModel;
+                    final PipelineStats.Timer analyzeTimer = stats.start(PipelineStats.STAGE_ANALYZE);
+                    try {
+                        codeModel = analyzer.analyze();
+                    } finally {
+                        analyzeTimer.stop();
+                    }
+
+                    // Generating final code
+                    CodeGenerator codeGenerator = createCodeGenerator(commandLine, codeModel, generatedFiles);
+                    codeGenerator.setStats(stats);
+                    codeGenerator.generate();
+                }
+            } finally {
+                timer.stop();
+            }
+
+            if (outputCache != null) {
+                try {
+                    outputCache.put(cacheKey, generatedFiles);
+                } catch (IOException e) {
+                    System.out.println("Warning: output could not be cached: " + e.getMessage());
+                }
+            }
+
+            printStats(stats, statsFormat);
         } catch (ParseException exception) {
             System.out.println(exception.getMessage());
             HelpFormatter formatter = new HelpFormatter();
             formatter.printHelp("metagen", options);
         } catch (StructureParserException e) {
             System.out.println("Exception occurred while parsing the specification: " + e.getMessage());
+        } catch (UncheckedIOException e) {
+            // Graphs of the compiled specifications are decoded on their first access.
+            System.out.println("Exception occurred while parsing the specification: " + e.getCause().getMessage());
         } catch (CodeGeneratorException e) {
             System.out.println("Exception occurred while generating the code: " + e.getMessage());
         } catch (StructureInterpreterException e) {
             System.out.println("Exception occurred while compiling the model: " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Exception occurred while reading the profile: " + e.getMessage());
+        }
+    }
+
+    private static void restoreFiles(File outputDirectory, Map<String, byte[]> files) throws IOException {
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            final File outputFile = new File(outputDirectory, file.getKey());
+            final File parent = outputFile.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Cannot create output directory " + parent + ".");
+            }
+            Files.write(outputFile.toPath(), file.getValue());
+        }
+    }
+
+    private static void printStats(PipelineStats stats, String statsFormat) {
+        if (stats.isEnabled()) {
+            if (STATS_JSON.equals(statsFormat)) {
+                System.out.println(stats.toJson());
+            } else {
+                stats.printTable(System.out);
+            }
+        }
+    }
+
+    /**
+     * @param generatedFiles If not {@code null}, receives the content of all generated files as well.
+     */
+    private static CodeGenerator createCodeGenerator(CommandLine commandLine, CodeModel codeModel, Map<String, byte[]> generatedFiles) throws ParseException {
+        final String targetLanguage = commandLine.getOptionValue("language");
+        final String outputDirectory = commandLine.getOptionValue("output");
+        final CodeGenerator ret;
+        if (LANGUAGE_JAVA.equals(targetLanguage)) {
+            final String packageName = commandLine.getOptionValue("java-package");
+            ret = new JavaCodeGenerator(outputDirectory, codeModel, packageName);
+        } else if (LANGUAGE_CPP.equals(targetLanguage)) {
+            final String namespaceName = commandLine.getOptionValue("cpp-namespace");
+            final CppCodeGenerator cppCodeGenerator = new CppCodeGenerator(outputDirectory, codeModel, namespaceName);
+            if (commandLine.hasOption("unity")) {
+                final String unitySize = commandLine.getOptionValue("unity", String.valueOf(DEFAULT_UNITY_SIZE));
+                int unitsPerSource = 0;
+                try {
+                    unitsPerSource = Integer.parseInt(unitySize);
+                } catch (NumberFormatException e) {
+                    // Reported below.
+                }
+                if (unitsPerSource <= 0) {
+                    throw new ParseException("Invalid number of classes per unity source: " + unitySize);
+                }
+                cppCodeGenerator.setUnityBuild(unitsPerSource);
+            }
+            ret = cppCodeGenerator;
+        } else {
+            throw new ParseException("Unsupported language: " + targetLanguage);
+        }
+        if (generatedFiles != null) {
+            final CodeGenerator.OutputSink outputSink = ret.getOutputSink();
+            ret.setOutputSink((fileName, content) -> {
+                outputSink.write(fileName, content);
+                generatedFiles.put(fileName, content.toByteArray());
+            });
+        }
+        return ret;
+    }
+
+    /**
+     * Validates the specification and writes it in the compiled form, which is loaded much faster than XML, see {@link CompiledSpec}.
+     * @param args Arguments following the {@code compile} command.
+     */
+    private static void compile(String[] args) {
+        final Option inputOption = Option.builder("i")
+                .required(true)
+                .desc("Spec input file")
+                .longOpt("input")
+                .hasArg(true)
+                .build();
+        final Option outputOption = Option.builder("o")
+                .required(true)
+                .desc("Compiled spec output file")
+                .longOpt("output")
+                .hasArg(true)
+                .build();
+
+        Options options = new Options();
+        options.addOption(inputOption);
+        options.addOption(outputOption);
+
+        try {
+            CommandLine commandLine = new DefaultParser().parse(options, args, false);
+            StructureModel structureModel = new StructureParser(commandLine.getOptionValue(inputOption.getOpt())).parse();
+            CompiledSpec.write(structureModel, new File(commandLine.getOptionValue(outputOption.getOpt())));
+        } catch (ParseException exception) {
+            System.out.println(exception.getMessage());
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("metagen " + COMMAND_COMPILE, options);
+        } catch (StructureParserException e) {
+            System.out.println("Exception occurred while parsing the specification: " + e.getMessage());
+        } catch (UncheckedIOException e) {
+            // Graphs of the compiled specifications are decoded on their first access.
+            System.out.println("Exception occurred while parsing the specification: " + e.getCause().getMessage());
+        } catch (IOException e) {
+            System.out.println("Exception occurred while writing the compiled specification: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Converts the specification file to the text form, see {@link TextSpecParser}.
+     * Imports are kept as they are, so each of the imported files should be converted separately.
+     * @param args Arguments following the {@code convert} command.
+     */
+    private static void convert(String[] args) {
+        final Option inputOption = Option.builder("i")
+                .required(true)
+                .desc("Spec input file")
+                .longOpt("input")
+                .hasArg(true)
+                .build();
+        final Option outputOption = Option.builder("o")
+                .required(true)
+                .desc("Text spec output file")
+                .longOpt("output")
+                .hasArg(true)
+                .build();
+
+        Options options = new Options();
+        options.addOption(inputOption);
+        options.addOption(outputOption);
+
+        try {
+            CommandLine commandLine = new DefaultParser().parse(options, args, false);
+            StructureModel structureModel = new StructureParser(commandLine.getOptionValue(inputOption.getOpt())).read();
+            TextSpecWriter.write(structureModel, new File(commandLine.getOptionValue(outputOption.getOpt())));
+        } catch (ParseException exception) {
+            System.out.println(exception.getMessage());
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("metagen " + COMMAND_CONVERT, options);
+        } catch (StructureParserException e) {
+            System.out.println("Exception occurred while parsing the specification: " + e.getMessage());
+        } catch (UncheckedIOException e) {
+            // Graphs of the compiled specifications are decoded on their first access.
+            System.out.println("Exception occurred while parsing the specification: " + e.getCause().getMessage());
+        } catch (IOException e) {
+            System.out.println("Exception occurred while writing the text specification: " + e.getMessage());
         }
     }
 }
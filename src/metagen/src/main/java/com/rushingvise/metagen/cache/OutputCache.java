@@ -0,0 +1,232 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.cache;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * On-disk cache of the generated files, keyed by the hash of everything the output depends on:
+ * the specification, the generator version and the generation options.
+ * Each entry is a single file in the cache directory. Entries are touched whenever they are read,
+ * and the least recently used ones are evicted when the cache grows beyond its maximal size.
+ * Multiple processes can share the cache directory, entries are written to a temporary file and moved in place.
+ */
+public class OutputCache {
+    private static final int MAGIC = 0x4D474F43; // "MGOC"
+    private static final int VERSION = 1;
+    private static final String ENTRY_SUFFIX = ".cache";
+    private static final String VERSION_RESOURCE = "version.properties";
+    // Length of the name and length of the content.
+    private static final int MIN_FILE_SIZE = 2 + 4;
+
+    private final File mDirectory;
+    private final long mMaxSize;
+
+    /**
+     * @param directory Cache directory, created if it does not exist.
+     * @param maxSize Maximal total size of the cache entries in bytes.
+     */
+    public OutputCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Computes the key of the cache entry.
+     * The version and the build stamp of metagen are always included.
+     * @param options Options affecting the output, their order matters.
+     * @param inputFiles Files the output depends on, e.g. the specification.
+     * @return Hex-encoded SHA-256 hash.
+     * @throws IOException
+     */
+    public static String computeKey(List<String> options, List<File> inputFiles) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        update(digest, "format=" + VERSION);
+        update(digest, "version=" + getGeneratorVersion());
+        for (String option : options) {
+            update(digest, option);
+        }
+        final byte[] buffer = new byte[64 * 1024];
+        for (File inputFile : inputFiles) {
+            update(digest, "file=" + inputFile.length());
+            try (InputStream inputStream = new FileInputStream(inputFile)) {
+                int read;
+                while ((read = inputStream.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+        StringBuilder ret = new StringBuilder();
+        for (byte b : digest.digest()) {
+            ret.append(String.format("%02x", b));
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Corrupted entries, e.g. truncated ones, are treated as missing and evicted.
+     * @param key Key of the entry, see {@link #computeKey(List, List)}.
+     * @return Generated files (names relative to the output directory) or {@code null} if the entry is missing.
+     * @throws IOException
+     */
+    public Map<String, byte[]> get(String key) throws IOException {
+        final File entry = new File(mDirectory, key + ENTRY_SUFFIX);
+        if (!entry.isFile()) {
+            return null;
+        }
+        final Map<String, byte[]> ret = new LinkedHashMap<>();
+        // Entries are read as a whole, so every length can be checked against the number of the remaining bytes.
+        try (DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(entry.toPath())))) {
+            if (inputStream.readInt() != MAGIC || inputStream.readInt() != VERSION) {
+                return null;
+            }
+            final int fileCount = inputStream.readInt();
+            if (fileCount < 0 || fileCount > inputStream.available() / MIN_FILE_SIZE) {
+                return evict(entry);
+            }
+            for (int i = 0; i < fileCount; ++i) {
+                final String fileName = inputStream.readUTF();
+                final int length = inputStream.readInt();
+                if (!isRelativeName(fileName) || length < 0 || length > inputStream.available()) {
+                    return evict(entry);
+                }
+                final byte[] content = new byte[length];
+                inputStream.readFully(content);
+                ret.put(fileName, content);
+            }
+            if (inputStream.available() != 0) {
+                return evict(entry);
+            }
+        } catch (EOFException | UTFDataFormatException e) {
+            // Truncated entry, e.g. the disk was full.
+            return evict(entry);
+        }
+        entry.setLastModified(System.currentTimeMillis());
+        return ret;
+    }
+
+    /**
+     * Stores the generated files and evicts the least recently used entries if the cache is too big.
+     * @param key Key of the entry, see {@link #computeKey(List, List)}.
+     * @param files Generated files (names relative to the output directory).
+     * @throws IOException
+     */
+    public void put(String key, Map<String, byte[]> files) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + mDirectory + ".");
+        }
+        final File temporaryFile = File.createTempFile(key, ".tmp", mDirectory);
+        try {
+            try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+                outputStream.writeInt(MAGIC);
+                outputStream.writeInt(VERSION);
+                outputStream.writeInt(files.size());
+                for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                    outputStream.writeUTF(file.getKey());
+                    outputStream.writeInt(file.getValue().length);
+                    outputStream.write(file.getValue());
+                }
+            }
+            Files.move(temporaryFile.toPath(), new File(mDirectory, key + ENTRY_SUFFIX).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile.toPath());
+        }
+        evict();
+    }
+
+    private static Map<String, byte[]> evict(File entry) {
+        entry.delete();
+        return null;
+    }
+
+    /**
+     * @return {@code true} if the file name stays within the output directory.
+     */
+    private static boolean isRelativeName(String fileName) {
+        final File file = new File(fileName);
+        if (fileName.isEmpty() || file.isAbsolute()) {
+            return false;
+        }
+        for (File parent = file; parent != null; parent = parent.getParentFile()) {
+            if (parent.getName().equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void evict() {
+        final File[] entries = mDirectory.listFiles((directory, name) -> name.endsWith(ENTRY_SUFFIX));
+        if (entries == null) {
+            return;
+        }
+        long totalSize = 0;
+        for (File entry : entries) {
+            totalSize += entry.length();
+        }
+        if (totalSize <= mMaxSize) {
+            return;
+        }
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (File entry : entries) {
+            if (totalSize <= mMaxSize) {
+                break;
+            }
+            final long size = entry.length();
+            if (entry.delete()) {
+                totalSize -= size;
+            }
+        }
+    }
+
+    /**
+     * @return Version of metagen together with the stamp of its build, filtered into the version resource by Maven.
+     */
+    private static String getGeneratorVersion() throws IOException {
+        final Properties properties = new Properties();
+        try (InputStream inputStream = OutputCache.class.getResourceAsStream(VERSION_RESOURCE)) {
+            if (inputStream == null) {
+                throw new IOException("Missing " + VERSION_RESOURCE + ", metagen was not built with Maven.");
+            }
+            properties.load(inputStream);
+        }
+        final String version = properties.getProperty("version");
+        final String build = properties.getProperty("build");
+        // Development builds change without changing the version, so the stamp of the build is included as well.
+        if (version == null || build == null || build.startsWith("${")) {
+            throw new IOException("Invalid " + VERSION_RESOURCE + ", metagen was not built with Maven.");
+        }
+        return version + "/" + build;
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+}
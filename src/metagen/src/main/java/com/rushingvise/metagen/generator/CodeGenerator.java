@@ -17,9 +17,9 @@ limitations under the License.
 package com.rushingvise.metagen.generator;
 
 import com.rushingvise.metagen.generator.CodeModel.*;
+import com.rushingvise.metagen.stats.PipelineStats;
 
-import java.io.OutputStream;
-import java.io.PrintWriter;
+import java.io.*;
 import java.util.StringTokenizer;
 
 /**
@@ -28,31 +28,141 @@ import java.util.StringTokenizer;
 public abstract class CodeGenerator {
     protected final String mOutputPath;
     protected final CodeModel mCodeModel;
+    protected PipelineStats mStats = PipelineStats.disabled();
+    private OutputSink mOutputSink;
 
     /**
      * @param outputPath Directory to which the code should be generated.
-     * @param codeModel Language-agnostic description of the code to be generated.
+     * @param codeModel Language-agnostic description of the code to be generated, it will be canonicalized if it was not yet.
      */
     public CodeGenerator(String outputPath, CodeModel codeModel) {
         mOutputPath = outputPath;
-        mCodeModel = codeModel;
+        mCodeModel = codeModel.canonicalize();
+        mOutputSink = (fileName, content) -> {
+            try (OutputStream outputStream = new FileOutputStream(new File(mOutputPath, fileName))) {
+                content.writeTo(outputStream);
+            }
+        };
     }
 
     /**
-     * Main function responsible for generating the code.
+     * Main function responsible for generating the code, generates code units for all main classes of the model.
+     * @throws CodeGeneratorException
+     */
+    public void generate() throws CodeGeneratorException {
+        for (MainClassModel classModel : mCodeModel.classes) {
+            generate(classModel);
+        }
+        finish();
+    }
+
+    /**
+     * Generates the code unit(s) of a single main class.
+     * Can be used for generating classes which are not part of the model passed in the constructor, e.g. when the
+     * classes are created one graph at a time. Such classes should be already canonicalized, see {@link CodeModelCanonicalizer}.
      * Should be implemented in the child classes.
+     * @param classModel Main class for which the code should be generated.
+     * @throws CodeGeneratorException
+     */
+    public abstract void generate(MainClassModel classModel) throws CodeGeneratorException;
+
+    /**
+     * Called once all the classes were generated, e.g. for writing the files listing all the generated units.
+     * Has to be called explicitly if the classes are generated one at a time.
      * @throws CodeGeneratorException
      */
-    public abstract void generate() throws CodeGeneratorException;
+    public void finish() throws CodeGeneratorException {
+    }
+
+    /**
+     * @param stats Collector of the rendering and writing metrics.
+     */
+    public void setStats(PipelineStats stats) {
+        mStats = stats;
+    }
+
+    /**
+     * Replaces the destination of the generated files, by default the files are written to the output directory.
+     * @param outputSink Receiver of the generated files.
+     */
+    public void setOutputSink(OutputSink outputSink) {
+        mOutputSink = outputSink;
+    }
+
+    /**
+     * @return Current destination of the generated files, e.g. for wrapping it, see {@link #setOutputSink(OutputSink)}.
+     */
+    public OutputSink getOutputSink() {
+        return mOutputSink;
+    }
+
+    /**
+     * Writes rendered code unit to the output sink, see {@link #setOutputSink(OutputSink)}.
+     * @param classModel Main class which the file belongs to.
+     * @param fileName Name of the file.
+     * @param content Rendered content of the file.
+     * @throws CodeGeneratorException
+     */
+    protected void writeFile(MainClassModel classModel, String fileName, ByteArrayOutputStream content) throws CodeGeneratorException {
+        writeFile(classModel.name, fileName, content);
+    }
+
+    /**
+     * Writes rendered file to the output sink, see {@link #setOutputSink(OutputSink)}.
+     * @param unitName Name under which the file is reported in the stats.
+     * @param fileName Name of the file.
+     * @param content Rendered content of the file.
+     * @throws CodeGeneratorException
+     */
+    protected void writeFile(String unitName, String fileName, ByteArrayOutputStream content) throws CodeGeneratorException {
+        final PipelineStats.Timer timer = mStats.start(PipelineStats.STAGE_WRITE, unitName);
+        try {
+            mOutputSink.write(fileName, content);
+        } catch (IOException e) {
+            throw new CodeGeneratorException(e);
+        } finally {
+            timer.stop();
+        }
+        mStats.countFile(unitName, content.size());
+    }
+
+    /**
+     * Destination of the generated files.
+     */
+    public interface OutputSink {
+        /**
+         * @param fileName Name of the file, relative to the output directory.
+         * @param content Rendered content of the file.
+         * @throws IOException
+         */
+        void write(String fileName, ByteArrayOutputStream content) throws IOException;
+    }
+
+    /**
+     * @param classModel Main class model.
+     * @return Number of methods declared in the class, its inner classes and interfaces.
+     */
+    protected static int countMethods(MainClassModel classModel) {
+        int ret = classModel.methodModels.size();
+        for (InnerClassModel innerClass : classModel.innerClasses) {
+            ret += innerClass.methodModels.size();
+        }
+        for (InterfaceModel interfaceModel : classModel.interfaces) {
+            ret += interfaceModel.methodModels.size();
+        }
+        return ret;
+    }
 
     /**
      * Utility class, which simplifies writing code structures.
      */
-    protected static class CodePrintWriter {
+    protected static class CodePrintWriter implements AutoCloseable {
         private PrintWriter mWriter;
         private StringBuilder mIndentation = new StringBuilder();
         private final String mSingleIndent;
         private final int INDENT_WIDTH = 4;
+        private final StringBuilder mLine = new StringBuilder();
+        private char[] mChars = new char[256];
 
         /**
          * @param out Output stream which should be wrapped by this class.
@@ -92,6 +202,41 @@ public abstract class CodeGenerator {
             }
         }
 
+        /**
+         * Starts a new line, composed directly in the buffer owned by this writer, e.g. by {@link InstructionModelSerializer}.
+         * The line must not contain newline characters, it is written out by {@link #endLine()}.
+         * @return Buffer of the line, already indented.
+         */
+        public StringBuilder startLine() {
+            mLine.setLength(0);
+            mLine.append(mIndentation);
+            return mLine;
+        }
+
+        /**
+         * Writes out the line composed in the buffer returned by {@link #startLine()} with a newline character.
+         */
+        public void endLine() {
+            final int length = mLine.length();
+            if (mChars.length < length) {
+                mChars = new char[Math.max(length, mChars.length * 2)];
+            }
+            mLine.getChars(0, length, mChars, 0);
+            mWriter.write(mChars, 0, length);
+            mWriter.println();
+        }
+
+        /**
+         * Prints out the given instruction as a statement, terminated with a semicolon and a newline character.
+         * @param instructionModel Instruction to be written.
+         * @param serializer Serializer of the instruction.
+         */
+        public void printStatement(InstructionModel instructionModel, InstructionModelSerializer serializer) {
+            instructionModel.accept(serializer, startLine());
+            mLine.append(';');
+            endLine();
+        }
+
         /**
          * Prints out a newline character to the wrapped output stream.
          */
@@ -128,6 +273,15 @@ public abstract class CodeGenerator {
             mWriter.println(mIndentation.toString() + "}" + blockSuffix);
         }
 
+        /**
+         * Closes the current block of code and opens the next one in the same line, e.g. {@code "} else {"}.
+         * @param line Line to be written between the closing and the opening curly bracket.
+         */
+        public void continueBlock(String line) {
+            closeBlock(" " + line + " {");
+            mIndentation.append(mSingleIndent);
+        }
+
         /**
          * Writes an indented block of code wrapped in curly brackets.
          * {@code line} is written before opening curly bracket and {@code blockSuffix} right after the closing curly bracket.
@@ -142,6 +296,32 @@ public abstract class CodeGenerator {
             closeBlock(blockSuffix);
         }
 
+        /**
+         * Writes an indented block of code without wrapping it in curly brackets.
+         * @param levels Number of the indentation levels added to the current indentation.
+         * @param block Block of the code to be written.
+         * @throws CodeGeneratorException
+         */
+        public void indent(int levels, CodeBlock block) throws CodeGeneratorException {
+            final int length = mIndentation.length();
+            for (int i = 0; i < levels; ++i) {
+                mIndentation.append(mSingleIndent);
+            }
+            try {
+                block.writeBlock();
+            } finally {
+                mIndentation.setLength(length);
+            }
+        }
+
+        /**
+         * Flushes and closes the wrapped output stream.
+         */
+        @Override
+        public void close() {
+            mWriter.close();
+        }
+
         /**
          * Wrapper for the code block.
          */
@@ -152,26 +332,36 @@ public abstract class CodeGenerator {
 
     /**
      * Visitor pattern that is used for generating method bodies.
+     * Instructions are appended to a buffer owned by the caller, usually the line buffer of {@link CodePrintWriter},
+     * so nested instructions are rendered without intermediate strings.
      */
     public interface InstructionModelSerializer {
-        String visit(StringValueModel stringValueModel);
+        void visit(StringValueModel stringValueModel, StringBuilder out);
+
+        void visit(IntegerValueModel integerValueModel, StringBuilder out);
+
+        void visit(BooleanValueModel booleanValueModel, StringBuilder out);
+
+        void visit(CharValueModel charValueModel, StringBuilder out);
+
+        void visit(BytesValueModel bytesValueModel, StringBuilder out);
 
-        String visit(IntegerValueModel integerValueModel);
+        void visit(ArrayValueModel arrayValueModel, StringBuilder out);
 
-        String visit(NullValueModel nullValueModel);
+        void visit(NullValueModel nullValueModel, StringBuilder out);
 
-        String visit(VariableModel variableModel);
+        void visit(VariableModel variableModel, StringBuilder out);
 
-        String visit(DeclarationModel declarationModel);
+        void visit(DeclarationModel declarationModel, StringBuilder out);
 
-        String visit(AssignmentModel assignmentModel);
+        void visit(AssignmentModel assignmentModel, StringBuilder out);
 
-        String visit(ReturnInstructionModel returnInstructionModel);
+        void visit(ReturnInstructionModel returnInstructionModel, StringBuilder out);
 
-        String visit(MethodCallModel methodCallModel);
+        void visit(MethodCallModel methodCallModel, StringBuilder out);
 
-        String visit(AllocationModel allocationModel);
+        void visit(AllocationModel allocationModel, StringBuilder out);
 
-        String visit(SuperCallModel superCallModel);
+        void visit(SuperCallModel superCallModel, StringBuilder out);
     }
 }
@@ -20,6 +20,8 @@ import java.util.*;
 
 /**
  * Language-agnostic code descriptor.
+ * The model is mutable while it is being built, once it is complete it should be turned into
+ * its canonical representation with {@link #canonicalize()} before being passed to the generators.
  */
 public class CodeModel {
     /**
@@ -27,6 +29,29 @@ public class CodeModel {
      */
     public List<MainClassModel> classes = new ArrayList<>();
 
+    private boolean canonical;
+
+    /**
+     * Turns this model into its canonical, compact representation, see {@link CodeModelCanonicalizer}.
+     * The model must not be modified afterwards, although only its collections reject modifications.
+     * Calling this method on a canonical model has no effect.
+     * @return This model.
+     */
+    public CodeModel canonicalize() {
+        return new CodeModelCanonicalizer().canonicalize(this);
+    }
+
+    /**
+     * @return {@code true} if the model was already canonicalized, see {@link #canonicalize()}.
+     */
+    public boolean isCanonical() {
+        return canonical;
+    }
+
+    void markCanonical() {
+        canonical = true;
+    }
+
     /**
      * Abstract class for classes/interfaces models.
      */
@@ -140,6 +165,86 @@ public class CodeModel {
          */
         public boolean template;
 
+        /**
+         * Hint for the generator.
+         * Indicates that the public methods of this class are benchmarks, which should be wired
+         * into the benchmark harness of the target language.
+         */
+        public boolean benchmark;
+
+        /**
+         * Hint for the generator.
+         * Indicates that this class collects usage metrics of the generated code, the generator should provide
+         * the language-specific implementation of the counters. Each metric is identified by a static, final
+         * integer field of this class, which value is the index of the metric.
+         */
+        public boolean metrics;
+
+        /**
+         * Hint for the generator.
+         * Indicates that this class is a prepared chain plan: an immutable sequence of opcodes, each of which replays
+         * the call of a static method of this logic class (the opcode being the index of the method) with the content
+         * created for the execution as the first argument, followed by the arguments bound on execution. The generator should provide
+         * the language-specific implementation of the plan.
+         */
+        public InnerClassModel planLogic;
+
+        /**
+         * Hint for the generator.
+         * Indicates that this class is an immutable trace of the calls of a builder, used by the persistent and memoizing builders.
+         * For each static method of this logic class the trace should provide an instance method with the same name
+         * and arguments, except for the content. Methods which return nothing yield the trace extended by the call,
+         * sharing the trace they extend, others replay the logic methods of the whole trace on a new content.
+         * The generator should provide the language-specific implementation of the trace.
+         */
+        public InnerClassModel traceLogic;
+
+        /**
+         * Hint for the generator, used with {@link #traceLogic}.
+         * Indicates that the results should be looked up in a bounded cache shared by all the traces of the graph,
+         * keyed by the whole trace, and replayed only on a miss. Capacity of the cache is given by the static,
+         * final integer field {@code CAPACITY} of this class. The generator should provide the language-specific
+         * implementation of the cache, with hit and miss counters.
+         */
+        public boolean memoized;
+
+        /**
+         * Hint for the generator.
+         * Indicates that this class is a rope of the emitted text fragments, used as the content of the generated logic
+         * and as the base of the types composed of fragments. The generator should provide the language-specific
+         * implementation of {@code appendLiteral(text)} for the texts of the specification, which are literals of the generated
+         * code and may be referenced in place, {@code append(fragment)} for strings, integers and other ropes, of which
+         * the ropes are referenced without copying, {@code append(items, separator)} for arrays, {@code snapshot()}, yielding an immutable view
+         * of the fragments appended so far, and {@code materialize()}, which flattens the whole rope into a string
+         * of the precomputed, exact length.
+         */
+        public boolean fragments;
+
+        /**
+         * Hint for the generator, used with {@link #fragments}.
+         * Indicates that the rope should also provide {@code encode(buffer)}, writing its text as UTF-8 directly
+         * into a byte buffer reused between the calls, without building an intermediate string.
+         */
+        public boolean bytes;
+
+        /**
+         * Hint for the generator, used with {@link #fragments}.
+         * If positive, the parts of the rope and the copies of the appended strings should be allocated from an arena
+         * with the initial block of this size, released in bulk with the rope, where the language makes a difference.
+         */
+        public int arena;
+
+        /**
+         * Hint for the generator, used with {@link #bytes}.
+         * Indicates that the byte buffers allocated by the rope should be direct, where the language makes a difference.
+         */
+        public boolean directBytes;
+
+        /**
+         * Set by {@link CodeModelCanonicalizer} once the class was canonicalized.
+         */
+        boolean canonical;
+
         public MainClassModel(String name) {
             super(name);
         }
@@ -224,21 +329,29 @@ public class CodeModel {
          */
         public Visibility visibility = Visibility.PUBLIC;
 
+        /**
+         * Hint indicating that the method is rarely called, so the generators may place it away from the hot code.
+         */
+        public boolean cold;
+
         /**
          * Parameters of the method.
          */
-        public List<ArgumentModel> argumentModels = new ArrayList<>();
+        public List<ArgumentModel> argumentModels = new CopyOnWriteList<>();
 
         /**
          * Optional body of the method, see {@link com.rushingvise.metagen.generator.CodeGenerator.InstructionModelSerializer}.
          */
-        public List<InstructionModel> methodBody = new ArrayList<>();
+        public List<InstructionModel> methodBody = new CopyOnWriteList<>();
 
         public MethodModel(String name) {
             this.name = name;
         }
 
         /**
+         * Parameters and body of the copy share their storage with this model until either of them is modified,
+         * so copying a method only to change its flags, name or return type does not duplicate its signature.
+         * The arguments and instructions themselves are shared, so they must not be modified through either model.
          * @return Shallow copy of the method model.
          */
         public MethodModel copy() {
@@ -247,8 +360,9 @@ public class CodeModel {
             ret._static = this._static;
             ret.overrides = this.overrides;
             ret.visibility = this.visibility;
-            ret.argumentModels.addAll(this.argumentModels);
-            ret.methodBody.addAll(this.methodBody);
+            ret.cold = this.cold;
+            ret.argumentModels = CopyOnWriteList.fork(this.argumentModels);
+            ret.methodBody = CopyOnWriteList.fork(this.methodBody);
             return ret;
         }
     }
@@ -281,6 +395,16 @@ public class CodeModel {
          */
         public boolean _static;
 
+        /**
+         * Indicates if the field should be declared as final (constant).
+         */
+        public boolean _final;
+
+        /**
+         * Optional initial value of the field.
+         */
+        public RValueModel value;
+
         /**
          * Visibility of the field.
          */
@@ -336,6 +460,31 @@ public class CodeModel {
          */
         public static final TypeModel TYPE_INTEGER = new TypeModel("integer");
 
+        /**
+         * Language-agnostic 64-bit integer type.
+         */
+        public static final TypeModel TYPE_LONG = new TypeModel("long");
+
+        /**
+         * Language-agnostic double precision floating point type.
+         */
+        public static final TypeModel TYPE_DOUBLE = new TypeModel("double");
+
+        /**
+         * Language-agnostic boolean type.
+         */
+        public static final TypeModel TYPE_BOOLEAN = new TypeModel("boolean");
+
+        /**
+         * Language-agnostic character type.
+         */
+        public static final TypeModel TYPE_CHAR = new TypeModel("char");
+
+        /**
+         * Language-agnostic type of binary payloads.
+         */
+        public static final TypeModel TYPE_BYTES = new TypeModel("bytes");
+
         /**
          * Language-agnostic void type.
          */
@@ -371,7 +520,11 @@ public class CodeModel {
      * Visitor pattern interface used for generating constructor/method bodies.
      */
     public interface InstructionModel {
-        String accept(CodeGenerator.InstructionModelSerializer visitor);
+        /**
+         * @param visitor Serializer of the instruction.
+         * @param out Buffer to which the instruction is appended.
+         */
+        void accept(CodeGenerator.InstructionModelSerializer visitor, StringBuilder out);
     }
 
     /**
@@ -400,8 +553,8 @@ public class CodeModel {
         }
 
         @Override
-        public String accept(CodeGenerator.InstructionModelSerializer visitor) {
-            return visitor.visit(this);
+        public void accept(CodeGenerator.InstructionModelSerializer visitor, StringBuilder out) {
+            visitor.visit(this, out);
         }
     }
 
@@ -419,8 +572,90 @@ public class CodeModel {
         }
 
         @Override
-        public String accept(CodeGenerator.InstructionModelSerializer visitor) {
-            return visitor.visit(this);
+        public void accept(CodeGenerator.InstructionModelSerializer visitor, StringBuilder out) {
+            visitor.visit(this, out);
+        }
+    }
+
+    /**
+     * Statement returning boolean value.
+     */
+    public static class BooleanValueModel implements RValueModel {
+        /**
+         * Value of the boolean that should be returned.
+         */
+        public boolean value;
+
+        public BooleanValueModel(boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        public void accept(CodeGenerator.InstructionModelSerializer visitor, StringBuilder out) {
+            visitor.visit(this, out);
+        }
+    }
+
+    /**
+     * Statement returning character value.
+     */
+    public static class CharValueModel implements RValueModel {
+        /**
+         * Value of the character that should be returned.
+         */
+        public char value;
+
+        public CharValueModel(char value) {
+            this.value = value;
+        }
+
+        @Override
+        public void accept(CodeGenerator.InstructionModelSerializer visitor, StringBuilder out) {
+            visitor.visit(this, out);
+        }
+    }
+
+    /**
+     * Statement returning binary payload with given bytes.
+     */
+    public static class BytesValueModel implements RValueModel {
+        /**
+         * Bytes of the payload.
+         */
+        public byte[] value;
+
+        public BytesValueModel(byte[] value) {
+            this.value = value;
+        }
+
+        @Override
+        public void accept(CodeGenerator.InstructionModelSerializer visitor, StringBuilder out) {
+            visitor.visit(this, out);
+        }
+    }
+
+    /**
+     * Statement returning an array (or a list of values passed to a variadic argument) with given items.
+     */
+    public static class ArrayValueModel implements RValueModel {
+        /**
+         * Type of the array items.
+         */
+        public TypeModel type;
+
+        /**
+         * Items of the array.
+         */
+        public List<RValueModel> values = new ArrayList<>();
+
+        public ArrayValueModel(TypeModel type, List<RValueModel> values) {
+            this.type = type;
+            this.values.addAll(values);
+        }
+
+        @Override
+        public void accept(CodeGenerator.InstructionModelSerializer visitor, StringBuilder out) {
+            visitor.visit(this, out);
         }
     }
 
@@ -429,8 +664,8 @@ public class CodeModel {
      */
     public static class NullValueModel implements RValueModel {
         @Override
-        public String accept(CodeGenerator.InstructionModelSerializer visitor) {
-            return visitor.visit(this);
+        public void accept(CodeGenerator.InstructionModelSerializer visitor, StringBuilder out) {
+            visitor.visit(this, out);
         }
     }
 
@@ -459,8 +694,8 @@ public class CodeModel {
         }
 
         @Override
-        public String accept(CodeGenerator.InstructionModelSerializer visitor) {
-            return visitor.visit(this);
+        public void accept(CodeGenerator.InstructionModelSerializer visitor, StringBuilder out) {
+            visitor.visit(this, out);
         }
     }
 
@@ -470,9 +705,19 @@ public class CodeModel {
     public static class DeclarationModel implements InstructionModel {
         public VariableModel variable;
 
+        /**
+         * Optional initial value of the variable.
+         */
+        public RValueModel value;
+
+        public DeclarationModel(VariableModel variable, RValueModel value) {
+            this.variable = variable;
+            this.value = value;
+        }
+
         @Override
-        public String accept(CodeGenerator.InstructionModelSerializer visitor) {
-            return visitor.visit(this);
+        public void accept(CodeGenerator.InstructionModelSerializer visitor, StringBuilder out) {
+            visitor.visit(this, out);
         }
     }
 
@@ -495,8 +740,8 @@ public class CodeModel {
         }
 
         @Override
-        public String accept(CodeGenerator.InstructionModelSerializer visitor) {
-            return visitor.visit(this);
+        public void accept(CodeGenerator.InstructionModelSerializer visitor, StringBuilder out) {
+            visitor.visit(this, out);
         }
     }
 
@@ -511,8 +756,8 @@ public class CodeModel {
         }
 
         @Override
-        public String accept(CodeGenerator.InstructionModelSerializer visitor) {
-            return visitor.visit(this);
+        public void accept(CodeGenerator.InstructionModelSerializer visitor, StringBuilder out) {
+            visitor.visit(this, out);
         }
     }
 
@@ -530,6 +775,11 @@ public class CodeModel {
          */
         public final AbstractClassModel classInstance;
 
+        /**
+         * Expression on which result the method should be called, allows chaining the calls.
+         */
+        public final RValueModel target;
+
         /**
          * Name of the method to be invoked.
          */
@@ -543,6 +793,7 @@ public class CodeModel {
         public MethodCallModel(VariableModel instance, String methodName, List<RValueModel> parameters) {
             this.instance = instance;
             this.classInstance = null;
+            this.target = null;
             this.methodName = methodName;
             this.parameters.addAll(parameters);
         }
@@ -550,13 +801,22 @@ public class CodeModel {
         public MethodCallModel(AbstractClassModel instance, String methodName, List<RValueModel> parameters) {
             this.instance = null;
             this.classInstance = instance;
+            this.target = null;
+            this.methodName = methodName;
+            this.parameters.addAll(parameters);
+        }
+
+        public MethodCallModel(RValueModel target, String methodName, List<RValueModel> parameters) {
+            this.instance = null;
+            this.classInstance = null;
+            this.target = target;
             this.methodName = methodName;
             this.parameters.addAll(parameters);
         }
 
         @Override
-        public String accept(CodeGenerator.InstructionModelSerializer visitor) {
-            return visitor.visit(this);
+        public void accept(CodeGenerator.InstructionModelSerializer visitor, StringBuilder out) {
+            visitor.visit(this, out);
         }
     }
 
@@ -580,8 +840,8 @@ public class CodeModel {
         }
 
         @Override
-        public String accept(CodeGenerator.InstructionModelSerializer visitor) {
-            return visitor.visit(this);
+        public void accept(CodeGenerator.InstructionModelSerializer visitor, StringBuilder out) {
+            visitor.visit(this, out);
         }
     }
 
@@ -609,8 +869,8 @@ public class CodeModel {
         }
 
         @Override
-        public String accept(CodeGenerator.InstructionModelSerializer visitor) {
-            return visitor.visit(this);
+        public void accept(CodeGenerator.InstructionModelSerializer visitor, StringBuilder out) {
+            visitor.visit(this, out);
         }
     }
 }
@@ -0,0 +1,398 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.generator;
+
+import com.rushingvise.metagen.generator.CodeModel.*;
+
+import java.util.*;
+
+/**
+ * Turns a built {@link CodeModel} into its canonical, compact representation.
+ * All collections are replaced with unmodifiable array-backed ones, identifiers are interned
+ * and equal types, arguments and argument lists (signatures) are replaced with single shared instances.
+ * The canonical model is not immutable: fields of the model classes stay public and assignable, only the modifications
+ * of its collections are rejected. As the types and arguments are shared, assigning a field of one of them changes it
+ * for every owner, so the model must not be modified afterwards. Nothing is done to make the model safe to publish
+ * between threads.
+ * A single canonicalizer instance can be used for multiple models (or main classes), in which case
+ * the interned identifiers and shared signatures are reused between all of them.
+ * Instances of this class are not thread-safe.
+ */
+public class CodeModelCanonicalizer {
+    private final Map<String, String> mNames = new HashMap<>();
+    private final Map<TypeKey, TypeModel> mTypes = new HashMap<>();
+    private final Map<ArgumentKey, ArgumentModel> mArguments = new HashMap<>();
+    private final Map<List<ArgumentModel>, List<ArgumentModel>> mSignatures = new HashMap<>();
+    private final Set<Object> mVisited = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Canonicalizes the given model in place.
+     * @param codeModel Model to be canonicalized.
+     * @return The same, now canonical, model instance.
+     */
+    public CodeModel canonicalize(CodeModel codeModel) {
+        if (!codeModel.isCanonical()) {
+            for (MainClassModel classModel : codeModel.classes) {
+                canonicalize(classModel);
+            }
+            codeModel.classes = compactList(codeModel.classes);
+            codeModel.markCanonical();
+        }
+        return codeModel;
+    }
+
+    /**
+     * Canonicalizes a single main class together with all the classes it requires.
+     * @param classModel Main class model to be canonicalized.
+     * @return The same, now canonical, main class model.
+     */
+    public MainClassModel canonicalize(MainClassModel classModel) {
+        // Classes canonicalized by other canonicalizers are skipped, as they may be already used by the generators.
+        if (classModel == null || classModel.canonical || !mVisited.add(classModel)) {
+            return classModel;
+        }
+        canonicalizeClass(classModel);
+        for (MainClassModel requiredClass : classModel.requiredClasses) {
+            canonicalize(requiredClass);
+        }
+        for (InterfaceModel interfaceModel : classModel.interfaces) {
+            canonicalizeEntity(interfaceModel);
+        }
+        for (InnerClassModel innerClass : classModel.innerClasses) {
+            if (mVisited.add(innerClass)) {
+                canonicalizeClass(innerClass);
+            }
+        }
+        classModel.requiredClasses = compactSet(classModel.requiredClasses);
+        classModel.interfaces = compactSet(classModel.interfaces);
+        classModel.innerClasses = compactSet(classModel.innerClasses);
+        classModel.canonical = true;
+        return classModel;
+    }
+
+    private void canonicalizeEntity(EntityModel entityModel) {
+        entityModel.name = intern(entityModel.name);
+        for (MethodModel methodModel : entityModel.methodModels) {
+            canonicalizeMethod(methodModel);
+        }
+        entityModel.methodModels = compactList(entityModel.methodModels);
+    }
+
+    private void canonicalizeClass(AbstractClassModel classModel) {
+        canonicalizeEntity(classModel);
+        for (ConstructorModel constructorModel : classModel.constructorModels) {
+            if (mVisited.add(constructorModel)) {
+                constructorModel.argumentModels = signature(constructorModel.argumentModels);
+                constructorModel.constructorBody = instructions(constructorModel.constructorBody);
+            }
+        }
+        for (FieldModel fieldModel : classModel.fieldModels) {
+            if (mVisited.add(fieldModel)) {
+                fieldModel.name = intern(fieldModel.name);
+                fieldModel.type = type(fieldModel.type);
+                canonicalizeInstruction(fieldModel.value);
+            }
+        }
+        classModel.constructorModels = compactList(classModel.constructorModels);
+        classModel.fieldModels = compactList(classModel.fieldModels);
+        classModel.implementedInterfaceModels = compactList(classModel.implementedInterfaceModels);
+    }
+
+    private void canonicalizeMethod(MethodModel methodModel) {
+        if (mVisited.add(methodModel)) {
+            methodModel.name = intern(methodModel.name);
+            methodModel.returnType = type(methodModel.returnType);
+            methodModel.argumentModels = signature(methodModel.argumentModels);
+            methodModel.methodBody = instructions(methodModel.methodBody);
+        }
+    }
+
+    private List<InstructionModel> instructions(List<InstructionModel> instructions) {
+        for (InstructionModel instructionModel : instructions) {
+            canonicalizeInstruction(instructionModel);
+        }
+        return compactList(instructions);
+    }
+
+    private List<RValueModel> parameters(List<RValueModel> parameters) {
+        for (RValueModel rValueModel : parameters) {
+            canonicalizeInstruction(rValueModel);
+        }
+        return compactList(parameters);
+    }
+
+    private void canonicalizeInstruction(InstructionModel instructionModel) {
+        if (instructionModel == null || !mVisited.add(instructionModel)) {
+            return;
+        }
+        if (instructionModel instanceof StringValueModel) {
+            StringValueModel stringValueModel = (StringValueModel) instructionModel;
+            stringValueModel.value = intern(stringValueModel.value);
+        } else if (instructionModel instanceof ArrayValueModel) {
+            ArrayValueModel arrayValueModel = (ArrayValueModel) instructionModel;
+            arrayValueModel.type = type(arrayValueModel.type);
+            arrayValueModel.values = parameters(arrayValueModel.values);
+        } else if (instructionModel instanceof VariableModel) {
+            VariableModel variableModel = (VariableModel) instructionModel;
+            variableModel.name = intern(variableModel.name);
+            variableModel.type = type(variableModel.type);
+        } else if (instructionModel instanceof DeclarationModel) {
+            DeclarationModel declarationModel = (DeclarationModel) instructionModel;
+            canonicalizeInstruction(declarationModel.variable);
+            canonicalizeInstruction(declarationModel.value);
+        } else if (instructionModel instanceof AssignmentModel) {
+            AssignmentModel assignmentModel = (AssignmentModel) instructionModel;
+            canonicalizeInstruction(assignmentModel.leftValue);
+            canonicalizeInstruction(assignmentModel.rightValue);
+        } else if (instructionModel instanceof ReturnInstructionModel) {
+            canonicalizeInstruction(((ReturnInstructionModel) instructionModel).returnedStatement);
+        } else if (instructionModel instanceof MethodCallModel) {
+            MethodCallModel methodCallModel = (MethodCallModel) instructionModel;
+            canonicalizeInstruction(methodCallModel.instance);
+            canonicalizeInstruction(methodCallModel.target);
+            methodCallModel.methodName = intern(methodCallModel.methodName);
+            methodCallModel.parameters = parameters(methodCallModel.parameters);
+        } else if (instructionModel instanceof AllocationModel) {
+            AllocationModel allocationModel = (AllocationModel) instructionModel;
+            allocationModel.type = type(allocationModel.type);
+            allocationModel.parameters = parameters(allocationModel.parameters);
+        } else if (instructionModel instanceof SuperCallModel) {
+            SuperCallModel superCallModel = (SuperCallModel) instructionModel;
+            superCallModel.parameters = parameters(superCallModel.parameters);
+        }
+    }
+
+    private List<ArgumentModel> signature(List<ArgumentModel> argumentModels) {
+        if (argumentModels.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<ArgumentModel> arguments = new ArrayList<>(argumentModels.size());
+        for (ArgumentModel argumentModel : argumentModels) {
+            arguments.add(argument(argumentModel));
+        }
+        List<ArgumentModel> ret = mSignatures.get(arguments);
+        if (ret == null) {
+            ret = compactList(arguments);
+            mSignatures.put(ret, ret);
+        }
+        return ret;
+    }
+
+    private ArgumentModel argument(ArgumentModel argumentModel) {
+        argumentModel.name = intern(argumentModel.name);
+        argumentModel.type = type(argumentModel.type);
+        ArgumentKey key = new ArgumentKey(argumentModel);
+        ArgumentModel ret = mArguments.get(key);
+        if (ret == null) {
+            ret = argumentModel;
+            mArguments.put(key, ret);
+        }
+        return ret;
+    }
+
+    private TypeModel type(TypeModel typeModel) {
+        // Built-in types are compared by identity in the generators, so they are never replaced.
+        if (typeModel == null || typeModel == TypeModel.TYPE_VOID || typeModel == TypeModel.TYPE_STRING
+                || typeModel == TypeModel.TYPE_INTEGER || typeModel == TypeModel.TYPE_LONG || typeModel == TypeModel.TYPE_DOUBLE
+                || typeModel == TypeModel.TYPE_BOOLEAN || typeModel == TypeModel.TYPE_CHAR || typeModel == TypeModel.TYPE_BYTES) {
+            return typeModel;
+        }
+        TypeKey key = new TypeKey(typeModel);
+        TypeModel ret = mTypes.get(key);
+        if (ret == null) {
+            if (typeModel.name != null && typeModel.name != intern(typeModel.name)) {
+                ret = new TypeModel(intern(typeModel.name));
+                ret.reference = typeModel.reference;
+            } else {
+                ret = typeModel;
+            }
+            mTypes.put(key, ret);
+        }
+        return ret;
+    }
+
+    private String intern(String name) {
+        if (name == null) {
+            return null;
+        }
+        String ret = mNames.putIfAbsent(name, name);
+        return ret != null ? ret : name;
+    }
+
+    private static <T> List<T> compactList(Collection<T> items) {
+        if (items.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return new ArrayBackedList<>(items.toArray());
+    }
+
+    private static <T> Set<T> compactSet(Collection<T> items) {
+        if (items.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return new ArrayBackedSet<>(items.toArray());
+    }
+
+    /**
+     * Identity of a type, types with equal keys are replaced with a single instance.
+     */
+    private static class TypeKey {
+        private final String mName;
+        private final EntityModel mEntityModel;
+        private final boolean mReference;
+
+        TypeKey(TypeModel typeModel) {
+            mName = typeModel.name;
+            mEntityModel = typeModel.entityModel;
+            mReference = typeModel.reference;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TypeKey)) {
+                return false;
+            }
+            TypeKey other = (TypeKey) o;
+            return mReference == other.mReference && mEntityModel == other.mEntityModel && Objects.equals(mName, other.mName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Objects.hashCode(mName) + System.identityHashCode(mEntityModel)) + (mReference ? 1 : 0);
+        }
+    }
+
+    /**
+     * Identity of an argument, arguments with equal keys are replaced with a single instance.
+     * Expects the argument type to be already canonical.
+     */
+    private static class ArgumentKey {
+        private final String mName;
+        private final TypeModel mType;
+        private final boolean mVariadic;
+        private final boolean mArray;
+
+        ArgumentKey(ArgumentModel argumentModel) {
+            mName = argumentModel.name;
+            mType = argumentModel.type;
+            mVariadic = argumentModel.variadic;
+            mArray = argumentModel.array;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ArgumentKey)) {
+                return false;
+            }
+            ArgumentKey other = (ArgumentKey) o;
+            return mType == other.mType && mVariadic == other.mVariadic && mArray == other.mArray && Objects.equals(mName, other.mName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Objects.hashCode(mName) + System.identityHashCode(mType)) + (mVariadic ? 2 : 0) + (mArray ? 1 : 0);
+        }
+    }
+
+    /**
+     * Unmodifiable list backed by an exactly sized array.
+     */
+    private static class ArrayBackedList<T> extends AbstractList<T> implements RandomAccess {
+        private final Object[] mItems;
+
+        ArrayBackedList(Object[] items) {
+            mItems = items;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            return (T) mItems[index];
+        }
+
+        @Override
+        public int size() {
+            return mItems.length;
+        }
+    }
+
+    /**
+     * Unmodifiable insertion-ordered set backed by an exactly sized array of the items and an open-addressing
+     * hash table of their indices, so lookups take constant time without an entry object per item.
+     */
+    private static class ArrayBackedSet<T> extends AbstractSet<T> {
+        private final Object[] mItems;
+        private final int[] mTable;
+
+        /**
+         * @param items Distinct items of the set, in iteration order.
+         */
+        ArrayBackedSet(Object[] items) {
+            mItems = items;
+            // Load factor of at most 0.5, so probe sequences stay short.
+            mTable = new int[Integer.highestOneBit(Math.max(items.length, 1)) * 4];
+            for (int i = 0; i < items.length; ++i) {
+                int slot = slot(items[i]);
+                while (mTable[slot] != 0) {
+                    slot = (slot + 1) & (mTable.length - 1);
+                }
+                mTable[slot] = i + 1;
+            }
+        }
+
+        private int slot(Object item) {
+            final int hash = Objects.hashCode(item) * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & (mTable.length - 1);
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return new Iterator<T>() {
+                private int mIndex;
+
+                @Override
+                public boolean hasNext() {
+                    return mIndex < mItems.length;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public T next() {
+                    if (mIndex >= mItems.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return (T) mItems[mIndex++];
+                }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            for (int slot = slot(o); mTable[slot] != 0; slot = (slot + 1) & (mTable.length - 1)) {
+                if (Objects.equals(mItems[mTable[slot] - 1], o)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int size() {
+            return mItems.length;
+        }
+    }
+}
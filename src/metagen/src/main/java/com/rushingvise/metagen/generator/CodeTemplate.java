@@ -0,0 +1,165 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.generator;
+
+import com.rushingvise.metagen.generator.CodeGenerator.CodePrintWriter;
+import com.rushingvise.metagen.generator.CodeGenerator.CodePrintWriter.CodeBlock;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fixed support code of the generated classes, e.g. the metrics or the rope, kept as a resource in the {@code templates}
+ * directory next to the generators. Code of a template is written at the current indentation of the writer.
+ * <ul>
+ * <li>{@code @@section name} starts a section, which is written on its own, e.g. to the header or to the source file.</li>
+ * <li>{@code @@if flag}, {@code @@if !flag}, {@code @@else} and {@code @@end} keep the lines depending on a boolean parameter.</li>
+ * <li>{@code @@#} starts a comment of the template.</li>
+ * <li>{@code ${name}} is replaced with the value of the parameter. Line holding only a placeholder of a {@link CodeBlock}
+ * is replaced with the code it writes, indented as the placeholder.</li>
+ * </ul>
+ */
+class CodeTemplate {
+    private static final String DIRECTIVE = "@@";
+    private static final String INDENT = "    ";
+    private static final Map<String, CodeTemplate> TEMPLATES = new ConcurrentHashMap<>();
+
+    private final String mName;
+    private final Map<String, List<String>> mSections = new HashMap<>();
+
+    private CodeTemplate(String name, BufferedReader reader) throws IOException {
+        mName = name;
+        List<String> section = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            final String directive = line.trim();
+            if (directive.startsWith(DIRECTIVE + "section ")) {
+                section = new ArrayList<>();
+                mSections.put(directive.substring(DIRECTIVE.length() + "section ".length()).trim(), section);
+            } else if (section != null && !directive.startsWith(DIRECTIVE + "#")) {
+                section.add(line);
+            }
+        }
+    }
+
+    /**
+     * @param name Name of the template resource, e.g. {@code "java/Metrics.java.in"}.
+     * @return Parsed template, loaded once.
+     * @throws CodeGeneratorException
+     */
+    static CodeTemplate get(String name) throws CodeGeneratorException {
+        CodeTemplate ret = TEMPLATES.get(name);
+        if (ret == null) {
+            try (InputStream inputStream = CodeTemplate.class.getResourceAsStream("templates/" + name)) {
+                if (inputStream == null) {
+                    throw new CodeGeneratorException("Missing template " + name + ".");
+                }
+                ret = new CodeTemplate(name, new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)));
+            } catch (IOException e) {
+                throw new CodeGeneratorException(e);
+            }
+            TEMPLATES.putIfAbsent(name, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Writes a section of the template.
+     * @param section Name of the section.
+     * @param parameters Values of the placeholders and the flags: strings, numbers, booleans or {@link CodeBlock}s.
+     * @param writer Destination of the code.
+     * @throws CodeGeneratorException
+     */
+    void write(String section, Map<String, ?> parameters, CodePrintWriter writer) throws CodeGeneratorException {
+        final List<String> lines = mSections.get(section);
+        if (lines == null) {
+            throw new CodeGeneratorException("Missing section " + section + " of template " + mName + ".");
+        }
+        // Whether the lines are written, for each of the open conditions.
+        final Deque<Boolean> conditions = new ArrayDeque<>();
+        boolean active = true;
+        for (String line : lines) {
+            final String trimmed = line.trim();
+            if (trimmed.startsWith(DIRECTIVE + "if ")) {
+                conditions.push(active);
+                final String flag = trimmed.substring(DIRECTIVE.length() + "if ".length()).trim();
+                final boolean negated = flag.startsWith("!");
+                active = active && (getFlag(negated ? flag.substring(1) : flag, parameters) != negated);
+            } else if (trimmed.equals(DIRECTIVE + "else")) {
+                if (conditions.isEmpty()) {
+                    throw new CodeGeneratorException("Unexpected @@else in template " + mName + ".");
+                }
+                active = conditions.peek() && !active;
+            } else if (trimmed.equals(DIRECTIVE + "end")) {
+                if (conditions.isEmpty()) {
+                    throw new CodeGeneratorException("Unexpected @@end in template " + mName + ".");
+                }
+                active = conditions.pop();
+            } else if (!active) {
+                continue;
+            } else if (trimmed.isEmpty()) {
+                writer.println();
+            } else if (trimmed.startsWith("${") && trimmed.indexOf('}') == trimmed.length() - 1
+                    && getValue(trimmed.substring(2, trimmed.length() - 1), parameters) instanceof CodeBlock) {
+                final int indentation = line.indexOf(trimmed) / INDENT.length();
+                writer.indent(indentation, (CodeBlock) getValue(trimmed.substring(2, trimmed.length() - 1), parameters));
+            } else {
+                writer.println(substitute(line, parameters));
+            }
+        }
+        if (!conditions.isEmpty()) {
+            throw new CodeGeneratorException("Missing @@end in template " + mName + ".");
+        }
+    }
+
+    private String substitute(String line, Map<String, ?> parameters) throws CodeGeneratorException {
+        final StringBuilder ret = new StringBuilder(line.length());
+        int position = 0;
+        int start;
+        while ((start = line.indexOf("${", position)) >= 0) {
+            final int end = line.indexOf('}', start);
+            if (end < 0) {
+                throw new CodeGeneratorException("Unterminated placeholder in template " + mName + ": " + line);
+            }
+            final Object value = getValue(line.substring(start + 2, end), parameters);
+            if (value instanceof CodeBlock) {
+                throw new CodeGeneratorException("Code block has to be placed on its own line in template " + mName + ": " + line);
+            }
+            ret.append(line, position, start).append(value);
+            position = end + 1;
+        }
+        return ret.append(line, position, line.length()).toString();
+    }
+
+    private boolean getFlag(String name, Map<String, ?> parameters) throws CodeGeneratorException {
+        final Object value = getValue(name, parameters);
+        if (!(value instanceof Boolean)) {
+            throw new CodeGeneratorException("Parameter " + name + " of template " + mName + " is not a flag.");
+        }
+        return (Boolean) value;
+    }
+
+    private Object getValue(String name, Map<String, ?> parameters) throws CodeGeneratorException {
+        final Object ret = parameters.get(name);
+        if (ret == null) {
+            throw new CodeGeneratorException("Missing parameter " + name + " of template " + mName + ".");
+        }
+        return ret;
+    }
+}
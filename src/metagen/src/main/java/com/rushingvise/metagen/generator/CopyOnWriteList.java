@@ -0,0 +1,137 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.generator;
+
+import java.util.*;
+
+/**
+ * Array-backed list which can be cheaply forked, see {@link #fork()}.
+ * A fork shares the backing array with the list it was created from until one of them is modified,
+ * only then the modified list takes its own copy of the items.
+ * Used by {@link CodeModel.MethodModel#copy()}, so copies of a method model do not duplicate
+ * its signature and body unless they are actually changed.
+ */
+class CopyOnWriteList<E> extends AbstractList<E> implements RandomAccess {
+    private static final Object[] EMPTY = new Object[0];
+
+    private Object[] mItems;
+    private int mSize;
+    private boolean mShared;
+
+    CopyOnWriteList() {
+        mItems = EMPTY;
+    }
+
+    private CopyOnWriteList(Object[] items, int size) {
+        mItems = items;
+        mSize = size;
+        mShared = true;
+    }
+
+    /**
+     * @param list List which items should be shared.
+     * @return Fork of the given list, or a copy of it if it is not a {@link CopyOnWriteList}.
+     */
+    static <E> List<E> fork(List<E> list) {
+        if (list instanceof CopyOnWriteList) {
+            return ((CopyOnWriteList<E>) list).fork();
+        }
+        CopyOnWriteList<E> ret = new CopyOnWriteList<>();
+        ret.addAll(list);
+        return ret;
+    }
+
+    /**
+     * @return List with the same items, sharing the backing array with this list until either of them is modified.
+     */
+    CopyOnWriteList<E> fork() {
+        if (mSize == 0) {
+            return new CopyOnWriteList<>();
+        }
+        mShared = true;
+        return new CopyOnWriteList<>(mItems, mSize);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        checkIndex(index, mSize);
+        return (E) mItems[index];
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E set(int index, E element) {
+        checkIndex(index, mSize);
+        prepareWrite(mSize);
+        E ret = (E) mItems[index];
+        mItems[index] = element;
+        return ret;
+    }
+
+    @Override
+    public void add(int index, E element) {
+        checkIndex(index, mSize + 1);
+        prepareWrite(mSize + 1);
+        System.arraycopy(mItems, index, mItems, index + 1, mSize - index);
+        mItems[index] = element;
+        ++mSize;
+        ++modCount;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E remove(int index) {
+        checkIndex(index, mSize);
+        prepareWrite(mSize);
+        E ret = (E) mItems[index];
+        System.arraycopy(mItems, index + 1, mItems, index, mSize - index - 1);
+        mItems[--mSize] = null;
+        ++modCount;
+        return ret;
+    }
+
+    @Override
+    public void clear() {
+        mItems = EMPTY;
+        mSize = 0;
+        mShared = false;
+        ++modCount;
+    }
+
+    /**
+     * Makes sure that this list owns its backing array and that the array can hold {@code capacity} items.
+     */
+    private void prepareWrite(int capacity) {
+        if (mShared || capacity > mItems.length) {
+            int length = mShared ? capacity : Math.max(capacity, mItems.length + (mItems.length >> 1) + 1);
+            mItems = Arrays.copyOf(mItems, length);
+            mShared = false;
+        }
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
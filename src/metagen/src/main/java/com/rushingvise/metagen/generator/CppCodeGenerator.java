@@ -17,17 +17,29 @@ limitations under the License.
 package com.rushingvise.metagen.generator;
 
 import com.rushingvise.metagen.generator.CodeModel.*;
+import com.rushingvise.metagen.jfr.GenerateUnitEvent;
+import com.rushingvise.metagen.stats.PipelineStats;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.util.StringJoiner;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
 
 /**
  * Creates C++ classes based on the provided {@link CodeModel}.
  */
 public class CppCodeGenerator extends CodeGenerator {
+    private static final String UNITY_SOURCE_PREFIX = "metagen_unity_";
+    private static final String PRECOMPILED_HEADER = "metagen_pch.h";
+    private static final String CMAKE_FRAGMENT = "metagen.cmake";
+    private static final String BENCHMARK_TEMPLATE = "cpp/Benchmark.cpp.in";
+    private static final String FRAGMENTS_TEMPLATE = "cpp/Fragments.cpp.in";
+    private static final String METRICS_TEMPLATE = "cpp/Metrics.cpp.in";
+    private static final String PLAN_TEMPLATE = "cpp/Plan.cpp.in";
+    private static final String TRACE_TEMPLATE = "cpp/Trace.cpp.in";
+
     private final String mNamespaceName;
+    private int mUnitsPerSource;
+    private final Set<String> mPrecompiledIncludes = new TreeSet<>();
+    private final List<MainClassModel> mGeneratedClasses = new ArrayList<>();
 
     /**
      * Generates C++ code based on the given model.
@@ -40,25 +52,130 @@ public class CppCodeGenerator extends CodeGenerator {
         mNamespaceName = namespaceName;
     }
 
+    /**
+     * Enables the unity build: once all the classes are generated, the given number of their .cpp files is included
+     * in each of the unity sources, which should be compiled instead of them. The standard headers used by the classes
+     * are gathered in a precompiled header and a CMake fragment lists all the generated files.
+     * @param unitsPerSource Number of classes compiled in a single translation unit, the unity build is disabled if not positive.
+     */
+    public void setUnityBuild(int unitsPerSource) {
+        mUnitsPerSource = unitsPerSource;
+    }
+
     @Override
-    public void generate() throws CodeGeneratorException {
-        try {
-            // For each main class model one .cpp and one .h file will be created.
-            for (MainClassModel classModel : mCodeModel.classes) {
-                File headerFile = new File(mOutputPath, classModel.name + ".h" + (classModel.template ? ".template" : ""));
-                if (!headerFile.exists()) {
-                    headerFile.createNewFile();
-                }
-                CodePrintWriter headerWriter = new CodePrintWriter(new FileOutputStream(headerFile));
-                File cppFile = new File(mOutputPath, classModel.name + ".cpp" + (classModel.template ? ".template" : ""));
-                if (!cppFile.exists()) {
-                    cppFile.createNewFile();
+    public void generate(MainClassModel classModel) throws CodeGeneratorException {
+        // For each main class model one .cpp and one .h file will be created.
+        ByteArrayOutputStream headerOutput = new ByteArrayOutputStream();
+        ByteArrayOutputStream cppOutput = new ByteArrayOutputStream();
+        GenerateUnitEvent event = new GenerateUnitEvent();
+        event.begin();
+        final PipelineStats.Timer timer = mStats.start(PipelineStats.STAGE_RENDER, classModel.name);
+        try (CodePrintWriter headerWriter = new CodePrintWriter(headerOutput);
+             CodePrintWriter cppWriter = new CodePrintWriter(cppOutput)) {
+            generateMainClass(classModel, headerWriter, cppWriter);
+        } finally {
+            timer.stop();
+        }
+        if (event.shouldCommit()) {
+            event.unitName = classModel.name;
+            event.language = "cpp";
+            event.outputSize = headerOutput.size() + cppOutput.size();
+            event.commit();
+        }
+        mStats.countClass(countMethods(classModel));
+        writeFile(classModel, classModel.name + ".h" + (classModel.template ? ".template" : ""), headerOutput);
+        writeFile(classModel, classModel.name + ".cpp" + (classModel.template ? ".template" : ""), cppOutput);
+        if (mUnitsPerSource > 0) {
+            mGeneratedClasses.add(classModel);
+        }
+    }
+
+    @Override
+    public void finish() throws CodeGeneratorException {
+        if (mUnitsPerSource <= 0) {
+            return;
+        }
+        final List<String> headers = new ArrayList<>();
+        final List<String> templates = new ArrayList<>();
+        final List<String> sources = new ArrayList<>();
+        final List<String> unitySources = new ArrayList<>();
+        for (MainClassModel classModel : mGeneratedClasses) {
+            headers.add(classModel.name + ".h");
+            if (classModel.template) {
+                templates.add(classModel.name + ".cpp");
+            } else {
+                sources.add(classModel.name + ".cpp");
+            }
+        }
+        // Classes implemented by the developer are compiled separately, they are not generated together with the others.
+        for (int i = 0; i < sources.size(); i += mUnitsPerSource) {
+            final String unitySource = UNITY_SOURCE_PREFIX + unitySources.size() + ".cpp";
+            final List<String> includedSources = sources.subList(i, Math.min(i + mUnitsPerSource, sources.size()));
+            unitySources.add(unitySource);
+            writeFile(unitySource, unitySource, render(writer -> {
+                writer.println("// GENERATED BY METAGEN");
+                writer.println("#include \"" + PRECOMPILED_HEADER + "\"");
+                writer.println();
+                for (String source : includedSources) {
+                    writer.println("#include \"" + source + "\"");
                 }
-                CodePrintWriter cppWriter = new CodePrintWriter(new FileOutputStream(cppFile));
-                generateMainClass(classModel, headerWriter, cppWriter);
+            }));
+        }
+        writeFile(PRECOMPILED_HEADER, PRECOMPILED_HEADER, render(writer -> {
+            writer.println("// GENERATED BY METAGEN");
+            writer.println("#pragma once");
+            writer.println();
+            for (String include : mPrecompiledIncludes) {
+                writer.println("#include <" + include + ">");
             }
-        } catch (IOException e) {
-            throw new CodeGeneratorException(e);
+        }));
+        writeFile(CMAKE_FRAGMENT, CMAKE_FRAGMENT, render(writer -> {
+            writer.println("# GENERATED BY METAGEN");
+            writer.println("# Include this file and call metagen_target_sources(<target>) to build the generated code.");
+            writer.println("set(METAGEN_DIR ${CMAKE_CURRENT_LIST_DIR})");
+            writeCMakeList(writer, "METAGEN_HEADERS", headers);
+            writeCMakeList(writer, "METAGEN_SOURCES", unitySources);
+            writer.println("# Implementations of the .template files, expected next to the generated files.");
+            writeCMakeList(writer, "METAGEN_TEMPLATES", templates);
+            writer.println("set(METAGEN_PRECOMPILED_HEADER ${METAGEN_DIR}/" + PRECOMPILED_HEADER + ")");
+            writer.println();
+            writer.println("function(metagen_target_sources target)");
+            writer.println("    target_sources(${target} PRIVATE ${METAGEN_SOURCES} ${METAGEN_TEMPLATES})");
+            writer.println("    target_include_directories(${target} PUBLIC ${METAGEN_DIR})");
+            writer.println("    if(NOT CMAKE_VERSION VERSION_LESS 3.16)");
+            writer.println("        target_precompile_headers(${target} PRIVATE ${METAGEN_PRECOMPILED_HEADER})");
+            writer.println("    endif()");
+            writer.println("endfunction()");
+        }));
+    }
+
+    private static void writeCMakeList(CodePrintWriter writer, String name, List<String> files) {
+        writer.println("set(" + name);
+        for (String file : files) {
+            writer.println("    ${METAGEN_DIR}/" + file);
+        }
+        writer.println(")");
+    }
+
+    private static ByteArrayOutputStream render(FileContent content) throws CodeGeneratorException {
+        final ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        try (CodePrintWriter writer = new CodePrintWriter(ret)) {
+            content.write(writer);
+        }
+        return ret;
+    }
+
+    /**
+     * Writer of the content of a file, which does not belong to any of the classes.
+     */
+    private interface FileContent {
+        void write(CodePrintWriter writer) throws CodeGeneratorException;
+    }
+
+    private static void appendFieldValue(CppInstructionModelSerializer instructionModelSerializer, FieldModel fieldModel, StringBuilder out) {
+        if (fieldModel.value != null) {
+            out.append(" = ");
+            fieldModel.value.accept(instructionModelSerializer, out);
         }
     }
 
@@ -69,10 +186,18 @@ public class CppCodeGenerator extends CodeGenerator {
         // Declaring fields defined in this class.
         for (FieldModel fieldModel : classModel.fieldModels) {
             classScope.updateCurrentVisibility(fieldModel.visibility, headerWriter);
-            headerWriter.println(createCppFieldDeclaration(fieldModel) + ";");
+            final StringBuilder declaration = headerWriter.startLine().append(createCppFieldDeclaration(fieldModel));
+            if (!fieldModel._static) {
+                appendFieldValue(instructionModelSerializer, fieldModel, declaration);
+            }
+            declaration.append(';');
+            headerWriter.endLine();
             // Static fields require definition in .cpp file.
             if (fieldModel._static) {
-                cppWriter.println(createCppFieldDefinition(classModel, fieldModel) + ";");
+                final StringBuilder definition = cppWriter.startLine().append(createCppFieldDefinition(classModel, fieldModel));
+                appendFieldValue(instructionModelSerializer, fieldModel, definition);
+                definition.append(';');
+                cppWriter.endLine();
             }
         }
         headerWriter.println();
@@ -85,7 +210,7 @@ public class CppCodeGenerator extends CodeGenerator {
                 for (InstructionModel instructionModel : constructorModel.constructorBody) {
                     // Unfortunately super call requires special handling.
                     if (!(instructionModel instanceof SuperCallModel)) {
-                        cppWriter.println(instructionModel.accept(instructionModelSerializer) + ';');
+                        cppWriter.printStatement(instructionModel, instructionModelSerializer);
                     }
                 }
             });
@@ -97,21 +222,112 @@ public class CppCodeGenerator extends CodeGenerator {
             headerWriter.println(createCppClassMethodDeclaration(methodModel) + ";");
             cppWriter.block(createCppClassMethodDefinition(classModel, methodModel), () -> {
                 for (InstructionModel instructionModel : methodModel.methodBody) {
-                    cppWriter.println(instructionModel.accept(instructionModelSerializer) + ';');
+                    cppWriter.printStatement(instructionModel, instructionModelSerializer);
                 }
             });
             cppWriter.println();
         }
     }
 
+    /**
+     * @return Whether any signature or field of the given class or of its inner entities uses {@code std::int64_t} or {@code std::uint8_t}.
+     */
+    private static boolean usesFixedWidthTypes(MainClassModel mainClassModel) {
+        final List<EntityModel> entityModels = new ArrayList<>();
+        entityModels.add(mainClassModel);
+        entityModels.addAll(mainClassModel.innerClasses);
+        entityModels.addAll(mainClassModel.interfaces);
+        for (EntityModel entityModel : entityModels) {
+            for (MethodModel methodModel : entityModel.methodModels) {
+                if (isFixedWidthType(methodModel.returnType) || usesFixedWidthTypes(methodModel.argumentModels)) {
+                    return true;
+                }
+            }
+            if (entityModel instanceof AbstractClassModel) {
+                final AbstractClassModel classModel = (AbstractClassModel) entityModel;
+                for (ConstructorModel constructorModel : classModel.constructorModels) {
+                    if (usesFixedWidthTypes(constructorModel.argumentModels)) {
+                        return true;
+                    }
+                }
+                for (FieldModel fieldModel : classModel.fieldModels) {
+                    if (isFixedWidthType(fieldModel.type)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean usesFixedWidthTypes(List<ArgumentModel> argumentModels) {
+        for (ArgumentModel argumentModel : argumentModels) {
+            if (isFixedWidthType(argumentModel.type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isFixedWidthType(TypeModel type) {
+        return type == TypeModel.TYPE_LONG || type == TypeModel.TYPE_BYTES;
+    }
+
+    /**
+     * @return Standard headers required by the given class, in the order of their first use.
+     */
+    private static Set<String> createStandardIncludes(MainClassModel mainClassModel) {
+        final Set<String> ret = new LinkedHashSet<>(Arrays.asList("memory", "string", "vector"));
+        if (mainClassModel.benchmark) {
+            Collections.addAll(ret, "chrono", "iostream");
+        }
+        if (mainClassModel.metrics) {
+            Collections.addAll(ret, "atomic", "chrono", "cstdint", "ostream");
+        }
+        if (mainClassModel.planLogic != null) {
+            Collections.addAll(ret, "any", "stdexcept", "utility");
+        }
+        if (usesFixedWidthTypes(mainClassModel)) {
+            ret.add("cstdint");
+        }
+        if (mainClassModel.fragments) {
+            Collections.addAll(ret, "cstddef", "cstdint", "cstdio", "cstdlib", "cstring");
+            if (mainClassModel.arena > 0) {
+                ret.add("memory_resource");
+            } else {
+                ret.add("deque");
+            }
+            ret.add("utility");
+            if (mainClassModel.bytes) {
+                Collections.addAll(ret, "cstring", "stdexcept");
+            }
+        }
+        if (mainClassModel.traceLogic != null && mainClassModel.memoized) {
+            Collections.addAll(ret, "algorithm", "any", "atomic", "cstdint", "cstring", "functional", "list", "mutex",
+                    "stdexcept", "unordered_map", "utility");
+        } else if (mainClassModel.traceLogic != null) {
+            Collections.addAll(ret, "any", "stdexcept", "utility");
+        }
+        return ret;
+    }
+
     private void generateMainClass(MainClassModel mainClassModel, CodePrintWriter headerWriter, CodePrintWriter cppWriter) throws CodeGeneratorException {
         final CppInstructionModelSerializer instructionModelSerializer = new CppInstructionModelSerializer();
         headerWriter.println("// GENERATED BY METAGEN");
         headerWriter.println("#pragma once");
         headerWriter.println();
-        headerWriter.println("#include <memory>");
-        headerWriter.println("#include <string>");
-        headerWriter.println("#include <vector>");
+        final Set<String> standardIncludes = createStandardIncludes(mainClassModel);
+        for (String include : standardIncludes) {
+            headerWriter.println("#include <" + include + ">");
+        }
+        if (mainClassModel.fragments && mainClassModel.bytes) {
+            headerWriter.println("#if __cplusplus >= 202002L");
+            headerWriter.println("#include <span>");
+            headerWriter.println("#endif");
+        }
+        if (mUnitsPerSource > 0) {
+            mPrecompiledIncludes.addAll(standardIncludes);
+        }
         for (MainClassModel requiredClass : mainClassModel.requiredClasses) {
             headerWriter.println("#include \"" + requiredClass.name + ".h\"");
         }
@@ -136,17 +352,33 @@ public class CppCodeGenerator extends CodeGenerator {
 
         // Forward declaration
         for (InterfaceModel interfaceModel : mainClassModel.interfaces) {
-            mainClassScope.updateCurrentVisibility(mainClassModel.visibility, headerWriter);
+            mainClassScope.updateCurrentVisibility(interfaceModel.visibility, headerWriter);
             headerWriter.println("class " + interfaceModel.name + ";");
         }
 
         // Forward declaration
         for (InnerClassModel innerClass : mainClassModel.innerClasses) {
-            mainClassScope.updateCurrentVisibility(mainClassModel.visibility, headerWriter);
+            // Forward declaration must have the same access as the definition.
+            mainClassScope.updateCurrentVisibility(innerClass.visibility, headerWriter);
             headerWriter.println("class " + innerClass.name + ";");
         }
 
         generateClassBody(instructionModelSerializer, mainClassModel, headerWriter, cppWriter);
+        if (mainClassModel.benchmark) {
+            generateBenchmarkHarness(mainClassModel, headerWriter, cppWriter);
+        }
+        if (mainClassModel.metrics) {
+            generateMetrics(mainClassModel, headerWriter, cppWriter);
+        }
+        if (mainClassModel.fragments) {
+            generateFragments(mainClassModel, headerWriter, cppWriter);
+        }
+        if (mainClassModel.planLogic != null) {
+            generatePlan(mainClassModel, headerWriter, cppWriter);
+        }
+        if (mainClassModel.traceLogic != null) {
+            generateTrace(mainClassModel, headerWriter, cppWriter);
+        }
 
         // Declaring interfaces defined in this class model.
         for (InterfaceModel interfaceModel : mainClassModel.interfaces) {
@@ -175,6 +407,202 @@ public class CppCodeGenerator extends CodeGenerator {
         }
     }
 
+    /**
+     * Generates a simple timing harness for the benchmark class: static {@code run(iterations)} method
+     * which measures all the benchmark methods one by one and prints the average time of a single call.
+     */
+    private void generateBenchmarkHarness(MainClassModel mainClassModel, CodePrintWriter headerWriter, CodePrintWriter cppWriter) throws CodeGeneratorException {
+        final CodePrintWriter.CodeBlock measures = () -> {
+            for (MethodModel methodModel : mainClassModel.methodModels) {
+                if (methodModel.visibility == Visibility.PUBLIC && !methodModel._static) {
+                    cppWriter.println("measure(\"" + mainClassModel.name + "." + methodModel.name + "\", iterations, [&benchmark]() { return benchmark."
+                            + methodModel.name + "(); });");
+                }
+            }
+        };
+        final CodeTemplate template = CodeTemplate.get(BENCHMARK_TEMPLATE);
+        template.write("header", Collections.emptyMap(), headerWriter);
+        template.write("source", Map.of("name", mainClassModel.name, "measures", measures), cppWriter);
+    }
+
+    /**
+     * Generates the implementation of the metrics class: relaxed atomic counters, total time and log2-scaled
+     * latency histogram of each metric. Counters of different metrics are kept in separate cache lines.
+     * Only the names of the metrics come from the model, the rest is written from the template.
+     */
+    private void generateMetrics(MainClassModel mainClassModel, CodePrintWriter headerWriter, CodePrintWriter cppWriter) throws CodeGeneratorException {
+        StringJoiner names = new StringJoiner(", ", "{", "}");
+        int count = 0;
+        for (FieldModel fieldModel : mainClassModel.fieldModels) {
+            if (fieldModel._static && fieldModel._final && fieldModel.type == TypeModel.TYPE_INTEGER) {
+                names.add(CppInstructionModelSerializer.quote(fieldModel.name));
+                ++count;
+            }
+        }
+        // Zero-sized arrays are not allowed.
+        final Map<String, Object> parameters = Map.of("name", mainClassModel.name, "count", count, "size", Math.max(count, 1),
+                "names", count > 0 ? names.toString() : "{\"\"}");
+        final CodeTemplate template = CodeTemplate.get(METRICS_TEMPLATE);
+        template.write("header", parameters, headerWriter);
+        template.write("source", parameters, cppWriter);
+    }
+
+    /**
+     * Generates the implementation of the rope: parts pointing at the string literals, which lengths are known at compile time,
+     * at the owned copies of the arguments or at the nested ropes. Copies of the rope share its state, snapshots and nested
+     * ropes reference the parts appended before they were taken, so composing the results copies no text.
+     * The whole tree is flattened in a single allocation of the exact size, walked with an explicit stack.
+     * Values of other types are appended through their conversion to {@code std::string}.
+     * With {@link MainClassModel#arena} the parts and the copied strings are allocated from a monotonic arena owned by the state,
+     * on top of the resource of the innermost {@code Scope} of the thread, so a whole chain costs a couple of allocations.
+     * With {@link MainClassModel#bytes} the same walk copies the text into a reused string or a caller provided buffer,
+     * as the fragments are already UTF-8 encoded.
+     * Nothing of the rope depends on the model, it is written from the template.
+     */
+    private void generateFragments(MainClassModel mainClassModel, CodePrintWriter headerWriter, CodePrintWriter cppWriter) throws CodeGeneratorException {
+        final Map<String, Object> parameters = Map.of("name", createCppClassPath(mainClassModel), "arena", mainClassModel.arena > 0,
+                "arenaSize", mainClassModel.arena, "bytes", mainClassModel.bytes);
+        final CodeTemplate template = CodeTemplate.get(FRAGMENTS_TEMPLATE);
+        template.write("header", parameters, headerWriter);
+        template.write("source", parameters, cppWriter);
+    }
+
+    /**
+     * Generates the implementation of the prepared chain plan: immutable vector of opcodes, replayed by a single switch
+     * on a new content, without creating any of the steps. Arguments are bound as {@code std::any}, so C++17 is required.
+     * Only the replay switch comes from the model.
+     */
+    private void generatePlan(MainClassModel mainClassModel, CodePrintWriter headerWriter, CodePrintWriter cppWriter) throws CodeGeneratorException {
+        final InnerClassModel logicClass = mainClassModel.planLogic;
+        final CodePrintWriter.CodeBlock replay = () -> {
+            if (logicClass.methodModels.isEmpty()) {
+                return;
+            }
+            cppWriter.println(createCppType(logicClass.methodModels.get(0).argumentModels.get(0).type) + " content;");
+            cppWriter.println("std::size_t argument = 0;");
+            cppWriter.block("for (int opcode : opcodes)", () -> generateReplaySwitch(logicClass, "opcode", "arguments", true, cppWriter));
+        };
+        final Map<String, Object> parameters = Map.of("name", mainClassModel.name, "replay", replay);
+        final CodeTemplate template = CodeTemplate.get(PLAN_TEMPLATE);
+        template.write("header", parameters, headerWriter);
+        template.write("source", parameters, cppWriter);
+    }
+
+    /**
+     * Generates the implementation of the transition trace and the cache of the memoized results.
+     * Trace is an immutable linked list of the calls, each of them holding its arguments, shared by all the traces extending it.
+     * Without {@link MainClassModel#memoized} the actions simply replay the trace. Memoizing calls hold the binary encoding
+     * of their arguments as well. Only traces of calls with strings and numbers are memoized, with the concatenated encodings of all the calls
+     * used as the key. The cache is split into segments guarded by their own mutexes, each of them evicting
+     * its least recently used entries. Arguments are kept as {@code std::any}, so C++17 is required.
+     * Only the methods mirroring the logic methods and the replay switch come from the model.
+     */
+    private void generateTrace(MainClassModel mainClassModel, CodePrintWriter headerWriter, CodePrintWriter cppWriter) throws CodeGeneratorException {
+        final InnerClassModel logicClass = mainClassModel.traceLogic;
+        final String classPath = createCppClassPath(mainClassModel);
+        final boolean memoized = mainClassModel.memoized;
+
+        final CodePrintWriter.CodeBlock declarations = () -> {
+            for (MethodModel methodModel : logicClass.methodModels) {
+                headerWriter.println(createCppTraceMethod(methodModel, mainClassModel.name, false) + ";");
+            }
+        };
+        final CodePrintWriter.CodeBlock methods = () -> {
+            for (int opcode = 0; opcode < logicClass.methodModels.size(); ++opcode) {
+                final MethodModel methodModel = logicClass.methodModels.get(opcode);
+                final List<ArgumentModel> argumentModels = methodModel.argumentModels.subList(1, methodModel.argumentModels.size());
+                final StringJoiner values = new StringJoiner(", ", "std::vector<std::any>{", "}");
+                boolean memoizable = true;
+                for (ArgumentModel argumentModel : argumentModels) {
+                    values.add("std::any(" + argumentModel.name + ")");
+                    memoizable &= isMemoizable(argumentModel.type);
+                }
+                final boolean memoizableCall = memoized && memoizable;
+                final String trace = memoized
+                        ? "then(" + opcode + ", " + memoizable + ", " + (memoizable ? "std::move(key)" : "std::string()") + ", " + values + ")"
+                        : "then(" + opcode + ", " + values + ")";
+                cppWriter.block(createCppTraceMethod(methodModel, classPath, true), () -> {
+                    if (memoizableCall) {
+                        cppWriter.println("std::string key;");
+                        for (ArgumentModel argumentModel : argumentModels) {
+                            cppWriter.println("appendKey(key, " + argumentModel.name + ");");
+                        }
+                    }
+                    if (methodModel.returnType == TypeModel.TYPE_VOID) {
+                        cppWriter.println("return " + trace + ";");
+                    } else {
+                        cppWriter.println("return std::any_cast<" + createCppType(methodModel.returnType) + ">(" + trace + (memoized ? ".lookup());" : ".replay());"));
+                    }
+                });
+                cppWriter.println();
+            }
+        };
+        final CodePrintWriter.CodeBlock replay = () -> {
+            if (logicClass.methodModels.isEmpty()) {
+                return;
+            }
+            cppWriter.println(createCppType(logicClass.methodModels.get(0).argumentModels.get(0).type) + " content;");
+            cppWriter.block("for (const Call* current : calls)", () -> generateReplaySwitch(logicClass, "current->opcode", "current->arguments", false, cppWriter));
+        };
+        final Map<String, Object> parameters = Map.of("name", classPath, "memoized", memoized, "declarations", declarations,
+                "methods", methods, "replay", replay);
+        final CodeTemplate template = CodeTemplate.get(TRACE_TEMPLATE);
+        template.write("header", parameters, headerWriter);
+        template.write("source", parameters, cppWriter);
+    }
+
+    /**
+     * @return Declaration or definition of the trace method mirroring the given logic method.
+     */
+    private static String createCppTraceMethod(MethodModel logicMethodModel, String classPath, boolean definition) {
+        StringJoiner arguments = new StringJoiner(", ", "(", ")");
+        for (ArgumentModel argumentModel : logicMethodModel.argumentModels.subList(1, logicMethodModel.argumentModels.size())) {
+            arguments.add(createCppArgument(argumentModel));
+        }
+        // Transitions yield the extended trace.
+        final String returnType = logicMethodModel.returnType == TypeModel.TYPE_VOID ? classPath : createCppType(logicMethodModel.returnType);
+        return returnType + " " + (definition ? classPath + "::" : "") + logicMethodModel.name + arguments + " const";
+    }
+
+    /**
+     * Generates the switch replaying a single call of a plan or a trace on the {@code content} variable.
+     * Results of the actions are returned. Arguments are taken from the given vector, starting at the index held
+     * by the {@code argument} variable, which is then advanced past them, if {@code offset} is set.
+     */
+    private void generateReplaySwitch(InnerClassModel logicClass, String opcode, String arguments, boolean offset, CodePrintWriter writer) throws CodeGeneratorException {
+        writer.block("switch (" + opcode + ")", () -> {
+            for (int i = 0; i < logicClass.methodModels.size(); ++i) {
+                final MethodModel methodModel = logicClass.methodModels.get(i);
+                final int argumentCount = methodModel.argumentModels.size() - 1;
+                final StringJoiner parameters = new StringJoiner(", ", "(", ")");
+                parameters.add("content");
+                for (int j = 0; j < argumentCount; ++j) {
+                    final String index = offset ? "argument" + (j > 0 ? " + " + j : "") : String.valueOf(j);
+                    parameters.add("std::any_cast<" + createCppArgumentType(methodModel.argumentModels.get(j + 1)) + ">(" + arguments + "[" + index + "])");
+                }
+                final String call = createCppClassPath(logicClass) + "::" + methodModel.name + parameters;
+                writer.block("case " + i + ":", () -> {
+                    if (methodModel.returnType == TypeModel.TYPE_VOID) {
+                        writer.println(call + ";");
+                        if (offset && argumentCount > 0) {
+                            writer.println("argument += " + argumentCount + ";");
+                        }
+                        writer.println("break;");
+                    } else {
+                        writer.println("return " + call + ";");
+                    }
+                });
+            }
+            writer.block("default:", () -> writer.println("throw std::logic_error(\"Unknown opcode.\");"));
+        });
+    }
+
+    private static boolean isMemoizable(TypeModel type) {
+        return type == TypeModel.TYPE_STRING || type == TypeModel.TYPE_INTEGER || type == TypeModel.TYPE_LONG
+                || type == TypeModel.TYPE_DOUBLE || type == TypeModel.TYPE_BOOLEAN || type == TypeModel.TYPE_CHAR
+                || type == TypeModel.TYPE_BYTES;
+    }
+
     private String createCppInterface(InterfaceModel interfaceModel) {
         return "class " + interfaceModel.name;
     }
@@ -227,6 +655,9 @@ public class CppCodeGenerator extends CodeGenerator {
 
     private static String createCppClassMethodDeclaration(MethodModel model) {
         StringBuilder ret = new StringBuilder();
+        if (model.cold) {
+            ret.append("[[gnu::cold]] ");
+        }
         if (model._static) {
             ret.append("static ");
         }
@@ -286,22 +717,23 @@ public class CppCodeGenerator extends CodeGenerator {
             InstructionModel instructionModel = model.constructorBody.get(0);
             if (instructionModel instanceof SuperCallModel) {
                 SuperCallModel superCallModel = (SuperCallModel) instructionModel;
-                ret.append(" : ").append(serializer.visit(superCallModel));
+                ret.append(" : ");
+                serializer.visit(superCallModel, ret);
             }
         }
         return ret.toString();
     }
 
     private static String createCppArgument(ArgumentModel argumentModel) {
-        StringBuilder ret = new StringBuilder();
+        return createCppArgumentType(argumentModel) + ' ' + argumentModel.name;
+    }
+
+    private static String createCppArgumentType(ArgumentModel argumentModel) {
         if (argumentModel.variadic || argumentModel.array) {
-            ret.append("std::vector<").append(createCppType(argumentModel.type)).append(">");
+            return "std::vector<" + createCppType(argumentModel.type) + ">";
         } else {
-            ret.append(createCppType(argumentModel.type));
+            return createCppType(argumentModel.type);
         }
-        ret.append(' ');
-        ret.append(argumentModel.name);
-        return ret.toString();
     }
 
     private static String createCppFieldDeclaration(FieldModel fieldModel) {
@@ -309,6 +741,9 @@ public class CppCodeGenerator extends CodeGenerator {
         if (fieldModel._static) {
             ret.append("static ");
         }
+        if (fieldModel._final) {
+            ret.append("const ");
+        }
         ret.append(' ');
         ret.append(createCppType(fieldModel.type));
         ret.append(' ');
@@ -318,6 +753,9 @@ public class CppCodeGenerator extends CodeGenerator {
 
     private static String createCppFieldDefinition(AbstractClassModel classModel, FieldModel fieldModel) {
         StringBuilder ret = new StringBuilder();
+        if (fieldModel._final) {
+            ret.append("const ");
+        }
         ret.append(createCppType(fieldModel.type));
         ret.append(' ');
         ret.append(createCppClassPath(classModel));
@@ -333,6 +771,16 @@ public class CppCodeGenerator extends CodeGenerator {
             return "std::string";
         } else if (type == TypeModel.TYPE_INTEGER) {
             return "int";
+        } else if (type == TypeModel.TYPE_LONG) {
+            return "std::int64_t";
+        } else if (type == TypeModel.TYPE_DOUBLE) {
+            return "double";
+        } else if (type == TypeModel.TYPE_BOOLEAN) {
+            return "bool";
+        } else if (type == TypeModel.TYPE_CHAR) {
+            return "char";
+        } else if (type == TypeModel.TYPE_BYTES) {
+            return "std::vector<std::uint8_t>";
         } else {
             String ret;
             if (type.name != null) {
@@ -359,91 +807,154 @@ public class CppCodeGenerator extends CodeGenerator {
 
     private static class CppInstructionModelSerializer implements InstructionModelSerializer {
         @Override
-        public String visit(StringValueModel stringValueModel) {
-            return "\"" + stringValueModel.toString() + "\"";
+        public void visit(StringValueModel stringValueModel, StringBuilder out) {
+            quote(stringValueModel.value, out);
+        }
+
+        @Override
+        public void visit(IntegerValueModel integerValueModel, StringBuilder out) {
+            out.append(integerValueModel.value.intValue());
+        }
+
+        @Override
+        public void visit(BooleanValueModel booleanValueModel, StringBuilder out) {
+            out.append(booleanValueModel.value);
+        }
+
+        @Override
+        public void visit(CharValueModel charValueModel, StringBuilder out) {
+            char c = charValueModel.value;
+            if (c == '\'' || c == '\\') {
+                out.append("'\\").append(c).append('\'');
+            } else if (c >= 0x20 && c < 0x7f) {
+                out.append('\'').append(c).append('\'');
+            } else {
+                out.append("static_cast<char>(").append((int) c).append(')');
+            }
+        }
+
+        @Override
+        public void visit(BytesValueModel bytesValueModel, StringBuilder out) {
+            out.append(createCppType(TypeModel.TYPE_BYTES)).append('{');
+            for (int i = 0; i < bytesValueModel.value.length; ++i) {
+                if (i > 0) {
+                    out.append(", ");
+                }
+                out.append(bytesValueModel.value[i] & 0xff);
+            }
+            out.append('}');
         }
 
         @Override
-        public String visit(IntegerValueModel integerValueModel) {
-            return integerValueModel.value.toString();
+        public void visit(ArrayValueModel arrayValueModel, StringBuilder out) {
+            out.append("std::vector<").append(createCppType(arrayValueModel.type)).append('>');
+            appendValues(arrayValueModel.values, '{', '}', out);
         }
 
         @Override
-        public String visit(NullValueModel nullValueModel) {
-            return "nullptr";
+        public void visit(NullValueModel nullValueModel, StringBuilder out) {
+            out.append("nullptr");
         }
 
         @Override
-        public String visit(VariableModel variableModel) {
-            return variableModel.name;
+        public void visit(VariableModel variableModel, StringBuilder out) {
+            out.append(variableModel.name);
         }
 
         @Override
-        public String visit(DeclarationModel declarationModel) {
-            return declarationModel.variable.type + " " + declarationModel.variable.name;
+        public void visit(DeclarationModel declarationModel, StringBuilder out) {
+            out.append(createCppType(declarationModel.variable.type)).append(' ').append(declarationModel.variable.name);
+            if (declarationModel.value != null) {
+                out.append(" = ");
+                declarationModel.value.accept(this, out);
+            }
         }
 
         @Override
-        public String visit(AssignmentModel assignmentModel) {
-            return assignmentModel.leftValue.accept(this) + " = " + assignmentModel.rightValue.accept(this);
+        public void visit(AssignmentModel assignmentModel, StringBuilder out) {
+            assignmentModel.leftValue.accept(this, out);
+            out.append(" = ");
+            assignmentModel.rightValue.accept(this, out);
         }
 
         @Override
-        public String visit(ReturnInstructionModel returnInstructionModel) {
-            return "return " + ((returnInstructionModel.returnedStatement != null) ? returnInstructionModel.returnedStatement.accept(this) : "nullptr");
+        public void visit(ReturnInstructionModel returnInstructionModel, StringBuilder out) {
+            out.append("return ");
+            if (returnInstructionModel.returnedStatement != null) {
+                returnInstructionModel.returnedStatement.accept(this, out);
+            } else {
+                out.append("nullptr");
+            }
         }
 
         @Override
-        public String visit(MethodCallModel methodCallModel) {
-            StringBuilder ret = new StringBuilder();
+        public void visit(MethodCallModel methodCallModel, StringBuilder out) {
             if (methodCallModel.classInstance != null) {
-                ret.append(createCppClassPath(methodCallModel.classInstance)).append("::");
+                out.append(createCppClassPath(methodCallModel.classInstance)).append("::");
             } else if (methodCallModel.instance != null) {
-                ret.append(methodCallModel.instance.name);
+                out.append(methodCallModel.instance.name);
                 if (methodCallModel.instance.type.reference) {
-                    ret.append("->");
+                    out.append("->");
                 } else {
-                    ret.append('.');
+                    out.append('.');
                 }
+            } else if (methodCallModel.target != null) {
+                methodCallModel.target.accept(this, out);
+                out.append('.');
             }
-            ret.append(methodCallModel.methodName);
-            StringJoiner arguments = new StringJoiner(", ", "(", ")");
-            for (RValueModel rValueModel : methodCallModel.parameters) {
-                arguments.add(rValueModel.accept(this));
-            }
-            ret.append(arguments.toString());
-            return ret.toString();
+            out.append(methodCallModel.methodName);
+            appendValues(methodCallModel.parameters, '(', ')', out);
         }
 
         @Override
-        public String visit(AllocationModel allocationModel) {
-            StringBuilder ret = new StringBuilder();
+        public void visit(AllocationModel allocationModel, StringBuilder out) {
             if (allocationModel.type.reference) {
-                ret.append("std::make_shared<");
-                ret.append(createCppType(allocationModel.type));
-                ret.append(">");
+                out.append("std::make_shared<").append(createCppType(allocationModel.type)).append('>');
             } else {
-                ret.append(createCppType(allocationModel.type));
-            }
-            StringJoiner arguments = new StringJoiner(", ", "(", ")");
-            for (RValueModel rValueModel : allocationModel.parameters) {
-                arguments.add(rValueModel.accept(this));
+                out.append(createCppType(allocationModel.type));
             }
-            ret.append(arguments.toString());
-            return ret.toString();
+            appendValues(allocationModel.parameters, '(', ')', out);
         }
 
         @Override
-        public String visit(SuperCallModel superCallModel) {
-            StringBuilder ret = new StringBuilder();
-            ret.append(createCppType(new TypeModel(superCallModel.superClass)));
-            StringJoiner arguments = new StringJoiner(", ", "(", ")");
-            for (RValueModel rValueModel : superCallModel.parameters) {
-                arguments.add(rValueModel.accept(this));
+        public void visit(SuperCallModel superCallModel, StringBuilder out) {
+            out.append(createCppType(new TypeModel(superCallModel.superClass)));
+            appendValues(superCallModel.parameters, '(', ')', out);
+        }
+
+        private void appendValues(List<RValueModel> values, char prefix, char suffix, StringBuilder out) {
+            out.append(prefix);
+            for (int i = 0; i < values.size(); ++i) {
+                if (i > 0) {
+                    out.append(", ");
+                }
+                values.get(i).accept(this, out);
             }
-            ret.append(arguments.toString());
+            out.append(suffix);
+        }
+
+        private static String quote(String value) {
+            StringBuilder ret = new StringBuilder(value.length() + 2);
+            quote(value, ret);
             return ret.toString();
         }
+
+        private static void quote(String value, StringBuilder out) {
+            out.append('"');
+            for (int i = 0; i < value.length(); ++i) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    out.append('\\').append(c);
+                } else if (c == '\n') {
+                    out.append("\\n");
+                } else if (c < 0x20) {
+                    out.append('\\').append((char) ('0' + (c >> 6))).append((char) ('0' + ((c >> 3) & 7))).append((char) ('0' + (c & 7)));
+                } else {
+                    out.append(c);
+                }
+            }
+            out.append('"');
+        }
     }
 
     /**
@@ -17,16 +17,25 @@ limitations under the License.
 package com.rushingvise.metagen.generator;
 
 import com.rushingvise.metagen.generator.CodeModel.*;
+import com.rushingvise.metagen.jfr.GenerateUnitEvent;
+import com.rushingvise.metagen.stats.PipelineStats;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.StringJoiner;
 
 /**
  * Creates java classes based on the provided {@link CodeModel}.
  */
 public class JavaCodeGenerator extends CodeGenerator {
+    private static final String BENCHMARK_TEMPLATE = "java/Benchmark.java.in";
+    private static final String FRAGMENTS_TEMPLATE = "java/Fragments.java.in";
+    private static final String METRICS_TEMPLATE = "java/Metrics.java.in";
+    private static final String PLAN_TEMPLATE = "java/Plan.java.in";
+    private static final String TRACE_TEMPLATE = "java/Trace.java.in";
+
     private final String mPackageName;
 
     /**
@@ -42,42 +51,56 @@ public class JavaCodeGenerator extends CodeGenerator {
     }
 
     @Override
-    public void generate() throws CodeGeneratorException {
-        try {
-            for (MainClassModel classModel : mCodeModel.classes) {
-                File outputFile = new File(mOutputPath, classModel.name + ".java" + (classModel.template ? ".template" : ""));
-                if (!outputFile.exists()) {
-                    outputFile.createNewFile();
-                }
-                FileOutputStream outputStream = new FileOutputStream(outputFile);
-                CodePrintWriter writer = new CodePrintWriter(outputStream);
-                generateMainClass(classModel, writer);
-            }
-        } catch (IOException e) {
-            throw new CodeGeneratorException(e);
+    public void generate(MainClassModel classModel) throws CodeGeneratorException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        GenerateUnitEvent event = new GenerateUnitEvent();
+        event.begin();
+        final PipelineStats.Timer timer = mStats.start(PipelineStats.STAGE_RENDER, classModel.name);
+        try (CodePrintWriter writer = new CodePrintWriter(output)) {
+            generateMainClass(classModel, writer);
+        } finally {
+            timer.stop();
         }
+        if (event.shouldCommit()) {
+            event.unitName = classModel.name;
+            event.language = "java";
+            event.outputSize = output.size();
+            event.commit();
+        }
+        mStats.countClass(countMethods(classModel));
+        writeFile(classModel, classModel.name + ".java" + (classModel.template ? ".template" : ""), output);
     }
 
     private void generateClassBody(JavaInstructionModelSerializer instructionModelSerializer, AbstractClassModel classModel, CodePrintWriter writer) throws CodeGeneratorException {
         // Declaring fields defined in this class model.
         for (FieldModel fieldModel : classModel.fieldModels) {
-            writer.println(createJavaVisibility(fieldModel.visibility) + " " + createJavaField(fieldModel) + ";");
+            final StringBuilder line = writer.startLine();
+            line.append(createJavaVisibility(fieldModel.visibility)).append(' ').append(createJavaField(fieldModel));
+            if (fieldModel.value != null) {
+                line.append(" = ");
+                fieldModel.value.accept(instructionModelSerializer, line);
+            }
+            line.append(';');
+            writer.endLine();
         }
         writer.println();
         // Declaring constructors defined in this class model.
         for (ConstructorModel constructorModel : classModel.constructorModels) {
             writer.block(createJavaConstructor(constructorModel), () -> {
                 for (InstructionModel instructionModel : constructorModel.constructorBody) {
-                    writer.println(instructionModel.accept(instructionModelSerializer) + ';');
+                    writer.printStatement(instructionModel, instructionModelSerializer);
                 }
             });
             writer.println();
         }
         // Declaring methods defined in this class model.
         for (MethodModel methodModel : classModel.methodModels) {
+            if (isBenchmark(classModel, methodModel)) {
+                writer.println("@Benchmark");
+            }
             writer.block(createJavaClassMethod(methodModel), () -> {
                 for (InstructionModel instructionModel : methodModel.methodBody) {
-                    writer.println(instructionModel.accept(instructionModelSerializer) + ';');
+                    writer.printStatement(instructionModel, instructionModelSerializer);
                 }
             });
             writer.println();
@@ -95,10 +118,43 @@ public class JavaCodeGenerator extends CodeGenerator {
             writer.println();
         }
 
+        if (mainClassModel.metrics) {
+            CodeTemplate.get(METRICS_TEMPLATE).write("imports", Collections.emptyMap(), writer);
+        }
+
+        if (mainClassModel.planLogic != null) {
+            CodeTemplate.get(PLAN_TEMPLATE).write("imports", Collections.emptyMap(), writer);
+        }
+
+        if (mainClassModel.fragments) {
+            CodeTemplate.get(FRAGMENTS_TEMPLATE).write("imports", Map.of("bytes", mainClassModel.bytes), writer);
+        }
+
+        if (mainClassModel.traceLogic != null) {
+            CodeTemplate.get(TRACE_TEMPLATE).write("imports", Map.of("memoized", mainClassModel.memoized), writer);
+        }
+
+        // Benchmarks are run with JMH.
+        if (mainClassModel.benchmark) {
+            CodeTemplate.get(BENCHMARK_TEMPLATE).write("header", Collections.emptyMap(), writer);
+        }
+
         // Declaring the top level class.
         writer.block(createJavaClass(mainClassModel), () -> {
             // Generating class body.
             generateClassBody(instructionModelSerializer, mainClassModel, writer);
+            if (mainClassModel.metrics) {
+                generateMetrics(mainClassModel, writer);
+            }
+            if (mainClassModel.fragments) {
+                generateFragments(mainClassModel, writer);
+            }
+            if (mainClassModel.planLogic != null) {
+                generatePlan(mainClassModel, writer);
+            }
+            if (mainClassModel.traceLogic != null) {
+                generateTrace(mainClassModel, writer);
+            }
 
             // Declaring interfaces defined in this main class model.
             for (InterfaceModel interfaceModel : mainClassModel.interfaces) {
@@ -119,6 +175,169 @@ public class JavaCodeGenerator extends CodeGenerator {
         });
     }
 
+    /**
+     * Generates the implementation of the metrics class: lock-free {@link java.util.concurrent.atomic.LongAdder} counters,
+     * total time and log2-scaled latency histogram of each metric, exposed through static methods and JMX.
+     * Only the names of the metrics come from the model, the rest is written from the template.
+     */
+    private void generateMetrics(MainClassModel mainClassModel, CodePrintWriter writer) throws CodeGeneratorException {
+        StringJoiner names = new StringJoiner(", ", "{", "}");
+        for (FieldModel fieldModel : mainClassModel.fieldModels) {
+            if (fieldModel._static && fieldModel._final && fieldModel.type == TypeModel.TYPE_INTEGER) {
+                names.add(JavaInstructionModelSerializer.quote(fieldModel.name));
+            }
+        }
+        final String objectName = (mPackageName != null ? mPackageName : "metagen") + ":type=" + mainClassModel.name;
+
+        CodeTemplate.get(METRICS_TEMPLATE).write("members", Map.of("name", mainClassModel.name, "names", names.toString(), "objectName", objectName), writer);
+    }
+
+    /**
+     * Generates the implementation of the rope: array of the appended strings and nested ropes, shared with its snapshots
+     * until both of them append to it, and the total length, so the whole tree is flattened at once into a buffer of the exact size.
+     * With {@link MainClassModel#bytes} the rope is also encoded as UTF-8 straight into reusable byte buffers.
+     * Nothing of the rope depends on the model, it is written from the template.
+     */
+    private void generateFragments(MainClassModel mainClassModel, CodePrintWriter writer) throws CodeGeneratorException {
+        final String allocation = mainClassModel.directBytes ? "ByteBuffer.allocateDirect" : "ByteBuffer.allocate";
+        CodeTemplate.get(FRAGMENTS_TEMPLATE).write("members", Map.of("name", mainClassModel.name, "bytes", mainClassModel.bytes,
+                "allocation", allocation), writer);
+    }
+
+    /**
+     * Generates the implementation of the prepared chain plan: immutable array of opcodes, replayed by a single switch
+     * on a new content, without creating any of the steps. Only the replay switch comes from the model.
+     */
+    private void generatePlan(MainClassModel mainClassModel, CodePrintWriter writer) throws CodeGeneratorException {
+        final InnerClassModel logicClass = mainClassModel.planLogic;
+
+        final CodePrintWriter.CodeBlock replay = () -> {
+            if (logicClass.methodModels.isEmpty()) {
+                return;
+            }
+            final TypeModel contentType = logicClass.methodModels.get(0).argumentModels.get(0).type;
+            writer.println(createJavaType(contentType) + " content = new " + createJavaType(contentType) + "();");
+            writer.println("int argument = 0;");
+            writer.block("for (int opcode : opcodes)", () -> generateReplaySwitch(logicClass, "opcode", "arguments", true, writer));
+        };
+        CodeTemplate.get(PLAN_TEMPLATE).write("members", Map.of("name", mainClassModel.name, "replay", replay), writer);
+    }
+
+    /**
+     * Generates the implementation of the transition trace and the cache of the memoized results.
+     * Trace is an immutable linked list of the calls, so extending it costs a single allocation and any step can be continued
+     * many times. Without {@link MainClassModel#memoized} the actions simply replay the trace.
+     * Memoizing traces precompute their hash. Only traces of calls with strings and numbers are memoized, as other arguments
+     * may be mutated later on. The cache is split into segments guarded by their own locks, each of them evicting its least
+     * recently used entries. Only the methods mirroring the logic methods and the replay switch come from the model.
+     */
+    private void generateTrace(MainClassModel mainClassModel, CodePrintWriter writer) throws CodeGeneratorException {
+        final InnerClassModel logicClass = mainClassModel.traceLogic;
+        final String name = mainClassModel.name;
+        final boolean memoized = mainClassModel.memoized;
+
+        final CodePrintWriter.CodeBlock methods = () -> {
+            for (int opcode = 0; opcode < logicClass.methodModels.size(); ++opcode) {
+                final MethodModel methodModel = logicClass.methodModels.get(opcode);
+                final List<ArgumentModel> argumentModels = methodModel.argumentModels.subList(1, methodModel.argumentModels.size());
+                final StringJoiner arguments = new StringJoiner(", ", "(", ")");
+                final StringJoiner values = new StringJoiner(", ");
+                boolean memoizable = true;
+                for (ArgumentModel argumentModel : argumentModels) {
+                    arguments.add(createJavaArgument(argumentModel));
+                    // Arrays are copied, so that the callers can reuse them.
+                    values.add(argumentModel.name + (argumentModel.array || argumentModel.variadic || argumentModel.type == TypeModel.TYPE_BYTES ? ".clone()" : ""));
+                    memoizable &= isMemoizable(argumentModel);
+                }
+                final String trace = "new " + name + "(this, " + opcode + ", " + (memoized ? memoizable + ", " : "") + "new Object[]{" + values + "})";
+                if (methodModel.returnType == TypeModel.TYPE_VOID) {
+                    writer.block("public " + name + " " + methodModel.name + arguments, () -> writer.println("return " + trace + ";"));
+                } else {
+                    final String returnType = createJavaType(methodModel.returnType);
+                    writer.block("public " + returnType + " " + methodModel.name + arguments, () -> {
+                        writer.println("return (" + returnType + ") " + trace + (memoized ? ".lookup();" : ".replay();"));
+                    });
+                }
+                writer.println();
+            }
+        };
+        final CodePrintWriter.CodeBlock replay = () -> {
+            if (logicClass.methodModels.isEmpty()) {
+                return;
+            }
+            final TypeModel contentType = logicClass.methodModels.get(0).argumentModels.get(0).type;
+            writer.println(createJavaType(contentType) + " content = new " + createJavaType(contentType) + "();");
+            writer.block("for (" + name + " call : calls)", () -> generateReplaySwitch(logicClass, "call.opcode", "call.arguments", false, writer));
+        };
+        CodeTemplate.get(TRACE_TEMPLATE).write("members", Map.of("name", name, "memoized", memoized, "methods", methods, "replay", replay), writer);
+    }
+
+    /**
+     * Generates the switch replaying a single call of a plan or a trace on the {@code content} variable.
+     * Results of the actions are returned. Arguments are taken from the given array, starting at the index held
+     * by the {@code argument} variable, which is then advanced past them, if {@code offset} is set.
+     */
+    private void generateReplaySwitch(InnerClassModel logicClass, String opcode, String arguments, boolean offset, CodePrintWriter writer) throws CodeGeneratorException {
+        writer.block("switch (" + opcode + ")", () -> {
+            for (int i = 0; i < logicClass.methodModels.size(); ++i) {
+                final MethodModel methodModel = logicClass.methodModels.get(i);
+                final int argumentCount = methodModel.argumentModels.size() - 1;
+                final StringJoiner parameters = new StringJoiner(", ", "(", ")");
+                parameters.add("content");
+                for (int j = 0; j < argumentCount; ++j) {
+                    final String index = offset ? "argument" + (j > 0 ? " + " + j : "") : String.valueOf(j);
+                    parameters.add("(" + createJavaBoxedType(methodModel.argumentModels.get(j + 1)) + ") " + arguments + "[" + index + "]");
+                }
+                final String call = createJavaQualifiedClassName(logicClass) + "." + methodModel.name + parameters;
+                writer.block("case " + i + ":", () -> {
+                    if (methodModel.returnType == TypeModel.TYPE_VOID) {
+                        writer.println(call + ";");
+                        if (offset && argumentCount > 0) {
+                            writer.println("argument += " + argumentCount + ";");
+                        }
+                        writer.println("break;");
+                    } else {
+                        writer.println("return " + call + ";");
+                    }
+                });
+            }
+            writer.block("default:", () -> writer.println("throw new IllegalStateException(\"Unknown opcode: \" + " + opcode + ");"));
+        });
+    }
+
+    private static boolean isMemoizable(ArgumentModel argumentModel) {
+        final TypeModel type = argumentModel.type;
+        if (type == TypeModel.TYPE_BYTES) {
+            // Copies of the arrays are shallow, so only the single payloads are owned by the trace.
+            return !argumentModel.array && !argumentModel.variadic;
+        }
+        return type == TypeModel.TYPE_STRING || type == TypeModel.TYPE_INTEGER || type == TypeModel.TYPE_LONG
+                || type == TypeModel.TYPE_DOUBLE || type == TypeModel.TYPE_BOOLEAN || type == TypeModel.TYPE_CHAR;
+    }
+
+    private static String createJavaBoxedType(ArgumentModel argumentModel) {
+        if (argumentModel.array || argumentModel.variadic) {
+            return createJavaType(argumentModel.type) + "[]";
+        } else if (argumentModel.type == TypeModel.TYPE_INTEGER) {
+            return "Integer";
+        } else if (argumentModel.type == TypeModel.TYPE_LONG) {
+            return "Long";
+        } else if (argumentModel.type == TypeModel.TYPE_DOUBLE) {
+            return "Double";
+        } else if (argumentModel.type == TypeModel.TYPE_BOOLEAN) {
+            return "Boolean";
+        } else if (argumentModel.type == TypeModel.TYPE_CHAR) {
+            return "Character";
+        } else {
+            return createJavaType(argumentModel.type);
+        }
+    }
+
+    private static boolean isBenchmark(AbstractClassModel classModel, MethodModel methodModel) {
+        return classModel instanceof MainClassModel && ((MainClassModel) classModel).benchmark
+                && methodModel.visibility == Visibility.PUBLIC && !methodModel._static;
+    }
+
     private String createJavaInterface(InterfaceModel interfaceModel) {
         return createJavaVisibility(interfaceModel.visibility) + " interface " + interfaceModel.name;
     }
@@ -224,7 +443,9 @@ public class JavaCodeGenerator extends CodeGenerator {
         if (fieldModel._static) {
             ret.append("static ");
         }
-        ret.append(' ');
+        if (fieldModel._final) {
+            ret.append("final ");
+        }
         ret.append(createJavaType(fieldModel.type));
         ret.append(' ');
         ret.append(fieldModel.name);
@@ -238,6 +459,16 @@ public class JavaCodeGenerator extends CodeGenerator {
             return "String";
         } else if (type == TypeModel.TYPE_INTEGER) {
             return "int";
+        } else if (type == TypeModel.TYPE_LONG) {
+            return "long";
+        } else if (type == TypeModel.TYPE_DOUBLE) {
+            return "double";
+        } else if (type == TypeModel.TYPE_BOOLEAN) {
+            return "boolean";
+        } else if (type == TypeModel.TYPE_CHAR) {
+            return "char";
+        } else if (type == TypeModel.TYPE_BYTES) {
+            return "byte[]";
         } else if (type.name != null) {
             return type.name;
         } else {
@@ -256,81 +487,141 @@ public class JavaCodeGenerator extends CodeGenerator {
 
     private static class JavaInstructionModelSerializer implements InstructionModelSerializer {
         @Override
-        public String visit(StringValueModel stringValueModel) {
-            return "\"" + stringValueModel.toString() + "\"";
+        public void visit(StringValueModel stringValueModel, StringBuilder out) {
+            quote(stringValueModel.value, out);
         }
 
         @Override
-        public String visit(IntegerValueModel integerValueModel) {
-            return integerValueModel.value.toString();
+        public void visit(IntegerValueModel integerValueModel, StringBuilder out) {
+            out.append(integerValueModel.value.intValue());
         }
 
         @Override
-        public String visit(NullValueModel nullValueModel) {
-            return "null";
+        public void visit(BooleanValueModel booleanValueModel, StringBuilder out) {
+            out.append(booleanValueModel.value);
         }
 
         @Override
-        public String visit(VariableModel variableModel) {
-            return variableModel.name;
+        public void visit(CharValueModel charValueModel, StringBuilder out) {
+            char c = charValueModel.value;
+            if (c == '\'' || c == '\\') {
+                out.append("'\\").append(c).append('\'');
+            } else if (c >= 0x20 && c < 0x7f) {
+                out.append('\'').append(c).append('\'');
+            } else {
+                out.append("(char) ").append((int) c);
+            }
+        }
+
+        @Override
+        public void visit(BytesValueModel bytesValueModel, StringBuilder out) {
+            out.append("new byte[]{");
+            for (int i = 0; i < bytesValueModel.value.length; ++i) {
+                if (i > 0) {
+                    out.append(", ");
+                }
+                out.append(bytesValueModel.value[i]);
+            }
+            out.append('}');
         }
 
         @Override
-        public String visit(DeclarationModel declarationModel) {
-            return declarationModel.variable.type + " " + declarationModel.variable.name;
+        public void visit(ArrayValueModel arrayValueModel, StringBuilder out) {
+            out.append("new ").append(createJavaType(arrayValueModel.type)).append("[]");
+            appendValues(arrayValueModel.values, '{', '}', out);
         }
 
         @Override
-        public String visit(AssignmentModel assignmentModel) {
-            return assignmentModel.leftValue.accept(this) + " = " + assignmentModel.rightValue.accept(this);
+        public void visit(NullValueModel nullValueModel, StringBuilder out) {
+            out.append("null");
         }
 
         @Override
-        public String visit(ReturnInstructionModel returnInstructionModel) {
-            return "return " + returnInstructionModel.returnedStatement.accept(this);
+        public void visit(VariableModel variableModel, StringBuilder out) {
+            out.append(variableModel.name);
         }
 
         @Override
-        public String visit(MethodCallModel methodCallModel) {
-            StringBuilder ret = new StringBuilder();
+        public void visit(DeclarationModel declarationModel, StringBuilder out) {
+            out.append(createJavaType(declarationModel.variable.type)).append(' ').append(declarationModel.variable.name);
+            if (declarationModel.value != null) {
+                out.append(" = ");
+                declarationModel.value.accept(this, out);
+            }
+        }
+
+        @Override
+        public void visit(AssignmentModel assignmentModel, StringBuilder out) {
+            assignmentModel.leftValue.accept(this, out);
+            out.append(" = ");
+            assignmentModel.rightValue.accept(this, out);
+        }
+
+        @Override
+        public void visit(ReturnInstructionModel returnInstructionModel, StringBuilder out) {
+            out.append("return ");
+            returnInstructionModel.returnedStatement.accept(this, out);
+        }
+
+        @Override
+        public void visit(MethodCallModel methodCallModel, StringBuilder out) {
             if (methodCallModel.classInstance != null) {
-                ret.append(createJavaQualifiedClassName(methodCallModel.classInstance));
-                ret.append('.');
+                out.append(createJavaQualifiedClassName(methodCallModel.classInstance)).append('.');
             } else if (methodCallModel.instance != null) {
-                ret.append(methodCallModel.instance.name).append('.');
-            }
-            ret.append(methodCallModel.methodName);
-            StringJoiner arguments = new StringJoiner(", ", "(", ")");
-            for (RValueModel rValueModel : methodCallModel.parameters) {
-                arguments.add(rValueModel.accept(this));
+                out.append(methodCallModel.instance.name).append('.');
+            } else if (methodCallModel.target != null) {
+                methodCallModel.target.accept(this, out);
+                out.append('.');
             }
-            ret.append(arguments.toString());
-            return ret.toString();
+            out.append(methodCallModel.methodName);
+            appendValues(methodCallModel.parameters, '(', ')', out);
         }
 
         @Override
-        public String visit(AllocationModel allocationModel) {
-            StringBuilder ret = new StringBuilder();
-            ret.append("new ");
-            ret.append(createJavaType(allocationModel.type));
-            StringJoiner arguments = new StringJoiner(", ", "(", ")");
-            for (RValueModel rValueModel : allocationModel.parameters) {
-                arguments.add(rValueModel.accept(this));
-            }
-            ret.append(arguments.toString());
-            return ret.toString();
+        public void visit(AllocationModel allocationModel, StringBuilder out) {
+            out.append("new ").append(createJavaType(allocationModel.type));
+            appendValues(allocationModel.parameters, '(', ')', out);
         }
 
         @Override
-        public String visit(SuperCallModel superCallModel) {
-            StringBuilder ret = new StringBuilder();
-            ret.append("super");
-            StringJoiner arguments = new StringJoiner(", ", "(", ")");
-            for (RValueModel rValueModel : superCallModel.parameters) {
-                arguments.add(rValueModel.accept(this));
+        public void visit(SuperCallModel superCallModel, StringBuilder out) {
+            out.append("super");
+            appendValues(superCallModel.parameters, '(', ')', out);
+        }
+
+        private void appendValues(List<RValueModel> values, char prefix, char suffix, StringBuilder out) {
+            out.append(prefix);
+            for (int i = 0; i < values.size(); ++i) {
+                if (i > 0) {
+                    out.append(", ");
+                }
+                values.get(i).accept(this, out);
             }
-            ret.append(arguments.toString());
+            out.append(suffix);
+        }
+
+        private static String quote(String value) {
+            StringBuilder ret = new StringBuilder(value.length() + 2);
+            quote(value, ret);
             return ret.toString();
         }
+
+        private static void quote(String value, StringBuilder out) {
+            out.append('"');
+            for (int i = 0; i < value.length(); ++i) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    out.append('\\').append(c);
+                } else if (c == '\n') {
+                    out.append("\\n");
+                } else if (c < 0x20) {
+                    // Unicode escapes are translated before parsing, so octal ones are used instead.
+                    out.append('\\').append((char) ('0' + (c >> 6))).append((char) ('0' + ((c >> 3) & 7))).append((char) ('0' + (c & 7)));
+                } else {
+                    out.append(c);
+                }
+            }
+            out.append('"');
+        }
     }
 }
@@ -18,12 +18,15 @@ package com.rushingvise.metagen.interpreter;
 
 import com.rushingvise.metagen.generator.CodeModel;
 import com.rushingvise.metagen.generator.CodeModel.*;
+import com.rushingvise.metagen.jfr.AnalyzeGraphEvent;
 import com.rushingvise.metagen.parser.StructureModel;
 import com.rushingvise.metagen.parser.StructureModel.*;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 import static com.rushingvise.metagen.parser.StructureModel.Utils.findNamedItem;
+import static com.rushingvise.metagen.parser.StructureModel.Utils.hasFragments;
 
 /**
  * Interprets the given graph as a builder.
@@ -35,24 +38,172 @@ import static com.rushingvise.metagen.parser.StructureModel.Utils.findNamedItem;
  * Three main classes are generated for each of the graphs:
  * - Builder class - class intended for the end user.
  * - API class - defines the interfaces available at each phase of building the intended object.
- * - Implementation class - class in which the logic of the builder should be placed.
+ * - Implementation class - class in which the logic of the builder should be placed, generated if the graph declares fragments.
  */
 public class BuilderPatternInterpreter extends StructureInterpreter {
+    private static final Map<String, CodeModel.TypeModel> BUILT_IN_TYPES = new HashMap<>();
+    static {
+        for (CodeModel.TypeModel typeModel : Arrays.asList(CodeModel.TypeModel.TYPE_STRING, CodeModel.TypeModel.TYPE_INTEGER,
+                CodeModel.TypeModel.TYPE_LONG, CodeModel.TypeModel.TYPE_DOUBLE, CodeModel.TypeModel.TYPE_BOOLEAN,
+                CodeModel.TypeModel.TYPE_CHAR, CodeModel.TypeModel.TYPE_BYTES)) {
+            BUILT_IN_TYPES.put(typeModel.name, typeModel);
+        }
+    }
+
+    private final Options mOptions;
+    private final Map<String, CodeModel.TypeModel> mConvertedTypes = new HashMap<>();
+    private boolean mFragmentsClassReported;
+
+    /**
+     * Options of the interpretation.
+     */
+    public static class Options {
+        /**
+         * Indicates if a benchmark class should be generated for each graph, walking representative paths of its builder.
+         */
+        public boolean benchmarks;
+
+        /**
+         * Maximal number of benchmark methods generated for a single graph.
+         */
+        public int maxBenchmarks = 64;
+
+        /**
+         * Indicates if calls of the transitions and actions should be counted, see {@link MainClassModel#metrics}.
+         * When disabled, no instrumentation code is generated at all.
+         */
+        public boolean metrics;
+
+        /**
+         * Indicates if latency of the transitions and actions should be measured as well, requires {@link #metrics}.
+         */
+        public boolean latency;
+
+        /**
+         * Call counts recorded by the instrumented builders, used for specializing the generated code.
+         * Graphs which are not present in the profile are generated as usual.
+         */
+        public TransitionProfile profile;
+
+        /**
+         * Methods called at most this fraction of the calls of the hottest method of the graph are considered cold,
+         * their implementation is moved out of the step classes.
+         */
+        public double coldRatio = 0.01;
+
+        /**
+         * Number of fused fast-path methods generated for the hottest sequences of calls, starting at the initial node.
+         */
+        public int fastPaths = 1;
+
+        /**
+         * Maximal number of calls fused into a single fast-path method.
+         */
+        public int maxFastPathLength = 8;
+
+        /**
+         * Receives the reachability analysis of each graph which contains unreachable nodes, edges or actions.
+         */
+        public Consumer<ReachabilityAnalysis> unreachableReporter;
+
+        /**
+         * Indicates if the unreachable nodes, edges and actions should be left out of the generated code.
+         */
+        public boolean pruneUnreachable;
+
+        /**
+         * Indicates if prepared chain plans should be generated for each graph: a chain of calls captured once
+         * is replayed from a compact array of opcodes, with the arguments bound on each execution.
+         */
+        public boolean plans;
+
+        /**
+         * Indicates if the steps of the builders should be persistent. Such steps only record an immutable trace
+         * of the calls, each of them sharing the trace of the step it was created from, so a step can be continued
+         * any number of times, also from multiple threads. Actions replay the logic methods of the trace on a new content,
+         * see {@link MainClassModel#traceLogic}.
+         */
+        public boolean persistent;
+
+        /**
+         * Indicates if results of the actions should be memoized, which makes the steps persistent as well.
+         * The logic methods are replayed by an action only on a miss of the cache shared by all the builders
+         * of the graph, see {@link MainClassModel#memoized}.
+         */
+        public boolean memoize;
+
+        /**
+         * Maximal number of results memoized for a single graph.
+         */
+        public int memoizeCapacity = 1024;
+
+        /**
+         * Indicates if the text of the fragments should be encodable as UTF-8 directly into reusable byte buffers,
+         * see {@link MainClassModel#bytes}.
+         */
+        public boolean bytes;
+
+        /**
+         * Indicates if the byte buffers allocated for the encoded fragments should be direct, requires {@link #bytes}.
+         */
+        public boolean directBytes;
+
+        /**
+         * Size of the initial block of the arena from which the fragments are allocated, see {@link MainClassModel#arena}.
+         * Fragments are allocated individually if not positive.
+         */
+        public int arena;
+    }
+
     public BuilderPatternInterpreter(StructureModel structureModel) {
+        this(structureModel, new Options());
+    }
+
+    public BuilderPatternInterpreter(StructureModel structureModel, Options options) {
         super(structureModel);
+        mOptions = options;
     }
 
     @Override
     public CodeModel analyzeGraphs() throws StructureInterpreterException {
         CodeModel ret = new CodeModel();
 
-        for (GraphModel model : mStructureModel.graphs) {
-            ret.classes.addAll(analyzeGraph(model));
+        if (mStructureModel.graphs != null) {
+            for (GraphModel model : mStructureModel.graphs) {
+                ret.classes.addAll(analyzeGraph(model));
+            }
+        }
+        reportFragmentsClass(ret.classes);
+        if (mTypesMainClass != null) {
+            ret.classes.add(mTypesMainClass);
         }
-        ret.classes.add(mTypesMainClass);
         return ret;
     }
 
+    /**
+     * Adds the rope class to the analyzed classes, the first time it is required by any of the types or graphs.
+     */
+    private void reportFragmentsClass(List<MainClassModel> classes) {
+        if (mFragmentsClass != null && !mFragmentsClassReported) {
+            classes.add(0, mFragmentsClass);
+            mFragmentsClassReported = true;
+        }
+    }
+
+    @Override
+    protected MainClassModel getFragmentsClass() {
+        final MainClassModel ret = super.getFragmentsClass();
+        ret.bytes = mOptions.bytes;
+        ret.directBytes = mOptions.directBytes;
+        ret.arena = mOptions.arena;
+        return ret;
+    }
+
+    private boolean isFragmentsType(CodeModel.TypeModel type) {
+        return mFragmentsClass != null && type.entityModel instanceof AbstractClassModel
+                && ((AbstractClassModel) type.entityModel).superClass == mFragmentsClass;
+    }
+
     protected String convertName(IncludeEdgeModel edgeModel) {
         return "I" + edgeModel.getName() + "Transition";
     }
@@ -73,15 +224,33 @@ public class BuilderPatternInterpreter extends StructureInterpreter {
         return nodeModel.getName() + "Step";
     }
 
+    protected String getMetricsClassName(GraphModel graphModel) {
+        return graphModel.name + "Metrics";
+    }
+
     protected String getLogicMethodName(String interfaceName, String methodName) {
         return Character.toLowerCase(interfaceName.charAt(1)) + interfaceName.substring(2)
                 + Character.toUpperCase(methodName.charAt(0)) + methodName.substring(1);
     }
 
-
-    private List<MainClassModel> analyzeGraph(GraphModel model) throws StructureInterpreterException {
+    @Override
+    public List<MainClassModel> analyzeGraph(GraphModel model) throws StructureInterpreterException {
+        AnalyzeGraphEvent event = new AnalyzeGraphEvent();
+        event.begin();
         List<MainClassModel> ret = new ArrayList<>();
 
+        if (mOptions.unreachableReporter != null || mOptions.pruneUnreachable) {
+            ReachabilityAnalysis reachability = ReachabilityAnalysis.analyze(model);
+            if (!reachability.isFullyReachable()) {
+                if (mOptions.unreachableReporter != null) {
+                    mOptions.unreachableReporter.accept(reachability);
+                }
+                if (mOptions.pruneUnreachable) {
+                    model = reachability.prune();
+                }
+            }
+        }
+
         ImplementationModel implementationModel = createImplementationModel(model);
         final MainClassModel implementationClass = implementationModel.implementationClass;
         final MainClassModel apiClass = createApi(model, implementationModel);
@@ -92,9 +261,32 @@ public class BuilderPatternInterpreter extends StructureInterpreter {
         apiClass.requiredClasses.add(implementationClass);
 
         ret.add(implementationClass);
+        if (implementationModel.traceClass != null) {
+            apiClass.requiredClasses.add(implementationModel.traceClass);
+            mainClass.requiredClasses.add(implementationModel.traceClass);
+            ret.add(implementationModel.traceClass);
+        }
+        if (implementationModel.metricsClass != null) {
+            apiClass.requiredClasses.add(implementationModel.metricsClass);
+            ret.add(implementationModel.metricsClass);
+        }
         ret.add(apiClass);
+        if (mOptions.plans) {
+            ret.addAll(createPlanClasses(model, implementationModel, mainClass));
+        }
         ret.add(mainClass);
+        if (mOptions.benchmarks) {
+            ret.add(createBenchmarkClass(model, mainClass, apiClass));
+        }
+        reportFragmentsClass(ret);
 
+        if (event.shouldCommit()) {
+            event.graphName = model.name;
+            event.nodeCount = model.nodes.size();
+            event.edgeCount = model.edges.size();
+            event.classCount = ret.size();
+            event.commit();
+        }
         return ret;
     }
 
@@ -106,6 +298,18 @@ public class BuilderPatternInterpreter extends StructureInterpreter {
         contentField.visibility = Visibility.PRIVATE;
         final CodeModel.ArgumentModel contentMethodArgument = new CodeModel.ArgumentModel(contentField.type, contentField.name);
         final CodeModel.ArgumentModel contentConstructorArgument = new CodeModel.ArgumentModel(contentField.type, "_" + contentField.name);
+        final VariableModel contentVariable = new VariableModel(contentField);
+        // Steps of the persistent builders carry the trace of the calls instead of the content.
+        final FieldModel stateField;
+        if (implementationModel.traceClass != null) {
+            stateField = new FieldModel(new CodeModel.TypeModel(implementationModel.traceClass), "trace");
+            stateField.visibility = Visibility.PRIVATE;
+        } else {
+            stateField = contentField;
+        }
+        final CodeModel.ArgumentModel stateMethodArgument = new CodeModel.ArgumentModel(stateField.type, stateField.name);
+        final CodeModel.ArgumentModel stateConstructorArgument = new CodeModel.ArgumentModel(stateField.type, "_" + stateField.name);
+        final VariableModel stateVariable = new VariableModel(stateField);
 
         // We should use single instance of InnerClassModel for each created class.
         final Map<String, InnerClassModel> classesCache = new HashMap<>();
@@ -129,6 +333,9 @@ public class BuilderPatternInterpreter extends StructureInterpreter {
                 logicMethodModel.argumentModels.add(0, contentMethodArgument);
                 logicMethodModel._static = true;
                 logicMethodModel.returnType = CodeModel.TypeModel.TYPE_VOID;
+                if (implementationModel.fragments) {
+                    addFragments(logicMethodModel, signatureModel, contentVariable);
+                }
                 implementationModel.logicClass.methodModels.add(logicMethodModel);
             }
             interfaces.put(interfaceModel.name, interfaceModel);
@@ -146,8 +353,20 @@ public class BuilderPatternInterpreter extends StructureInterpreter {
                 logicMethodModel.name = getLogicMethodName(interfaceModel.name, methodModel.name);
                 logicMethodModel.argumentModels.add(0, contentMethodArgument);
                 logicMethodModel._static = true;
-                if (logicMethodModel.returnType != CodeModel.TypeModel.TYPE_VOID) {
-                    logicMethodModel.methodBody.add(new ReturnInstructionModel(new NullValueModel()));
+                if (implementationModel.fragments) {
+                    addFragments(logicMethodModel, signatureModel, contentVariable);
+                    final RValueModel result;
+                    if (logicMethodModel.returnType == CodeModel.TypeModel.TYPE_STRING) {
+                        result = new MethodCallModel(contentVariable, "materialize", Collections.emptyList());
+                    } else if (isFragmentsType(logicMethodModel.returnType)) {
+                        // Nested results keep referencing the fragments, they are flattened only when converted to a string.
+                        result = new AllocationModel(logicMethodModel.returnType, new MethodCallModel(contentVariable, "snapshot", Collections.emptyList()));
+                    } else {
+                        result = new AllocationModel(logicMethodModel.returnType, new MethodCallModel(contentVariable, "materialize", Collections.emptyList()));
+                    }
+                    logicMethodModel.methodBody.add(new ReturnInstructionModel(result));
+                } else if (logicMethodModel.returnType != CodeModel.TypeModel.TYPE_VOID) {
+                    logicMethodModel.methodBody.add(new ReturnInstructionModel(createDefaultValue(logicMethodModel.returnType)));
                 }
                 implementationModel.logicClass.methodModels.add(logicMethodModel);
             }
@@ -155,6 +374,14 @@ public class BuilderPatternInterpreter extends StructureInterpreter {
             apiClass.interfaces.add(interfaceModel);
         }
 
+        if (mOptions.profile != null && mOptions.profile.contains(getMetricsClassName(model))) {
+            implementationModel.profile = new GraphProfile(getMetricsClassName(model), implementationModel.logicClass.methodModels);
+        }
+
+        // Implementations of the interface methods are the same in every node which includes the interface,
+        // so they are created once per interface and each node gets a copy sharing their signatures and bodies.
+        final Map<InterfaceModel, List<MethodModel>> implementations = new HashMap<>();
+
         // Creating classes for phases of the building process.
         for (NodeModel nodeModel : model.nodes) {
             String className = convertName(nodeModel);
@@ -169,9 +396,9 @@ public class BuilderPatternInterpreter extends StructureInterpreter {
             }
 
             ConstructorModel constructorModel = new ConstructorModel(classModel);
-            constructorModel.argumentModels.add(contentConstructorArgument);
-            constructorModel.constructorBody.add(new AssignmentModel(new VariableModel(contentField),
-                    new VariableModel(contentConstructorArgument.type, contentConstructorArgument.name)));
+            constructorModel.argumentModels.add(stateConstructorArgument);
+            constructorModel.constructorBody.add(new AssignmentModel(stateVariable,
+                    new VariableModel(stateConstructorArgument.type, stateConstructorArgument.name)));
             classModel.constructorModels.add(constructorModel);
 
             // Class should implement actions that were included in the node definition.
@@ -180,17 +407,16 @@ public class BuilderPatternInterpreter extends StructureInterpreter {
                     InterfaceModel interfaceModel = interfaces.get(convertName(includeActionModel));
                     classModel.implementedInterfaceModels.add(interfaceModel);
 
-                    for (MethodModel methodModel : interfaceModel.methodModels) {
-                        MethodModel implementedMethodModel = methodModel.copy();
-                        implementedMethodModel.overrides = true;
-                        MethodCallModel methodCallModel = createLogicMethodCall(interfaceModel, implementationModel.logicClass, methodModel, contentField);
-                        if (methodModel.returnType != null) {
-                            implementedMethodModel.methodBody.add(new ReturnInstructionModel(methodCallModel));
-                        } else {
-                            implementedMethodModel.methodBody.add(methodCallModel);
+                    List<MethodModel> implementedMethodModels = implementations.get(interfaceModel);
+                    if (implementedMethodModels == null) {
+                        implementedMethodModels = new ArrayList<>(interfaceModel.methodModels.size());
+                        for (MethodModel methodModel : interfaceModel.methodModels) {
+                            implementedMethodModels.add(createImplementedMethod(interfaceModel, methodModel, false,
+                                    apiClass, implementationModel, stateMethodArgument, stateVariable));
                         }
-                        classModel.methodModels.add(implementedMethodModel);
+                        implementations.put(interfaceModel, implementedMethodModels);
                     }
+                    addImplementedMethods(classModel, implementedMethodModels, implementationModel);
                 }
             }
             // Class should implement transitions that were included in the node definition.
@@ -199,51 +425,701 @@ public class BuilderPatternInterpreter extends StructureInterpreter {
                     InterfaceModel interfaceModel = interfaces.get(convertName(includeEdgeModel));
                     classModel.implementedInterfaceModels.add(interfaceModel);
 
-                    for (MethodModel methodModel : interfaceModel.methodModels) {
-                        MethodModel implementedMethodModel = methodModel.copy();
-                        implementedMethodModel.overrides = true;
-                        implementedMethodModel.methodBody.add(
-                                createLogicMethodCall(interfaceModel, implementationModel.logicClass, methodModel, contentField)
-                        );
-                        implementedMethodModel.methodBody.add(
-                                new ReturnInstructionModel(
-                                        new AllocationModel(
-                                                implementedMethodModel.returnType,
-                                                new VariableModel(contentField)
-                                        )
-                                )
-                        );
-                        classModel.methodModels.add(implementedMethodModel);
+                    List<MethodModel> implementedMethodModels = implementations.get(interfaceModel);
+                    if (implementedMethodModels == null) {
+                        implementedMethodModels = new ArrayList<>(interfaceModel.methodModels.size());
+                        for (MethodModel methodModel : interfaceModel.methodModels) {
+                            implementedMethodModels.add(createImplementedMethod(interfaceModel, methodModel, true,
+                                    apiClass, implementationModel, stateMethodArgument, stateVariable));
+                        }
+                        implementations.put(interfaceModel, implementedMethodModels);
                     }
+                    addImplementedMethods(classModel, implementedMethodModels, implementationModel);
                 }
             }
-            classModel.fieldModels.add(contentField);
+            classModel.fieldModels.add(stateField);
+        }
+
+        final GraphProfile profile = implementationModel.profile;
+        if (profile != null) {
+            // Hot methods are placed first in each of the steps.
+            final Map<MethodModel, String> logicMethodNames = implementationModel.logicMethodNames;
+            final Comparator<MethodModel> byCallCount = Comparator.comparingLong(methodModel -> profile.getCount(logicMethodNames.get(methodModel)));
+            for (InnerClassModel classModel : classesCache.values()) {
+                classModel.methodModels.sort(byCallCount.reversed());
+            }
+            // Fast paths call the logic methods directly, which persistent builders do only in the actions.
+            if (implementationModel.traceClass == null) {
+                createFastPaths(model, interfaces, classesCache, implementationModel, contentVariable);
+            }
         }
         return apiClass;
     }
 
-    private MethodCallModel createLogicMethodCall(InterfaceModel interfaceModel, InnerClassModel logicClassModel, MethodModel methodModel, FieldModel contentField) {
+    /**
+     * Adds copies of the shared implementations of the interface methods to the given step, so the method models
+     * of different steps can be modified independently, while their argument and body lists are stored only once
+     * until either of the copies modifies them, see {@link MethodModel#copy()}.
+     */
+    private static void addImplementedMethods(InnerClassModel classModel, List<MethodModel> implementedMethodModels,
+                                              ImplementationModel implementationModel) {
+        for (MethodModel implementedMethodModel : implementedMethodModels) {
+            MethodModel methodModel = implementedMethodModel.copy();
+            if (implementationModel.profile != null) {
+                implementationModel.logicMethodNames.put(methodModel, implementationModel.logicMethodNames.get(implementedMethodModel));
+            }
+            classModel.methodModels.add(methodModel);
+        }
+    }
+
+    /**
+     * Creates implementation of the interface method, which calls the corresponding logic method.
+     * Rarely called methods (according to the profile) delegate to a static method of a separate class,
+     * so their code is kept away from the hot paths and in Java it is not even loaded until it is needed.
+     * Methods of the persistent builders extend the trace instead, see {@link Options#persistent}.
+     */
+    private MethodModel createImplementedMethod(InterfaceModel interfaceModel, MethodModel methodModel, boolean transition,
+                                                MainClassModel apiClass, ImplementationModel implementationModel,
+                                                CodeModel.ArgumentModel stateMethodArgument, VariableModel stateVariable) {
+        final String logicMethodName = getLogicMethodName(interfaceModel.name, methodModel.name);
+        MethodModel implementedMethodModel = methodModel.copy();
+        implementedMethodModel.overrides = true;
+        MethodModel bodyMethodModel = implementedMethodModel;
+        if (implementationModel.profile != null) {
+            implementationModel.logicMethodNames.put(implementedMethodModel, logicMethodName);
+            if (implementationModel.profile.isCold(logicMethodName)) {
+                if (implementationModel.coldPathsClass == null) {
+                    implementationModel.coldPathsClass = new InnerClassModel("ColdPaths", apiClass);
+                    implementationModel.coldPathsClass.visibility = Visibility.PRIVATE;
+                }
+                bodyMethodModel = methodModel.copy();
+                bodyMethodModel.name = logicMethodName;
+                bodyMethodModel._static = true;
+                bodyMethodModel.cold = true;
+                bodyMethodModel.argumentModels.add(0, stateMethodArgument);
+                implementationModel.coldPathsClass.methodModels.add(bodyMethodModel);
+                implementedMethodModel.methodBody.add(new ReturnInstructionModel(new MethodCallModel(
+                        implementationModel.coldPathsClass, logicMethodName, forwardMethodArguments(methodModel.argumentModels, stateVariable))));
+            }
+        }
+        if (implementationModel.traceClass != null) {
+            final MethodCallModel traceCall = new MethodCallModel(stateVariable, logicMethodName, forwardMethodArguments(methodModel.argumentModels, null));
+            addLogicMethodCall(bodyMethodModel, transition ? new AllocationModel(methodModel.returnType, traceCall) : traceCall,
+                    logicMethodName, transition || methodModel.returnType != null, implementationModel);
+            return implementedMethodModel;
+        }
+        addLogicMethodCall(bodyMethodModel,
+                createLogicMethodCall(interfaceModel, implementationModel.logicClass, methodModel, stateVariable),
+                logicMethodName, !transition && methodModel.returnType != null, implementationModel);
+        if (transition) {
+            bodyMethodModel.methodBody.add(
+                    new ReturnInstructionModel(
+                            new AllocationModel(
+                                    methodModel.returnType,
+                                    stateVariable
+                            )
+                    )
+            );
+        }
+        return implementedMethodModel;
+    }
+
+    /**
+     * Adds fused fast-path methods to the initial step. Each of them starts with one of the hottest methods of the
+     * initial node and greedily follows the hottest method of each reached node, until an action is called,
+     * a node is reached for the second time or the hottest method is called less than half as often as the previous one. Logic methods of the whole sequence
+     * are called directly, without creating the intermediate steps, e.g.
+     * {@code new QueryBuilder().selectFromBuild(columns, table)} instead of {@code new QueryBuilder().select(columns).from(table).build()}.
+     */
+    private void createFastPaths(GraphModel model, Map<String, InterfaceModel> interfaces, Map<String, InnerClassModel> classesCache,
+                                 ImplementationModel implementationModel, VariableModel contentVariable) {
+        final GraphProfile profile = implementationModel.profile;
+        final InnerClassModel initialClass = implementationModel.initialClass;
+        final Map<String, NodeModel> nodes = new HashMap<>();
+        for (NodeModel nodeModel : model.nodes) {
+            nodes.put(nodeModel.name, nodeModel);
+        }
+
+        final List<FastPathCall> initialCalls = getHotCalls(model, nodes.get(model.initialNode), interfaces, profile);
+        for (int i = 0; i < Math.min(mOptions.fastPaths, initialCalls.size()); ++i) {
+            final List<FastPathCall> path = new ArrayList<>();
+            final Set<String> visitedNodes = new HashSet<>();
+            visitedNodes.add(model.initialNode);
+            FastPathCall call = initialCalls.get(i);
+            while (call != null) {
+                path.add(call);
+                if (call.targetNode == null || !visitedNodes.add(call.targetNode) || path.size() >= mOptions.maxFastPathLength) {
+                    break;
+                }
+                List<FastPathCall> calls = getHotCalls(model, nodes.get(call.targetNode), interfaces, profile);
+                // The sequence is only followed while most of the calls continue the same way.
+                final long count = profile.getCount(call.logicMethodName);
+                call = calls.isEmpty() || profile.getCount(calls.get(0).logicMethodName) * 2 < count ? null : calls.get(0);
+            }
+            if (path.size() < 2) {
+                continue;
+            }
+
+            StringBuilder name = new StringBuilder(path.get(0).methodModel.name);
+            for (FastPathCall pathCall : path.subList(1, path.size())) {
+                name.append(Character.toUpperCase(pathCall.methodModel.name.charAt(0))).append(pathCall.methodModel.name.substring(1));
+            }
+            if (findMethod(initialClass, name.toString()) != null) {
+                continue;
+            }
+            MethodModel fastPathMethodModel = new MethodModel(name.toString());
+            final Set<String> argumentNames = new HashSet<>();
+            for (int j = 0; j < path.size(); ++j) {
+                final FastPathCall pathCall = path.get(j);
+                final List<RValueModel> parameters = new ArrayList<>();
+                parameters.add(contentVariable);
+                // Arguments of the further calls must not clash with the locals declared by the instrumentation either.
+                argumentNames.addAll(getLocalNames(fastPathMethodModel));
+                for (CodeModel.ArgumentModel argumentModel : pathCall.methodModel.argumentModels) {
+                    String argumentName = argumentModel.name;
+                    for (int suffix = 1; !argumentNames.add(argumentName); ++suffix) {
+                        argumentName = argumentModel.name + suffix;
+                    }
+                    CodeModel.ArgumentModel fastPathArgumentModel = new CodeModel.ArgumentModel(argumentModel.type, argumentName);
+                    // Only the last argument of the whole sequence can stay variadic.
+                    fastPathArgumentModel.array = argumentModel.array || argumentModel.variadic;
+                    fastPathMethodModel.argumentModels.add(fastPathArgumentModel);
+                    parameters.add(new VariableModel(argumentModel.type, argumentName));
+                }
+                final MethodCallModel logicMethodCall = new MethodCallModel(implementationModel.logicClass, pathCall.logicMethodName, parameters);
+                final boolean last = j == path.size() - 1;
+                if (last) {
+                    // The result of the last call may be stored in a local of the return type by the instrumentation.
+                    fastPathMethodModel.returnType = pathCall.methodModel.returnType;
+                }
+                addLogicMethodCall(fastPathMethodModel, logicMethodCall, pathCall.logicMethodName, last && pathCall.targetNode == null, implementationModel);
+                if (last && pathCall.targetNode != null) {
+                    fastPathMethodModel.methodBody.add(new ReturnInstructionModel(new AllocationModel(
+                            new CodeModel.TypeModel(classesCache.get(convertName(nodes.get(pathCall.targetNode)))), contentVariable)));
+                }
+            }
+            final List<CodeModel.ArgumentModel> fastPathArguments = fastPathMethodModel.argumentModels;
+            if (!fastPathArguments.isEmpty()) {
+                final CodeModel.ArgumentModel lastArgument = fastPathArguments.get(fastPathArguments.size() - 1);
+                final List<CodeModel.ArgumentModel> lastCallArguments = path.get(path.size() - 1).methodModel.argumentModels;
+                if (!lastCallArguments.isEmpty() && lastCallArguments.get(lastCallArguments.size() - 1).variadic) {
+                    lastArgument.array = false;
+                    lastArgument.variadic = true;
+                }
+            }
+            initialClass.methodModels.add(0, fastPathMethodModel);
+        }
+    }
+
+    /**
+     * @return Methods available in the given node which are not cold, ordered from the hottest one.
+     */
+    private List<FastPathCall> getHotCalls(GraphModel model, NodeModel nodeModel, Map<String, InterfaceModel> interfaces, GraphProfile profile) {
+        final List<FastPathCall> ret = new ArrayList<>();
+        if (nodeModel.includedEdges != null) {
+            for (IncludeEdgeModel includeEdgeModel : nodeModel.includedEdges) {
+                InterfaceModel interfaceModel = interfaces.get(convertName(includeEdgeModel));
+                String targetNode = findNamedItem(model.edges, includeEdgeModel.name).target;
+                for (MethodModel methodModel : interfaceModel.methodModels) {
+                    ret.add(new FastPathCall(interfaceModel, methodModel, targetNode));
+                }
+            }
+        }
+        if (nodeModel.includedActions != null) {
+            for (IncludeActionModel includeActionModel : nodeModel.includedActions) {
+                InterfaceModel interfaceModel = interfaces.get(convertName(includeActionModel));
+                for (MethodModel methodModel : interfaceModel.methodModels) {
+                    ret.add(new FastPathCall(interfaceModel, methodModel, null));
+                }
+            }
+        }
+        ret.removeIf(call -> profile.isCold(call.logicMethodName) || profile.getCount(call.logicMethodName) == 0);
+        ret.sort(Comparator.comparingLong((FastPathCall call) -> profile.getCount(call.logicMethodName)).reversed());
+        return ret;
+    }
+
+    private static MethodModel findMethod(EntityModel entityModel, String name) {
+        for (MethodModel methodModel : entityModel.methodModels) {
+            if (methodModel.name.equals(name)) {
+                return methodModel;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Single call of a fast-path method, see {@link #createFastPaths}.
+     */
+    private class FastPathCall {
+        final MethodModel methodModel;
+        final String logicMethodName;
+        /**
+         * Name of the node reached by the call, {@code null} for actions.
+         */
+        final String targetNode;
+
+        FastPathCall(InterfaceModel interfaceModel, MethodModel methodModel, String targetNode) {
+            this.methodModel = methodModel;
+            this.logicMethodName = getLogicMethodName(interfaceModel.name, methodModel.name);
+            this.targetNode = targetNode;
+        }
+    }
+
+    /**
+     * Call counts of the logic methods of a single graph, see {@link Options#profile}.
+     */
+    private class GraphProfile {
+        private final String mMetricsClassName;
+        private final long mMaxCount;
+
+        GraphProfile(String metricsClassName, List<MethodModel> logicMethodModels) {
+            mMetricsClassName = metricsClassName;
+            long maxCount = 0;
+            for (MethodModel methodModel : logicMethodModels) {
+                maxCount = Math.max(maxCount, getCount(methodModel.name));
+            }
+            mMaxCount = maxCount;
+        }
+
+        long getCount(String logicMethodName) {
+            return mOptions.profile.getCount(mMetricsClassName, logicMethodName);
+        }
+
+        boolean isCold(String logicMethodName) {
+            return mMaxCount > 0 && getCount(logicMethodName) <= mMaxCount * mOptions.coldRatio;
+        }
+    }
+
+    private MethodCallModel createLogicMethodCall(InterfaceModel interfaceModel, InnerClassModel logicClassModel, MethodModel methodModel, VariableModel contentVariable) {
         return new MethodCallModel(
                 logicClassModel,
                 getLogicMethodName(interfaceModel.name, methodModel.name),
-                forwardMethodArguments(methodModel.argumentModels, new VariableModel(contentField))
+                forwardMethodArguments(methodModel.argumentModels, contentVariable)
         );
     }
 
+    /**
+     * Adds the call of the logic method to the body of the implemented method.
+     * If metrics are enabled, the call is counted and optionally its latency is measured.
+     */
+    private void addLogicMethodCall(MethodModel implementedMethodModel, RValueModel logicMethodCall, String logicMethodName,
+                                    boolean returnsResult, ImplementationModel implementationModel) {
+        final List<InstructionModel> body = implementedMethodModel.methodBody;
+        final MainClassModel metricsClass = implementationModel.metricsClass;
+        if (metricsClass == null) {
+            body.add(returnsResult ? new ReturnInstructionModel(logicMethodCall) : logicMethodCall);
+            return;
+        }
+        // Metrics are referenced by their indices, so the instrumentation costs no more than a single array access.
+        final RValueModel metric = implementationModel.metrics.computeIfAbsent(logicMethodName, name -> {
+            final FieldModel metricField = new FieldModel(CodeModel.TypeModel.TYPE_INTEGER, name);
+            metricField._static = true;
+            metricField._final = true;
+            metricField.value = new IntegerValueModel(metricsClass.fieldModels.size());
+            metricsClass.fieldModels.add(metricField);
+            return metricField.value;
+        });
+
+        if (!mOptions.latency) {
+            body.add(new MethodCallModel(metricsClass, "count", Collections.singletonList(metric)));
+            body.add(returnsResult ? new ReturnInstructionModel(logicMethodCall) : logicMethodCall);
+            return;
+        }
+        final VariableModel startVariable = new VariableModel(CodeModel.TypeModel.TYPE_LONG, createLocalName(implementedMethodModel, "_start"));
+        body.add(new DeclarationModel(startVariable, new MethodCallModel(metricsClass, "start", Collections.emptyList())));
+        final MethodCallModel recordCall = new MethodCallModel(metricsClass, "record", Arrays.asList(metric, startVariable));
+        if (returnsResult) {
+            final VariableModel resultVariable = new VariableModel(implementedMethodModel.returnType, createLocalName(implementedMethodModel, "_result"));
+            body.add(new DeclarationModel(resultVariable, logicMethodCall));
+            body.add(recordCall);
+            body.add(new ReturnInstructionModel(resultVariable));
+        } else {
+            body.add(logicMethodCall);
+            body.add(recordCall);
+        }
+    }
+
+    /**
+     * @return Names of the arguments of the method and of the locals declared so far in its body.
+     */
+    private static Set<String> getLocalNames(MethodModel methodModel) {
+        final Set<String> ret = new HashSet<>();
+        for (CodeModel.ArgumentModel argumentModel : methodModel.argumentModels) {
+            ret.add(argumentModel.name);
+        }
+        for (InstructionModel instructionModel : methodModel.methodBody) {
+            if (instructionModel instanceof DeclarationModel) {
+                ret.add(((DeclarationModel) instructionModel).variable.name);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return The given name, suffixed with a number if it is already taken by an argument or a local of the method.
+     */
+    private static String createLocalName(MethodModel methodModel, String name) {
+        final Set<String> names = getLocalNames(methodModel);
+        String ret = name;
+        for (int suffix = 1; names.contains(ret); ++suffix) {
+            ret = name + suffix;
+        }
+        return ret;
+    }
+
+    /**
+     * Fills the body of the logic method with the fragments emitted by the signature, adjacent constant texts are joined.
+     */
+    private static void addFragments(MethodModel logicMethodModel, SignatureModel signatureModel, VariableModel contentVariable) {
+        if (signatureModel.fragments == null) {
+            return;
+        }
+        final StringBuilder text = new StringBuilder();
+        for (FragmentModel fragmentModel : signatureModel.fragments) {
+            if (fragmentModel.text != null) {
+                text.append(fragmentModel.text);
+                continue;
+            }
+            addTextFragment(logicMethodModel, text, contentVariable);
+            CodeModel.ArgumentModel argumentModel = null;
+            for (CodeModel.ArgumentModel logicArgumentModel : logicMethodModel.argumentModels) {
+                if (logicArgumentModel.name.equals(fragmentModel.argument)) {
+                    argumentModel = logicArgumentModel;
+                }
+            }
+            final List<RValueModel> parameters = new ArrayList<>();
+            parameters.add(new VariableModel(argumentModel.type, argumentModel.name));
+            if (argumentModel.array || argumentModel.variadic) {
+                parameters.add(new StringValueModel(fragmentModel.separator != null ? fragmentModel.separator : ""));
+            }
+            logicMethodModel.methodBody.add(new MethodCallModel(contentVariable, "append", parameters));
+        }
+        addTextFragment(logicMethodModel, text, contentVariable);
+    }
+
+    private static void addTextFragment(MethodModel logicMethodModel, StringBuilder text, VariableModel contentVariable) {
+        if (text.length() > 0) {
+            // Texts of the specification are literals of the generated code, so the ropes may reference them in place.
+            logicMethodModel.methodBody.add(new MethodCallModel(contentVariable, "appendLiteral",
+                    Collections.singletonList(new StringValueModel(text.toString()))));
+            text.setLength(0);
+        }
+    }
+
     private MainClassModel createBuilderClass(GraphModel model, ImplementationModel implementationModel) throws StructureInterpreterException {
         MainClassModel apiClass = new MainClassModel(model.name);
         ConstructorModel constructorModel = new ConstructorModel(apiClass);
-        SuperCallModel superCallModel = new SuperCallModel(implementationModel.initialClass, Arrays.asList(new AllocationModel(new CodeModel.TypeModel(implementationModel.contentClass))));
+        final EntityModel stateClass = implementationModel.traceClass != null ? implementationModel.traceClass : implementationModel.contentClass;
+        SuperCallModel superCallModel = new SuperCallModel(implementationModel.initialClass, Arrays.asList(new AllocationModel(new CodeModel.TypeModel(stateClass))));
         constructorModel.constructorBody.add(superCallModel);
         apiClass.constructorModels.add(constructorModel);
         apiClass.superClass = implementationModel.initialClass;
         return apiClass;
     }
 
+    /**
+     * Creates the plan class and the capture class of the given graph, see {@link Options#plans}.
+     * Capture steps mirror the steps of the builder, but their methods take no arguments. Each of them appends
+     * the opcode of its logic method to an immutable plan, while the arguments of the method become the parameters
+     * of the plan, bound by position on execution, e.g.
+     * {@code QueryBuilder.capture().select().from().build().execute(columns, table)}.
+     * Opcodes are the indices of the methods of the logic class, the generators provide the replaying code.
+     */
+    private List<MainClassModel> createPlanClasses(GraphModel model, ImplementationModel implementationModel, MainClassModel builderClass) {
+        final MainClassModel planClass = new MainClassModel(model.name + "Plan");
+        planClass.planLogic = implementationModel.logicClass;
+        planClass.requiredClasses.add(implementationModel.implementationClass);
+        final CodeModel.TypeModel planType = new CodeModel.TypeModel(planClass);
+
+        final MainClassModel captureClass = new MainClassModel(model.name + "Capture");
+        captureClass.requiredClasses.add(planClass);
+        final FieldModel planField = new FieldModel(planType, "plan");
+        planField.visibility = Visibility.PRIVATE;
+        final CodeModel.ArgumentModel planArgument = new CodeModel.ArgumentModel(planType, "_plan");
+        final VariableModel planVariable = new VariableModel(planField);
+
+        // Logic methods were created for the signatures of all the edges, followed by the ones of all the actions.
+        final Map<String, Integer> edgeOpcodes = new HashMap<>();
+        final Map<String, Integer> actionOpcodes = new HashMap<>();
+        int opcode = 0;
+        for (EdgeModel edgeModel : model.edges) {
+            edgeOpcodes.put(edgeModel.name, opcode);
+            opcode += edgeModel.signatures.size();
+        }
+        for (ActionModel actionModel : model.actions) {
+            actionOpcodes.put(actionModel.name, opcode);
+            opcode += actionModel.signatures.size();
+        }
+
+        final Map<String, InnerClassModel> captureSteps = new HashMap<>();
+        for (NodeModel nodeModel : model.nodes) {
+            InnerClassModel classModel = new InnerClassModel(convertName(nodeModel), captureClass);
+            ConstructorModel constructorModel = new ConstructorModel(classModel);
+            constructorModel.argumentModels.add(planArgument);
+            constructorModel.constructorBody.add(new AssignmentModel(planVariable, new VariableModel(planArgument.type, planArgument.name)));
+            classModel.constructorModels.add(constructorModel);
+            classModel.fieldModels.add(planField);
+            captureSteps.put(nodeModel.name, classModel);
+            captureClass.innerClasses.add(classModel);
+        }
+        for (NodeModel nodeModel : model.nodes) {
+            final InnerClassModel classModel = captureSteps.get(nodeModel.name);
+            final Set<String> methodNames = new HashSet<>();
+            if (nodeModel.includedEdges != null) {
+                for (IncludeEdgeModel includeEdgeModel : nodeModel.includedEdges) {
+                    EdgeModel edgeModel = findNamedItem(model.edges, includeEdgeModel.name);
+                    CodeModel.TypeModel targetType = new CodeModel.TypeModel(captureSteps.get(edgeModel.target));
+                    for (int i = 0; i < edgeModel.signatures.size(); ++i) {
+                        SignatureModel signatureModel = edgeModel.signatures.get(i);
+                        MethodModel methodModel = new MethodModel(getCaptureMethodName(signatureModel, methodNames));
+                        methodModel.returnType = targetType;
+                        methodModel.methodBody.add(new ReturnInstructionModel(new AllocationModel(targetType,
+                                createPlanExtension(signatureModel, edgeOpcodes.get(edgeModel.name) + i, planVariable))));
+                        classModel.methodModels.add(methodModel);
+                    }
+                }
+            }
+            if (nodeModel.includedActions != null) {
+                for (IncludeActionModel includeActionModel : nodeModel.includedActions) {
+                    ActionModel actionModel = findNamedItem(model.actions, includeActionModel.name);
+                    for (int i = 0; i < actionModel.signatures.size(); ++i) {
+                        SignatureModel signatureModel = actionModel.signatures.get(i);
+                        MethodModel methodModel = new MethodModel(getCaptureMethodName(signatureModel, methodNames));
+                        methodModel.returnType = planType;
+                        methodModel.methodBody.add(new ReturnInstructionModel(
+                                createPlanExtension(signatureModel, actionOpcodes.get(actionModel.name) + i, planVariable)));
+                        classModel.methodModels.add(methodModel);
+                    }
+                }
+            }
+        }
+
+        final CodeModel.TypeModel initialType = new CodeModel.TypeModel(captureSteps.get(model.initialNode));
+        final MethodModel captureMethodModel = new MethodModel("capture");
+        captureMethodModel._static = true;
+        captureMethodModel.returnType = initialType;
+        captureMethodModel.methodBody.add(new ReturnInstructionModel(new AllocationModel(initialType, new AllocationModel(planType))));
+        builderClass.methodModels.add(captureMethodModel);
+        builderClass.requiredClasses.add(captureClass);
+        return Arrays.asList(planClass, captureClass);
+    }
+
+    /**
+     * @return Name of the capture method of the given signature. Overloaded signatures are told apart by a numeric suffix,
+     * as capture methods take no arguments.
+     */
+    private static String getCaptureMethodName(SignatureModel signatureModel, Set<String> methodNames) {
+        String ret = signatureModel.name;
+        for (int suffix = 2; !methodNames.add(ret); ++suffix) {
+            ret = signatureModel.name + suffix;
+        }
+        return ret;
+    }
+
+    /**
+     * @return Call creating a new plan, which extends the captured one with the given opcode and the arguments of the signature.
+     */
+    private static MethodCallModel createPlanExtension(SignatureModel signatureModel, int opcode, VariableModel planVariable) {
+        final int argumentCount = signatureModel.arguments != null ? signatureModel.arguments.size() : 0;
+        return new MethodCallModel(planVariable, "then", Arrays.asList(new IntegerValueModel(opcode), new IntegerValueModel(argumentCount)));
+    }
+
+    /**
+     * Creates a class benchmarking the builder of the given graph.
+     * Each benchmark method walks the shortest path from the initial node to one of the nodes and invokes an action
+     * available there, e.g. {@code return new QueryBuilder().select("columns").from("table").build();}.
+     * Such methods are created for every node including an action and for every node without outgoing edges,
+     * in which case the reached step is returned. Only the first signature of each edge and the first action
+     * signature returning a result are used, arguments are filled with sample values.
+     * Signatures taking arguments of the declared types are skipped unless the types are composed of fragments,
+     * as the other types are implemented by the developer and cannot be created in a generic way.
+     */
+    private MainClassModel createBenchmarkClass(GraphModel model, MainClassModel builderClass, MainClassModel apiClass) {
+        MainClassModel benchmarkClass = new MainClassModel(model.name + "Benchmark");
+        benchmarkClass.benchmark = true;
+        benchmarkClass.requiredClasses.add(builderClass);
+        if (mTypesMainClass != null) {
+            benchmarkClass.requiredClasses.add(mTypesMainClass);
+        }
+
+        final Map<String, NodeModel> nodes = new HashMap<>();
+        for (NodeModel nodeModel : model.nodes) {
+            nodes.put(nodeModel.name, nodeModel);
+        }
+        final Map<String, EdgeModel> edges = new HashMap<>();
+        for (EdgeModel edgeModel : model.edges) {
+            edges.put(edgeModel.name, edgeModel);
+        }
+        final Map<String, ActionModel> actions = new HashMap<>();
+        for (ActionModel actionModel : model.actions) {
+            actions.put(actionModel.name, actionModel);
+        }
+        final Map<String, InnerClassModel> stepClasses = new HashMap<>();
+        for (InnerClassModel innerClass : apiClass.innerClasses) {
+            stepClasses.put(innerClass.name, innerClass);
+        }
+
+        // Breadth-first search, remembering the edge through which each node was reached first.
+        final Map<String, EdgeModel> reachedBy = new HashMap<>();
+        final Map<String, NodeModel> reachedFrom = new HashMap<>();
+        final Deque<NodeModel> queue = new ArrayDeque<>();
+        reachedBy.put(model.initialNode, null);
+        queue.add(nodes.get(model.initialNode));
+        while (!queue.isEmpty()) {
+            NodeModel nodeModel = queue.poll();
+            if (nodeModel.includedEdges != null) {
+                for (IncludeEdgeModel includeEdgeModel : nodeModel.includedEdges) {
+                    EdgeModel edgeModel = edges.get(includeEdgeModel.name);
+                    if (findSampleSignature(edgeModel.signatures) != null && !reachedBy.containsKey(edgeModel.target)) {
+                        reachedBy.put(edgeModel.target, edgeModel);
+                        reachedFrom.put(edgeModel.target, nodeModel);
+                        queue.add(nodes.get(edgeModel.target));
+                    }
+                }
+            }
+        }
+
+        for (NodeModel nodeModel : model.nodes) {
+            if (benchmarkClass.methodModels.size() >= mOptions.maxBenchmarks) {
+                break;
+            }
+            if (!reachedBy.containsKey(nodeModel.name)) {
+                continue;
+            }
+            SignatureModel actionSignature = null;
+            if (nodeModel.includedActions != null) {
+                for (IncludeActionModel includeActionModel : nodeModel.includedActions) {
+                    ActionModel actionModel = actions.get(includeActionModel.name);
+                    if (actionModel.signatures != null) {
+                        for (SignatureModel signatureModel : actionModel.signatures) {
+                            // Benchmarks should always yield a result, which can be consumed by the harness.
+                            if (signatureModel.returnType != null && hasSampleArguments(signatureModel)) {
+                                actionSignature = signatureModel;
+                                break;
+                            }
+                        }
+                    }
+                    if (actionSignature != null) {
+                        break;
+                    }
+                }
+            }
+            boolean leaf = nodeModel.includedEdges == null || nodeModel.includedEdges.isEmpty();
+            if (actionSignature == null && !leaf) {
+                continue;
+            }
+
+            // Walking the path back to the initial node.
+            final LinkedList<EdgeModel> path = new LinkedList<>();
+            for (String name = nodeModel.name; reachedBy.get(name) != null; name = reachedFrom.get(name).name) {
+                path.addFirst(reachedBy.get(name));
+            }
+            RValueModel chain = new AllocationModel(new CodeModel.TypeModel(builderClass));
+            for (EdgeModel edgeModel : path) {
+                SignatureModel signatureModel = findSampleSignature(edgeModel.signatures);
+                chain = new MethodCallModel(chain, signatureModel.name, createSampleArguments(signatureModel));
+            }
+
+            MethodModel methodModel;
+            if (actionSignature != null) {
+                methodModel = new MethodModel(actionSignature.name + "After" + nodeModel.name);
+                methodModel.returnType = convertType(actionSignature.returnType);
+                chain = new MethodCallModel(chain, actionSignature.name, createSampleArguments(actionSignature));
+            } else {
+                methodModel = new MethodModel("reach" + nodeModel.name);
+                methodModel.returnType = new CodeModel.TypeModel(stepClasses.get(convertName(nodeModel)));
+            }
+            methodModel.methodBody.add(new ReturnInstructionModel(chain));
+            benchmarkClass.methodModels.add(methodModel);
+        }
+        return benchmarkClass;
+    }
+
+    /**
+     * @return Value returned by the generated stubs of the logic, primitives cannot be null.
+     */
+    private static RValueModel createDefaultValue(CodeModel.TypeModel type) {
+        if (type == CodeModel.TypeModel.TYPE_INTEGER || type == CodeModel.TypeModel.TYPE_LONG || type == CodeModel.TypeModel.TYPE_DOUBLE) {
+            return new IntegerValueModel(0);
+        } else if (type == CodeModel.TypeModel.TYPE_BOOLEAN) {
+            return new BooleanValueModel(false);
+        } else if (type == CodeModel.TypeModel.TYPE_CHAR) {
+            return new CharValueModel('\0');
+        } else if (type == CodeModel.TypeModel.TYPE_BYTES) {
+            return new BytesValueModel(new byte[0]);
+        } else {
+            return new NullValueModel();
+        }
+    }
+
+    /**
+     * @return First of the given signatures which can be called with sample arguments or {@code null} if there is none.
+     */
+    private SignatureModel findSampleSignature(List<SignatureModel> signatureModels) {
+        if (signatureModels != null) {
+            for (SignatureModel signatureModel : signatureModels) {
+                if (hasSampleArguments(signatureModel)) {
+                    return signatureModel;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return {@code true} if all arguments of the given signature are of the built-in types or of the types composed
+     * of fragments, which are generated complete including an empty constructor.
+     */
+    private boolean hasSampleArguments(SignatureModel signatureModel) {
+        if (signatureModel.arguments != null) {
+            for (StructureModel.ArgumentModel argumentModel : signatureModel.arguments) {
+                if (BUILT_IN_TYPES.containsKey(argumentModel.type)) {
+                    continue;
+                }
+                CodeModel.InnerClassModel typeClass = mTypes.get(argumentModel.type);
+                if (typeClass == null || mFragmentsClass == null || typeClass.superClass != mFragmentsClass) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private List<RValueModel> createSampleArguments(SignatureModel signatureModel) {
+        List<RValueModel> ret = new ArrayList<>();
+        if (signatureModel.arguments != null) {
+            for (StructureModel.ArgumentModel argumentModel : signatureModel.arguments) {
+                CodeModel.TypeModel type = convertType(argumentModel.type);
+                RValueModel value;
+                if (type == CodeModel.TypeModel.TYPE_STRING) {
+                    value = new StringValueModel(argumentModel.name);
+                } else if (type == CodeModel.TypeModel.TYPE_INTEGER || type == CodeModel.TypeModel.TYPE_LONG
+                        || type == CodeModel.TypeModel.TYPE_DOUBLE) {
+                    value = new IntegerValueModel(1);
+                } else if (type == CodeModel.TypeModel.TYPE_BOOLEAN) {
+                    value = new BooleanValueModel(true);
+                } else if (type == CodeModel.TypeModel.TYPE_CHAR) {
+                    value = new CharValueModel(argumentModel.name.charAt(0));
+                } else if (type == CodeModel.TypeModel.TYPE_BYTES) {
+                    value = new BytesValueModel(new byte[]{1});
+                } else {
+                    value = new AllocationModel(type);
+                }
+                if (argumentModel.array || argumentModel.vararg) {
+                    value = new ArrayValueModel(type, Collections.singletonList(value));
+                }
+                ret.add(value);
+            }
+        }
+        return ret;
+    }
+
     private ImplementationModel createImplementationModel(GraphModel model) {
         MainClassModel implementationClass = new MainClassModel(model.name + "Impl");
         implementationClass.template = true;
-        implementationClass.requiredClasses.add(mTypesMainClass);
+        if (mTypesMainClass != null) {
+            implementationClass.requiredClasses.add(mTypesMainClass);
+        }
         InnerClassModel contentClass = new InnerClassModel("Content", implementationClass);
         InnerClassModel logicClass = new InnerClassModel("Logic", implementationClass);
 
@@ -251,6 +1127,31 @@ public class BuilderPatternInterpreter extends StructureInterpreter {
         implementationModel.implementationClass = implementationClass;
         implementationModel.contentClass = contentClass;
         implementationModel.logicClass = logicClass;
+        // Logic of the graphs with fragments is generated, so there is nothing left to implement.
+        if (hasFragments(model)) {
+            implementationClass.template = false;
+            implementationClass.requiredClasses.add(getFragmentsClass());
+            contentClass.superClass = mFragmentsClass;
+            implementationModel.fragments = true;
+        }
+        if (mOptions.metrics) {
+            implementationModel.metricsClass = new MainClassModel(getMetricsClassName(model));
+            implementationModel.metricsClass.metrics = true;
+        }
+        if (mOptions.persistent || mOptions.memoize) {
+            MainClassModel traceClass = new MainClassModel(model.name + "Trace");
+            traceClass.traceLogic = logicClass;
+            traceClass.requiredClasses.add(implementationClass);
+            if (mOptions.memoize) {
+                traceClass.memoized = true;
+                FieldModel capacityField = new FieldModel(CodeModel.TypeModel.TYPE_INTEGER, "CAPACITY");
+                capacityField._static = true;
+                capacityField._final = true;
+                capacityField.value = new IntegerValueModel(mOptions.memoizeCapacity);
+                traceClass.fieldModels.add(capacityField);
+            }
+            implementationModel.traceClass = traceClass;
+        }
 
         return implementationModel;
     }
@@ -260,6 +1161,13 @@ public class BuilderPatternInterpreter extends StructureInterpreter {
         InnerClassModel logicClass;
         InnerClassModel contentClass;
         InnerClassModel initialClass;
+        MainClassModel metricsClass;
+        MainClassModel traceClass;
+        boolean fragments;
+        final Map<String, RValueModel> metrics = new HashMap<>();
+        GraphProfile profile;
+        InnerClassModel coldPathsClass;
+        final Map<MethodModel, String> logicMethodNames = new IdentityHashMap<>();
     }
 
     private MethodModel convertTransitionSignature(SignatureModel signatureModel) throws StructureInterpreterException {
@@ -278,16 +1186,21 @@ public class BuilderPatternInterpreter extends StructureInterpreter {
     }
 
     private CodeModel.TypeModel convertType(String type) {
-        if (CodeModel.TypeModel.TYPE_STRING.name.equals(type)) {
-            return CodeModel.TypeModel.TYPE_STRING;
-        } else if (CodeModel.TypeModel.TYPE_INTEGER.name.equals(type)) {
-            return CodeModel.TypeModel.TYPE_INTEGER;
+        final CodeModel.TypeModel builtInType = BUILT_IN_TYPES.get(type);
+        if (builtInType != null) {
+            return builtInType;
         } else {
-            if (mTypes.containsKey(type)) {
-                return new CodeModel.TypeModel(mTypes.get(type));
-            } else {
-                return new CodeModel.TypeModel(type);
+            // Type models are shared between all signatures using the same type.
+            CodeModel.TypeModel ret = mConvertedTypes.get(type);
+            if (ret == null) {
+                if (mTypes.containsKey(type)) {
+                    ret = new CodeModel.TypeModel(mTypes.get(type));
+                } else {
+                    ret = new CodeModel.TypeModel(type);
+                }
+                mConvertedTypes.put(type, ret);
             }
+            return ret;
         }
     }
 
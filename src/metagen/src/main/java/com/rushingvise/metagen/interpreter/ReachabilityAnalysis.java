@@ -0,0 +1,184 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.interpreter;
+
+import com.rushingvise.metagen.parser.StructureModel.*;
+
+import java.util.*;
+
+/**
+ * Finds the nodes, edges and actions of a graph which cannot be reached from its initial node.
+ * Elements are identified by their indices in the lists of {@link GraphModel}, reachability is kept in bitsets,
+ * so the analysis runs in time linear to the size of the graph.
+ * An edge or an action is reachable if it is included in at least one reachable node.
+ */
+public class ReachabilityAnalysis {
+    private final GraphModel mGraphModel;
+    private final BitSet mReachableNodes;
+    private final BitSet mReachableEdges;
+    private final BitSet mReachableActions;
+
+    private ReachabilityAnalysis(GraphModel graphModel, BitSet reachableNodes, BitSet reachableEdges, BitSet reachableActions) {
+        mGraphModel = graphModel;
+        mReachableNodes = reachableNodes;
+        mReachableEdges = reachableEdges;
+        mReachableActions = reachableActions;
+    }
+
+    /**
+     * @param graphModel Graph which should be analyzed.
+     * @return Reachability of the elements of the graph.
+     */
+    public static ReachabilityAnalysis analyze(GraphModel graphModel) {
+        final Map<String, Integer> nodeIndices = indexNames(graphModel.nodes);
+        final Map<String, Integer> edgeIndices = indexNames(graphModel.edges);
+        final Map<String, Integer> actionIndices = indexNames(graphModel.actions);
+        final int[] edgeTargets = new int[graphModel.edges.size()];
+        for (int i = 0; i < edgeTargets.length; ++i) {
+            Integer target = nodeIndices.get(graphModel.edges.get(i).target);
+            edgeTargets[i] = target != null ? target : -1;
+        }
+
+        final BitSet reachableNodes = new BitSet(graphModel.nodes.size());
+        final BitSet reachableEdges = new BitSet(graphModel.edges.size());
+        final BitSet reachableActions = new BitSet(graphModel.actions.size());
+        // Every node is queued at most once, so a plain array is enough.
+        final int[] queue = new int[graphModel.nodes.size()];
+        int head = 0;
+        int tail = 0;
+        Integer initialNode = nodeIndices.get(graphModel.initialNode);
+        if (initialNode != null) {
+            reachableNodes.set(initialNode);
+            queue[tail++] = initialNode;
+        }
+        while (head < tail) {
+            NodeModel nodeModel = graphModel.nodes.get(queue[head++]);
+            if (nodeModel.includedEdges != null) {
+                for (IncludeEdgeModel includeEdgeModel : nodeModel.includedEdges) {
+                    Integer edge = edgeIndices.get(includeEdgeModel.name);
+                    if (edge == null || reachableEdges.get(edge)) {
+                        continue;
+                    }
+                    reachableEdges.set(edge);
+                    int target = edgeTargets[edge];
+                    if (target >= 0 && !reachableNodes.get(target)) {
+                        reachableNodes.set(target);
+                        queue[tail++] = target;
+                    }
+                }
+            }
+            if (nodeModel.includedActions != null) {
+                for (IncludeActionModel includeActionModel : nodeModel.includedActions) {
+                    Integer action = actionIndices.get(includeActionModel.name);
+                    if (action != null) {
+                        reachableActions.set(action);
+                    }
+                }
+            }
+        }
+        return new ReachabilityAnalysis(graphModel, reachableNodes, reachableEdges, reachableActions);
+    }
+
+    /**
+     * @return Analyzed graph.
+     */
+    public GraphModel getGraphModel() {
+        return mGraphModel;
+    }
+
+    /**
+     * @return {@code true} if all nodes, edges and actions of the graph can be reached.
+     */
+    public boolean isFullyReachable() {
+        return mReachableNodes.cardinality() == mGraphModel.nodes.size()
+                && mReachableEdges.cardinality() == mGraphModel.edges.size()
+                && mReachableActions.cardinality() == mGraphModel.actions.size();
+    }
+
+    /**
+     * @return Nodes which cannot be reached from the initial node.
+     */
+    public List<NodeModel> getUnreachableNodes() {
+        return filter(mGraphModel.nodes, mReachableNodes, false);
+    }
+
+    /**
+     * @return Edges which are not included in any reachable node.
+     */
+    public List<EdgeModel> getUnreachableEdges() {
+        return filter(mGraphModel.edges, mReachableEdges, false);
+    }
+
+    /**
+     * @return Actions which are not included in any reachable node.
+     */
+    public List<ActionModel> getUnreachableActions() {
+        return filter(mGraphModel.actions, mReachableActions, false);
+    }
+
+    /**
+     * @return Copy of the graph without the unreachable elements, or the analyzed graph itself if all of them are reachable.
+     * Elements of the graph are shared with the copy.
+     */
+    public GraphModel prune() {
+        if (isFullyReachable()) {
+            return mGraphModel;
+        }
+        GraphModel ret = new GraphModel();
+        ret.name = mGraphModel.name;
+        ret.initialNode = mGraphModel.initialNode;
+        ret.nodes = filter(mGraphModel.nodes, mReachableNodes, true);
+        ret.edges = filter(mGraphModel.edges, mReachableEdges, true);
+        ret.actions = filter(mGraphModel.actions, mReachableActions, true);
+        return ret;
+    }
+
+    /**
+     * @return Human-readable description of the unreachable elements, one per line.
+     */
+    public List<String> describeUnreachable() {
+        List<String> ret = new ArrayList<>();
+        for (NodeModel nodeModel : getUnreachableNodes()) {
+            ret.add("<graph name=\"" + mGraphModel.name + "\">: <node name=\"" + nodeModel.name + "\"> cannot be reached from the initial node.");
+        }
+        for (EdgeModel edgeModel : getUnreachableEdges()) {
+            ret.add("<graph name=\"" + mGraphModel.name + "\">: <edge name=\"" + edgeModel.name + "\"> is not included in any reachable node.");
+        }
+        for (ActionModel actionModel : getUnreachableActions()) {
+            ret.add("<graph name=\"" + mGraphModel.name + "\">: <action name=\"" + actionModel.name + "\"> is not included in any reachable node.");
+        }
+        return ret;
+    }
+
+    private static Map<String, Integer> indexNames(List<? extends NamedModel> namedModels) {
+        Map<String, Integer> ret = new HashMap<>(namedModels.size() * 2);
+        for (int i = 0; i < namedModels.size(); ++i) {
+            ret.putIfAbsent(namedModels.get(i).getName(), i);
+        }
+        return ret;
+    }
+
+    private static <T> List<T> filter(List<T> items, BitSet reachable, boolean keepReachable) {
+        List<T> ret = new ArrayList<>();
+        for (int i = 0; i < items.size(); ++i) {
+            if (reachable.get(i) == keepReachable) {
+                ret.add(items.get(i));
+            }
+        }
+        return ret;
+    }
+}
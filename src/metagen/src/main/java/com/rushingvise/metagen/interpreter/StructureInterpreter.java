@@ -19,7 +19,9 @@ package com.rushingvise.metagen.interpreter;
 import com.rushingvise.metagen.generator.CodeModel;
 import com.rushingvise.metagen.parser.StructureModel;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -29,6 +31,7 @@ public abstract class StructureInterpreter {
     protected final StructureModel mStructureModel;
     protected CodeModel.MainClassModel mTypesMainClass;
     protected Map<String, CodeModel.InnerClassModel> mTypes = new HashMap<>();
+    protected CodeModel.MainClassModel mFragmentsClass;
 
     /**
      * @param structureModel Graphs specification.
@@ -48,17 +51,58 @@ public abstract class StructureInterpreter {
         return analyzeGraphs();
     }
 
-    protected void analyzeTypes() {
+    /**
+     * Creates the code model of the types declared in the graphs specification.
+     * Has to be called before any of the graphs is analyzed.
+     * @return Main class containing the declared types or {@code null} if no types are declared.
+     */
+    public CodeModel.MainClassModel analyzeTypes() {
         if (mStructureModel.types != null && mStructureModel.types.size() > 0) {
             mTypesMainClass = new CodeModel.MainClassModel("Types");
-            mTypesMainClass.template = true;
+            mTypesMainClass.template = false;
             for (StructureModel.TypeModel typeModel : mStructureModel.types) {
                 CodeModel.InnerClassModel typeClass = new CodeModel.InnerClassModel(typeModel.name, mTypesMainClass);
+                // Types composed of fragments are complete, others have to be implemented by the developer.
+                if (typeModel.fragments) {
+                    typeClass.superClass = getFragmentsClass();
+                    CodeModel.ConstructorModel constructorModel = new CodeModel.ConstructorModel(typeClass);
+                    CodeModel.ArgumentModel argumentModel = new CodeModel.ArgumentModel(new CodeModel.TypeModel(mFragmentsClass), "fragments");
+                    constructorModel.argumentModels.add(argumentModel);
+                    constructorModel.constructorBody.add(new CodeModel.SuperCallModel(mFragmentsClass,
+                            Collections.singletonList(new CodeModel.VariableModel(argumentModel.type, argumentModel.name))));
+                    typeClass.constructorModels.add(constructorModel);
+                    // Empty values are created e.g. by the generated benchmarks.
+                    typeClass.constructorModels.add(new CodeModel.ConstructorModel(typeClass));
+                    mTypesMainClass.requiredClasses.add(mFragmentsClass);
+                } else {
+                    mTypesMainClass.template = true;
+                }
 
                 mTypes.put(typeClass.name, typeClass);
             }
         }
+        return mTypesMainClass;
+    }
+
+    /**
+     * @return Rope of the text fragments shared by the generated logic and the types composed of fragments, created on the first use.
+     */
+    protected CodeModel.MainClassModel getFragmentsClass() {
+        if (mFragmentsClass == null) {
+            mFragmentsClass = new CodeModel.MainClassModel("Fragments");
+            mFragmentsClass.fragments = true;
+        }
+        return mFragmentsClass;
     }
 
     protected abstract CodeModel analyzeGraphs() throws StructureInterpreterException;
+
+    /**
+     * Analyzes a single graph, can be used for processing the graphs one by one.
+     * Types have to be analyzed first, see {@link #analyzeTypes()}.
+     * @param graphModel Graph to be analyzed.
+     * @return Main classes created for the given graph.
+     * @throws StructureInterpreterException
+     */
+    public abstract List<CodeModel.MainClassModel> analyzeGraph(StructureModel.GraphModel graphModel) throws StructureInterpreterException;
 }
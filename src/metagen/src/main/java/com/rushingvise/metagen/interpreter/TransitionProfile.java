@@ -0,0 +1,101 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.interpreter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Call counts of the builder methods, recorded by the instrumented builders (see {@link BuilderPatternInterpreter.Options#metrics}).
+ * Each line of the profile file has the form {@code <metrics class>.<metric>=<count>}, exactly as written
+ * by {@code getProfile()} of the generated metrics classes. Empty lines and lines starting with {@code #} are ignored,
+ * counts of repeated entries are summed, so profiles of multiple runs can be simply concatenated.
+ */
+public class TransitionProfile {
+    private final Map<String, Long> mCounts = new HashMap<>();
+    private final Set<String> mClasses = new HashSet<>();
+
+    /**
+     * @param file Profile file.
+     * @return Loaded profile.
+     * @throws IOException
+     */
+    public static TransitionProfile load(File file) throws IOException {
+        TransitionProfile ret = new TransitionProfile();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                ++lineNumber;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int separator = line.lastIndexOf('=');
+                int classSeparator = separator > 0 ? line.lastIndexOf('.', separator) : -1;
+                if (classSeparator <= 0) {
+                    throw new IOException("Invalid profile entry in line " + lineNumber + ": " + line);
+                }
+                long count;
+                try {
+                    count = Long.parseLong(line.substring(separator + 1).trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid count in line " + lineNumber + ": " + line);
+                }
+                ret.add(line.substring(0, classSeparator), line.substring(classSeparator + 1, separator).trim(), count);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Adds calls of the given metric to the profile.
+     * @param metricsClass Name of the metrics class.
+     * @param metric Name of the metric.
+     * @param count Number of calls.
+     */
+    public void add(String metricsClass, String metric, long count) {
+        mCounts.merge(metricsClass + '.' + metric, count, Long::sum);
+        mClasses.add(metricsClass);
+    }
+
+    /**
+     * @param metricsClass Name of the metrics class.
+     * @return {@code true} if the profile contains any metric of the given class.
+     */
+    public boolean contains(String metricsClass) {
+        return mClasses.contains(metricsClass);
+    }
+
+    /**
+     * @param metricsClass Name of the metrics class.
+     * @param metric Name of the metric.
+     * @return Number of recorded calls, {@code 0} if the metric is not present in the profile.
+     */
+    public long getCount(String metricsClass, String metric) {
+        Long ret = mCounts.get(metricsClass + '.' + metric);
+        return ret != null ? ret : 0;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event emitted around rendering of a single code unit, see {@link com.rushingvise.metagen.generator.CodeGenerator#generate(com.rushingvise.metagen.generator.CodeModel.MainClassModel)}.
+ */
+@Name("com.rushingvise.metagen.GenerateUnit")
+@Label("Generate Unit")
+@Category("Metagen")
+@StackTrace(false)
+public class GenerateUnitEvent extends Event {
+    @Label("Unit")
+    @Description("Name of the generated main class")
+    public String unitName;
+
+    @Label("Language")
+    @Description("Target language of the generator")
+    public String language;
+
+    @Label("Output Size")
+    @Description("Number of rendered bytes, in all files of the unit")
+    @DataAmount
+    public long outputSize;
+}
@@ -0,0 +1,40 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event emitted around parsing of the graphs specification, see {@link com.rushingvise.metagen.parser.StructureParser}.
+ */
+@Name("com.rushingvise.metagen.Parse")
+@Label("Parse Specification")
+@Category("Metagen")
+@StackTrace(false)
+public class ParseEvent extends Event {
+    @Label("Specification")
+    @Description("Path to the specification file")
+    public String specification;
+
+    @Label("Types")
+    @Description("Number of declared types")
+    public int typeCount;
+
+    @Label("Graphs")
+    @Description("Number of parsed graphs")
+    public int graphCount;
+}
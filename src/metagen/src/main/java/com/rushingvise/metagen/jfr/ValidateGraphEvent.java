@@ -0,0 +1,40 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event emitted around validation of a single graph, see {@link com.rushingvise.metagen.parser.StructureValidator}.
+ */
+@Name("com.rushingvise.metagen.ValidateGraph")
+@Label("Validate Graph")
+@Category("Metagen")
+@StackTrace(false)
+public class ValidateGraphEvent extends Event {
+    @Label("Graph")
+    @Description("Name of the validated graph")
+    public String graphName;
+
+    @Label("Nodes")
+    @Description("Number of nodes in the graph")
+    public int nodeCount;
+
+    @Label("Edges")
+    @Description("Number of edges in the graph")
+    public int edgeCount;
+}
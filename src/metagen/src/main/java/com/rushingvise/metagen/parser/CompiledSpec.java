@@ -0,0 +1,511 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.parser;
+
+import com.rushingvise.metagen.parser.StructureModel.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Compact binary form of a validated {@link StructureModel}, written by {@code metagen compile}.
+ * All names are stored once in a string table and referenced by their ids, edge targets and node inclusions are
+ * stored as indices of the edges, actions and nodes of the graph.
+ * The loaded file is memory-mapped and the graphs are decoded only when they are accessed for the first time.
+ *
+ * Layout (big-endian integers, {@code -1} count stands for a missing list, {@code -1} id for a missing string):
+ * <pre>
+ * magic, version
+ * string count, string offsets [count + 1], UTF-8 bytes of all strings, padded to 4 bytes
+ * type count, types (name id, flags)
+ * graph count, graph offsets (relative to the end of this list), graphs
+ * graph: name id, initial node index, edges, actions, nodes
+ * edge: name id, target node index, signatures
+ * action: name id, signatures
+ * node: name id, included edge indices, included action indices
+ * signature: name id, return type id, arguments (name id, type id, flags), fragments (text id, argument id, separator id)
+ * </pre>
+ */
+public class CompiledSpec {
+    private static final int MAGIC = 0x4D475343; // "MGSC"
+    private static final int VERSION = 3;
+    private static final int FLAG_VARIADIC = 1;
+    private static final int FLAG_ARRAY = 2;
+    private static final int FLAG_FRAGMENTS = 1;
+
+    /**
+     * @param file Checked file.
+     * @return {@code true} if the file starts with the header of the compiled specification.
+     * @throws IOException
+     */
+    public static boolean isCompiled(File file) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file))) {
+            return file.length() >= 4 && inputStream.readInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Writes the specification in the compiled form, it should be validated beforehand.
+     * @param structureModel Specification to be written.
+     * @param file Output file.
+     * @throws IOException
+     */
+    public static void write(StructureModel structureModel, File file) throws IOException {
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file))) {
+            outputStream.write(new Writer().write(structureModel));
+        }
+    }
+
+    /**
+     * Maps the compiled specification into memory.
+     * Types are decoded immediately, graphs on their first access; the mapping stays valid after the file is closed.
+     * Counts and offsets of the graphs are checked against the size of the file here, a graph which turns out to be
+     * corrupted once it is decoded is reported with {@link UncheckedIOException} thrown by the accessed list.
+     * The structure is not validated, names and references decoded from a damaged file may still be missing or dangling.
+     * @param file Compiled specification.
+     * @return Specification model backed by the mapped file.
+     * @throws IOException
+     */
+    public static StructureModel load(File file) throws IOException {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return new Reader(file, buffer).read();
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Compiled specification " + file + " is corrupted.", e);
+        }
+    }
+
+    private static class Writer {
+        private final Map<String, Integer> mStrings = new LinkedHashMap<>();
+        private final ByteArrayOutputStream mGraphBytes = new ByteArrayOutputStream();
+        private final DataOutputStream mGraphs = new DataOutputStream(mGraphBytes);
+
+        byte[] write(StructureModel structureModel) throws IOException {
+            final int[] typeIds = new int[structureModel.types != null ? structureModel.types.size() : 0];
+            for (int i = 0; i < typeIds.length; ++i) {
+                typeIds[i] = id(structureModel.types.get(i).name);
+            }
+            final int[] graphOffsets = new int[structureModel.graphs != null ? structureModel.graphs.size() : 0];
+            for (int i = 0; i < graphOffsets.length; ++i) {
+                graphOffsets[i] = mGraphs.size();
+                writeGraph(structureModel.graphs.get(i));
+            }
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mStrings.size());
+            final List<byte[]> encodedStrings = new ArrayList<>(mStrings.size());
+            int offset = 0;
+            out.writeInt(offset);
+            for (String string : mStrings.keySet()) {
+                byte[] encoded = string.getBytes(StandardCharsets.UTF_8);
+                encodedStrings.add(encoded);
+                offset += encoded.length;
+                out.writeInt(offset);
+            }
+            for (byte[] encoded : encodedStrings) {
+                out.write(encoded);
+            }
+            for (; offset % 4 != 0; ++offset) {
+                out.writeByte(0);
+            }
+            out.writeInt(structureModel.types != null ? typeIds.length : -1);
+            for (int i = 0; i < typeIds.length; ++i) {
+                out.writeInt(typeIds[i]);
+                out.writeInt(structureModel.types.get(i).fragments ? FLAG_FRAGMENTS : 0);
+            }
+            out.writeInt(structureModel.graphs != null ? graphOffsets.length : -1);
+            for (int graphOffset : graphOffsets) {
+                out.writeInt(graphOffset);
+            }
+            mGraphBytes.writeTo(out);
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        private void writeGraph(GraphModel graphModel) throws IOException {
+            final Map<String, Integer> nodeIndices = indexNames(graphModel.nodes);
+            final Map<String, Integer> edgeIndices = indexNames(graphModel.edges);
+            final Map<String, Integer> actionIndices = indexNames(graphModel.actions);
+            mGraphs.writeInt(id(graphModel.name));
+            mGraphs.writeInt(index(nodeIndices, graphModel.initialNode));
+            writeCount(graphModel.edges);
+            if (graphModel.edges != null) {
+                for (EdgeModel edgeModel : graphModel.edges) {
+                    mGraphs.writeInt(id(edgeModel.name));
+                    mGraphs.writeInt(index(nodeIndices, edgeModel.target));
+                    writeSignatures(edgeModel.signatures);
+                }
+            }
+            writeCount(graphModel.actions);
+            if (graphModel.actions != null) {
+                for (ActionModel actionModel : graphModel.actions) {
+                    mGraphs.writeInt(id(actionModel.name));
+                    writeSignatures(actionModel.signatures);
+                }
+            }
+            writeCount(graphModel.nodes);
+            if (graphModel.nodes != null) {
+                for (NodeModel nodeModel : graphModel.nodes) {
+                    mGraphs.writeInt(id(nodeModel.name));
+                    writeCount(nodeModel.includedEdges);
+                    if (nodeModel.includedEdges != null) {
+                        for (IncludeEdgeModel includeEdgeModel : nodeModel.includedEdges) {
+                            mGraphs.writeInt(index(edgeIndices, includeEdgeModel.name));
+                        }
+                    }
+                    writeCount(nodeModel.includedActions);
+                    if (nodeModel.includedActions != null) {
+                        for (IncludeActionModel includeActionModel : nodeModel.includedActions) {
+                            mGraphs.writeInt(index(actionIndices, includeActionModel.name));
+                        }
+                    }
+                }
+            }
+        }
+
+        private void writeSignatures(List<SignatureModel> signatures) throws IOException {
+            writeCount(signatures);
+            if (signatures != null) {
+                for (SignatureModel signatureModel : signatures) {
+                    mGraphs.writeInt(id(signatureModel.name));
+                    mGraphs.writeInt(id(signatureModel.returnType));
+                    writeCount(signatureModel.arguments);
+                    if (signatureModel.arguments != null) {
+                        for (ArgumentModel argumentModel : signatureModel.arguments) {
+                            mGraphs.writeInt(id(argumentModel.name));
+                            mGraphs.writeInt(id(argumentModel.type));
+                            mGraphs.writeInt((argumentModel.vararg ? FLAG_VARIADIC : 0) | (argumentModel.array ? FLAG_ARRAY : 0));
+                        }
+                    }
+                    writeCount(signatureModel.fragments);
+                    if (signatureModel.fragments != null) {
+                        for (FragmentModel fragmentModel : signatureModel.fragments) {
+                            mGraphs.writeInt(id(fragmentModel.text));
+                            mGraphs.writeInt(id(fragmentModel.argument));
+                            mGraphs.writeInt(id(fragmentModel.separator));
+                        }
+                    }
+                }
+            }
+        }
+
+        private void writeCount(List<?> list) throws IOException {
+            mGraphs.writeInt(list != null ? list.size() : -1);
+        }
+
+        private int id(String string) {
+            if (string == null) {
+                return -1;
+            }
+            return mStrings.computeIfAbsent(string, key -> mStrings.size());
+        }
+
+        private static int index(Map<String, Integer> indices, String name) throws IOException {
+            Integer ret = indices.get(name);
+            if (ret == null) {
+                throw new IOException("\"" + name + "\" cannot be resolved, the specification should be validated before compiling.");
+            }
+            return ret;
+        }
+
+        private static Map<String, Integer> indexNames(List<? extends NamedModel> namedModels) {
+            Map<String, Integer> ret = new HashMap<>();
+            if (namedModels != null) {
+                for (int i = 0; i < namedModels.size(); ++i) {
+                    ret.putIfAbsent(namedModels.get(i).getName(), i);
+                }
+            }
+            return ret;
+        }
+    }
+
+    private static class Reader {
+        // Minimal sizes of the encoded elements, used for rejecting counts which cannot fit into the file.
+        private static final int TYPE_SIZE = 8;
+        private static final int GRAPH_SIZE = 20;
+        private static final int EDGE_SIZE = 12;
+        private static final int ACTION_SIZE = 8;
+        private static final int NODE_SIZE = 12;
+        private static final int INDEX_SIZE = 4;
+        private static final int SIGNATURE_SIZE = 16;
+        private static final int ARGUMENT_SIZE = 12;
+        private static final int FRAGMENT_SIZE = 12;
+
+        private final File mFile;
+        private final ByteBuffer mBuffer;
+        private final int mStringOffsets;
+        private final int mStringData;
+        private final String[] mStrings;
+        private int mPosition;
+
+        Reader(File file, ByteBuffer buffer) throws IOException {
+            mFile = file;
+            mBuffer = buffer;
+            if (buffer.limit() < 12 || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a compiled specification.");
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported version " + buffer.getInt(4) + " of the compiled specification, expected " + VERSION + ".");
+            }
+            mStringOffsets = 12;
+            mPosition = 8;
+            final int stringCount = readCount(INDEX_SIZE, 1);
+            if (stringCount < 0) {
+                throw corrupted("invalid number of strings " + stringCount);
+            }
+            mStrings = new String[stringCount];
+            mStringData = mStringOffsets + 4 * (mStrings.length + 1);
+            int stringDataLength = buffer.getInt(mStringData - 4);
+            if (stringDataLength < 0 || stringDataLength > buffer.limit() - mStringData) {
+                throw corrupted("strings exceed the end of the file");
+            }
+            mPosition = mStringData + (stringDataLength + 3) / 4 * 4;
+        }
+
+        StructureModel read() throws IOException {
+            final StructureModel ret = new StructureModel();
+            final int typeCount = readCount(TYPE_SIZE, 0);
+            ret.types = new ArrayList<>(typeCount);
+            for (int i = 0; i < typeCount; ++i) {
+                TypeModel typeModel = new TypeModel();
+                typeModel.name = readString();
+                typeModel.fragments = (readInt() & FLAG_FRAGMENTS) != 0;
+                ret.types.add(typeModel);
+            }
+            final int graphCount = readCount(INDEX_SIZE, 0);
+            final int graphOffsets = mPosition;
+            final int graphs = graphOffsets + 4 * graphCount;
+            for (int i = 0; i < graphCount; ++i) {
+                final int graphOffset = readInt();
+                if (graphOffset < 0 || graphOffset > mBuffer.limit() - graphs - GRAPH_SIZE) {
+                    throw corrupted("graph " + i + " exceeds the end of the file");
+                }
+            }
+            ret.graphs = new LazyGraphList(this, graphOffsets, graphCount);
+            return ret;
+        }
+
+        GraphModel readGraph(int position) throws IOException {
+            mPosition = position;
+            final GraphModel ret = new GraphModel();
+            ret.name = readString();
+            final int initialNode = readInt();
+            final int edgeCount = readCount(EDGE_SIZE, 0);
+            final int[] edgeTargets = new int[edgeCount];
+            ret.edges = new ArrayList<>(edgeCount);
+            for (int i = 0; i < edgeCount; ++i) {
+                EdgeModel edgeModel = new EdgeModel();
+                edgeModel.name = readString();
+                edgeTargets[i] = readInt();
+                edgeModel.signatures = readSignatures();
+                ret.edges.add(edgeModel);
+            }
+            final int actionCount = readCount(ACTION_SIZE, 0);
+            ret.actions = new ArrayList<>(actionCount);
+            for (int i = 0; i < actionCount; ++i) {
+                ActionModel actionModel = new ActionModel();
+                actionModel.name = readString();
+                actionModel.signatures = readSignatures();
+                ret.actions.add(actionModel);
+            }
+            final int nodeCount = readCount(NODE_SIZE, 0);
+            ret.nodes = new ArrayList<>(nodeCount);
+            for (int i = 0; i < nodeCount; ++i) {
+                NodeModel nodeModel = new NodeModel();
+                nodeModel.name = readString();
+                final int includedEdgeCount = readOptionalCount(INDEX_SIZE, 0);
+                if (includedEdgeCount >= 0) {
+                    nodeModel.includedEdges = new ArrayList<>(includedEdgeCount);
+                    for (int j = 0; j < includedEdgeCount; ++j) {
+                        IncludeEdgeModel includeEdgeModel = new IncludeEdgeModel();
+                        includeEdgeModel.name = element(ret.edges, readInt()).name;
+                        nodeModel.includedEdges.add(includeEdgeModel);
+                    }
+                }
+                final int includedActionCount = readOptionalCount(INDEX_SIZE, 0);
+                if (includedActionCount >= 0) {
+                    nodeModel.includedActions = new ArrayList<>(includedActionCount);
+                    for (int j = 0; j < includedActionCount; ++j) {
+                        IncludeActionModel includeActionModel = new IncludeActionModel();
+                        includeActionModel.name = element(ret.actions, readInt()).name;
+                        nodeModel.includedActions.add(includeActionModel);
+                    }
+                }
+                ret.nodes.add(nodeModel);
+            }
+            ret.initialNode = element(ret.nodes, initialNode).name;
+            for (int i = 0; i < edgeTargets.length; ++i) {
+                ret.edges.get(i).target = element(ret.nodes, edgeTargets[i]).name;
+            }
+            return ret;
+        }
+
+        private List<SignatureModel> readSignatures() throws IOException {
+            final int signatureCount = readCount(SIGNATURE_SIZE, 0);
+            final List<SignatureModel> ret = new ArrayList<>(signatureCount);
+            for (int i = 0; i < signatureCount; ++i) {
+                SignatureModel signatureModel = new SignatureModel();
+                signatureModel.name = readString();
+                signatureModel.returnType = readString();
+                final int argumentCount = readOptionalCount(ARGUMENT_SIZE, 0);
+                if (argumentCount >= 0) {
+                    signatureModel.arguments = new ArrayList<>(argumentCount);
+                    for (int j = 0; j < argumentCount; ++j) {
+                        ArgumentModel argumentModel = new ArgumentModel();
+                        argumentModel.name = readString();
+                        argumentModel.type = readString();
+                        final int flags = readInt();
+                        argumentModel.vararg = (flags & FLAG_VARIADIC) != 0;
+                        argumentModel.array = (flags & FLAG_ARRAY) != 0;
+                        signatureModel.arguments.add(argumentModel);
+                    }
+                }
+                final int fragmentCount = readOptionalCount(FRAGMENT_SIZE, 0);
+                if (fragmentCount >= 0) {
+                    signatureModel.fragments = new ArrayList<>(fragmentCount);
+                    for (int j = 0; j < fragmentCount; ++j) {
+                        FragmentModel fragmentModel = new FragmentModel();
+                        fragmentModel.text = readString();
+                        fragmentModel.argument = readString();
+                        fragmentModel.separator = readString();
+                        signatureModel.fragments.add(fragmentModel);
+                    }
+                }
+                ret.add(signatureModel);
+            }
+            return ret;
+        }
+
+        private int readInt() throws IOException {
+            if (mPosition > mBuffer.limit() - 4) {
+                throw corrupted("unexpected end of the file");
+            }
+            int ret = mBuffer.getInt(mPosition);
+            mPosition += 4;
+            return ret;
+        }
+
+        /**
+         * Reads the number of the elements of a list which is required in a valid specification.
+         * @param elementSize Minimal size of a single element.
+         * @param extraElements Number of the elements following the counted ones.
+         */
+        private int readCount(int elementSize, int extraElements) throws IOException {
+            final int ret = readOptionalCount(elementSize, extraElements);
+            if (ret < 0) {
+                throw corrupted("missing list at offset " + (mPosition - 4));
+            }
+            return ret;
+        }
+
+        /**
+         * Reads the number of the elements which follow, {@code -1} stands for a missing list.
+         * @param elementSize Minimal size of a single element.
+         * @param extraElements Number of the elements following the counted ones.
+         */
+        private int readOptionalCount(int elementSize, int extraElements) throws IOException {
+            final int ret = readInt();
+            if (ret < -1 || (long) ret + extraElements > (mBuffer.limit() - mPosition) / elementSize) {
+                throw corrupted("invalid count " + ret + " at offset " + (mPosition - 4));
+            }
+            return ret;
+        }
+
+        private <T> T element(List<T> list, int index) throws IOException {
+            if (list == null || index < 0 || index >= list.size()) {
+                throw corrupted("invalid index " + index + " at offset " + (mPosition - 4));
+            }
+            return list.get(index);
+        }
+
+        private String readString() throws IOException {
+            final int id = readInt();
+            if (id < 0) {
+                return null;
+            }
+            if (id >= mStrings.length) {
+                throw corrupted("invalid string id " + id + " at offset " + (mPosition - 4));
+            }
+            String ret = mStrings[id];
+            if (ret == null) {
+                final int start = mBuffer.getInt(mStringOffsets + 4 * id);
+                final int end = mBuffer.getInt(mStringOffsets + 4 * (id + 1));
+                if (start < 0 || end < start || end > mBuffer.limit() - mStringData) {
+                    throw corrupted("invalid bounds of string " + id);
+                }
+                final byte[] bytes = new byte[end - start];
+                final ByteBuffer string = mBuffer.duplicate();
+                string.position(mStringData + start);
+                string.get(bytes);
+                ret = new String(bytes, StandardCharsets.UTF_8);
+                mStrings[id] = ret;
+            }
+            return ret;
+        }
+
+        private IOException corrupted(String reason) {
+            return new IOException("Compiled specification " + mFile + " is corrupted: " + reason + ".");
+        }
+    }
+
+    /**
+     * Graphs of the compiled specification, each of them is decoded on its first access.
+     */
+    private static class LazyGraphList extends AbstractList<GraphModel> implements RandomAccess {
+        private final Reader mReader;
+        private final int mGraphOffsets;
+        private final GraphModel[] mGraphs;
+
+        LazyGraphList(Reader reader, int graphOffsets, int graphCount) {
+            mReader = reader;
+            mGraphOffsets = graphOffsets;
+            mGraphs = new GraphModel[graphCount];
+        }
+
+        /**
+         * @throws UncheckedIOException If the graph is corrupted.
+         */
+        @Override
+        public synchronized GraphModel get(int index) {
+            if (mGraphs[index] == null) {
+                final int graphs = mGraphOffsets + 4 * mGraphs.length;
+                try {
+                    mGraphs[index] = mReader.readGraph(graphs + mReader.mBuffer.getInt(mGraphOffsets + 4 * index));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return mGraphs[index];
+        }
+
+        @Override
+        public int size() {
+            return mGraphs.length;
+        }
+    }
+}
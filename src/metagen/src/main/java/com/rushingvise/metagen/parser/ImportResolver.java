@@ -0,0 +1,307 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.parser;
+
+import com.rushingvise.metagen.parser.StructureModel.GraphModel;
+import com.rushingvise.metagen.parser.StructureModel.ImportModel;
+import com.rushingvise.metagen.parser.StructureModel.TypeModel;
+import com.rushingvise.metagen.stats.PipelineStats;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the files imported by a specification, see {@link StructureModel.ImportModel}.
+ * Imports form a directed acyclic graph, which is loaded level by level: all files of a level are parsed concurrently,
+ * each file only once, no matter how many times it is imported.
+ * Types and graphs of the imported files are ordered so that each file comes after all the files it imports.
+ */
+class ImportResolver {
+    private JAXBContext mContext;
+    private final PipelineStats mStats;
+    private final Map<File, StructureModel> mLoadedFiles = new HashMap<>();
+    private final Map<File, List<File>> mImports = new HashMap<>();
+
+    /**
+     * @param context JAXB context of the {@link StructureModel}, created only when needed if {@code null}.
+     * @param stats Collector of the parsing metrics.
+     */
+    ImportResolver(JAXBContext context, PipelineStats stats) {
+        mContext = context;
+        mStats = stats;
+    }
+
+    /**
+     * Loads all files imported by the specification, directly or indirectly.
+     * @param file Specification file.
+     * @param imports Imports declared in the specification file.
+     * @return Models of the imported files, each file comes after the files it imports.
+     * @throws StructureParserException
+     */
+    List<StructureModel> resolve(File file, List<ImportModel> imports) throws StructureParserException {
+        final File rootFile = canonical(file);
+        mImports.put(rootFile, resolvePaths(rootFile, imports));
+        List<File> pending = new ArrayList<>(new LinkedHashSet<>(mImports.get(rootFile)));
+        if (pending.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "metagen-import-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            while (!pending.isEmpty()) {
+                final List<Future<StructureModel>> futures = new ArrayList<>(pending.size());
+                for (File pendingFile : pending) {
+                    futures.add(executor.submit(() -> unmarshal(pendingFile)));
+                }
+                final Set<File> next = new LinkedHashSet<>();
+                for (int i = 0; i < pending.size(); ++i) {
+                    final File loadedFile = pending.get(i);
+                    final StructureModel structureModel = getResult(futures.get(i), loadedFile);
+                    validateImportsOrder(loadedFile, structureModel.imports);
+                    mLoadedFiles.put(loadedFile, structureModel);
+                    mImports.put(loadedFile, resolvePaths(loadedFile, structureModel.imports));
+                    next.addAll(mImports.get(loadedFile));
+                }
+                next.removeAll(mLoadedFiles.keySet());
+                next.remove(rootFile);
+                pending = new ArrayList<>(next);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StructureParserException("Loading of the imported files was interrupted.");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final List<StructureModel> ret = new ArrayList<>();
+        order(rootFile, new LinkedHashSet<>(), new HashSet<>(), ret);
+        return ret;
+    }
+
+    /**
+     * Merges the types and graphs of the imported files into the specification, the imported ones come first.
+     * @param structureModel Specification to which the imported files should be added.
+     * @param importedModels Models of the imported files, see {@link #resolve(File, List)}.
+     */
+    static void merge(StructureModel structureModel, List<StructureModel> importedModels) {
+        structureModel.imports = null;
+        if (importedModels.isEmpty()) {
+            return;
+        }
+        final List<TypeModel> types = new ArrayList<>();
+        final List<GraphModel> graphs = new ArrayList<>();
+        for (StructureModel importedModel : importedModels) {
+            addAll(types, importedModel.types);
+            addAll(graphs, importedModel.graphs);
+        }
+        addAll(types, structureModel.types);
+        addAll(graphs, structureModel.graphs);
+        structureModel.types = types;
+        structureModel.graphs = graphs;
+    }
+
+    /**
+     * Lists the files imported by the specification, directly or indirectly, without parsing them as a whole.
+     * Only the leading {@code <import>} elements of each file are read.
+     * @param file Specification file.
+     * @return Imported files, in no particular order.
+     * @throws StructureParserException
+     */
+    static Set<File> findImportedFiles(File file) throws StructureParserException {
+        final Set<File> ret = new LinkedHashSet<>();
+        final Deque<File> pending = new ArrayDeque<>();
+        pending.add(canonical(file));
+        while (!pending.isEmpty()) {
+            final File pendingFile = pending.poll();
+            for (File importedFile : readImports(pendingFile)) {
+                if (ret.add(importedFile)) {
+                    pending.add(importedFile);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Checks that all imports of the file are declared before its types and graphs, which allows listing the imported files
+     * without parsing the whole specification, see {@link #findImportedFiles(File)}.
+     */
+    static void validateImportsOrder(File file, List<ImportModel> imports) throws StructureParserException {
+        if (imports != null && readImports(file).size() != imports.size()) {
+            throw new StructureParserException("<import> elements have to be declared before <types> and <graph> elements.");
+        }
+    }
+
+    private void order(File file, Set<File> visiting, Set<File> visited, List<StructureModel> ret) throws StructureParserException {
+        if (visited.contains(file)) {
+            return;
+        }
+        if (!visiting.add(file)) {
+            StringJoiner cycle = new StringJoiner(" -> ", "Import cycle: ", " -> " + file.getPath() + ".");
+            boolean inCycle = false;
+            for (File visitingFile : visiting) {
+                inCycle |= visitingFile.equals(file);
+                if (inCycle) {
+                    cycle.add(visitingFile.getPath());
+                }
+            }
+            throw new StructureParserException(cycle.toString());
+        }
+        for (File importedFile : mImports.get(file)) {
+            order(importedFile, visiting, visited, ret);
+        }
+        visiting.remove(file);
+        visited.add(file);
+        final StructureModel structureModel = mLoadedFiles.get(file);
+        if (structureModel != null) {
+            ret.add(structureModel);
+        }
+    }
+
+    private StructureModel unmarshal(File file) throws JAXBException, StructureParserException {
+        if (TextSpecParser.isText(file)) {
+            final PipelineStats.Timer timer = mStats.start(PipelineStats.STAGE_UNMARSHAL);
+            try {
+                return TextSpecParser.parse(file);
+            } finally {
+                timer.stop();
+            }
+        }
+        final JAXBContext context = getContext();
+        final PipelineStats.Timer timer = mStats.start(PipelineStats.STAGE_UNMARSHAL);
+        try {
+            return (StructureModel) context.createUnmarshaller().unmarshal(file);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private synchronized JAXBContext getContext() throws JAXBException {
+        if (mContext == null) {
+            final PipelineStats.Timer timer = mStats.start(PipelineStats.STAGE_JAXB_BOOTSTRAP);
+            try {
+                mContext = JAXBContext.newInstance(StructureModel.class);
+            } finally {
+                timer.stop();
+            }
+        }
+        return mContext;
+    }
+
+    private static StructureModel getResult(Future<StructureModel> future, File file) throws InterruptedException, StructureParserException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof StructureParserException) {
+                throw (StructureParserException) e.getCause();
+            }
+            throw new StructureParserException("Imported file " + file.getPath() + " cannot be parsed: " + e.getCause());
+        }
+    }
+
+    private static List<File> resolvePaths(File file, List<ImportModel> imports) throws StructureParserException {
+        final List<File> ret = new ArrayList<>();
+        if (imports != null) {
+            for (ImportModel importModel : imports) {
+                ret.add(resolvePath(file, importModel.file));
+            }
+        }
+        return ret;
+    }
+
+    private static File resolvePath(File file, String path) throws StructureParserException {
+        if (path == null || path.trim().isEmpty()) {
+            throw new StructureParserException("<import> \"file\" attribute is required.");
+        }
+        File importedFile = new File(path);
+        if (!importedFile.isAbsolute()) {
+            importedFile = new File(file.getParentFile(), path);
+        }
+        if (!importedFile.isFile()) {
+            throw new StructureParserException("<import> \"file\" attribute points non-existing file \"" + path + "\".");
+        }
+        return canonical(importedFile);
+    }
+
+    private static File canonical(File file) throws StructureParserException {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            throw new StructureParserException(e);
+        }
+    }
+
+    /**
+     * @param file Specification file.
+     * @return Files imported directly by the specification, only the leading {@code <import>} elements are read.
+     * @throws StructureParserException
+     */
+    static List<File> readImports(File file) throws StructureParserException {
+        file = canonical(file);
+        final List<File> ret = new ArrayList<>();
+        if (TextSpecParser.isText(file)) {
+            for (ImportModel importModel : TextSpecParser.parseImports(file)) {
+                ret.add(resolvePath(file, importModel.file));
+            }
+            return ret;
+        }
+        try (InputStream inputStream = new FileInputStream(file)) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(inputStream);
+            int depth = 0;
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (++depth == 2) {
+                        if (!"import".equals(reader.getLocalName())) {
+                            // Imports are declared before anything else.
+                            break;
+                        }
+                        ret.add(resolvePath(file, reader.getAttributeValue(null, "file")));
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    --depth;
+                }
+            }
+            reader.close();
+        } catch (XMLStreamException | IOException e) {
+            throw new StructureParserException(e);
+        }
+        return ret;
+    }
+
+    private static <T> void addAll(List<T> target, List<T> source) {
+        if (source != null) {
+            target.addAll(source);
+        }
+    }
+}
@@ -31,6 +31,14 @@ public class StructureModel {
     @XmlElement(name = "type")
     public List<TypeModel> types;
 
+    /**
+     * Specification files whose types and graphs are shared with this one, see {@link ImportModel}.
+     */
+    @XmlElements(
+            @XmlElement(name = "import", type = ImportModel.class)
+    )
+    public List<ImportModel> imports;
+
     public interface NamedModel {
         String getName();
     }
@@ -61,11 +69,28 @@ public class StructureModel {
         }
     }
 
+    /**
+     * Import of another specification file, its path is relative to the importing file.
+     * Imports have to be declared before the types and graphs of the file.
+     */
+    @XmlRootElement(name = "import")
+    public static class ImportModel {
+        @XmlAttribute(name = "file", required = true)
+        public String file;
+    }
+
     @XmlRootElement(name = "type")
     public static class TypeModel implements NamedModel {
         @XmlAttribute(name = "name", required = true)
         public String name;
 
+        /**
+         * Values of the type are composed of the fragments emitted by the graphs, see {@link FragmentModel}.
+         * Such values are appended to other fragments without copying their text.
+         */
+        @XmlAttribute(name = "fragments")
+        public boolean fragments;
+
         @Override
         public String getName() {
             return name;
@@ -164,6 +189,14 @@ public class StructureModel {
         @XmlAttribute(name = "return")
         public String returnType;
 
+        /**
+         * Text emitted by the call, see {@link FragmentModel}.
+         */
+        @XmlElements(
+                @XmlElement(name = "emit", type = FragmentModel.class)
+        )
+        public List<FragmentModel> fragments;
+
         @Override
         public String getName() {
             return name;
@@ -190,6 +223,23 @@ public class StructureModel {
         }
     }
 
+    /**
+     * Fragment of the text emitted by a signature: either a constant {@code text} or the value of the argument {@code arg}.
+     * Items of the array and variadic arguments are joined with the optional {@code separator}.
+     * Graphs which declare fragments get their logic generated, the actions materialize the text emitted by the whole chain.
+     */
+    @XmlRootElement(name = "emit")
+    public static class FragmentModel {
+        @XmlAttribute(name = "text")
+        public String text;
+
+        @XmlAttribute(name = "arg")
+        public String argument;
+
+        @XmlAttribute(name = "separator")
+        public String separator;
+    }
+
     public static abstract class Utils {
         public static <T extends NamedModel> T findNamedItem(List<T> items, String name) {
             for (T model : items) {
@@ -199,5 +249,33 @@ public class StructureModel {
             }
             return null;
         }
+
+        /**
+         * @return {@code true} if any of the signatures of the graph declares fragments, see {@link FragmentModel}.
+         */
+        public static boolean hasFragments(GraphModel graphModel) {
+            for (EdgeModel edgeModel : graphModel.edges) {
+                if (hasFragments(edgeModel.signatures)) {
+                    return true;
+                }
+            }
+            for (ActionModel actionModel : graphModel.actions) {
+                if (hasFragments(actionModel.signatures)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean hasFragments(List<SignatureModel> signatures) {
+            if (signatures != null) {
+                for (SignatureModel signatureModel : signatures) {
+                    if (signatureModel.fragments != null && !signatureModel.fragments.isEmpty()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
     }
 }
@@ -16,16 +16,37 @@ limitations under the License.
 
 package com.rushingvise.metagen.parser;
 
+import com.rushingvise.metagen.jfr.ParseEvent;
+import com.rushingvise.metagen.parser.StructureModel.GraphModel;
+import com.rushingvise.metagen.parser.StructureModel.ImportModel;
+import com.rushingvise.metagen.parser.StructureModel.TypeModel;
+import com.rushingvise.metagen.stats.PipelineStats;
+
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * XML-based graphs specification parser.
+ * Specifications compiled by {@code metagen compile} are recognized and loaded directly, see {@link CompiledSpec},
+ * the text specifications are parsed by {@link TextSpecParser}.
  */
 public class StructureParser {
     private final String mFilePath;
+    private PipelineStats mStats = PipelineStats.disabled();
 
     /**
      * @param filePath Path to the specification file.
@@ -34,6 +55,13 @@ public class StructureParser {
         mFilePath = filePath;
     }
 
+    /**
+     * @param stats Collector of the parsing metrics.
+     */
+    public void setStats(PipelineStats stats) {
+        mStats = stats;
+    }
+
     /**
      * Parser the provided specification file.
      * @return StructureModel instance.
@@ -42,17 +70,264 @@ public class StructureParser {
     public StructureModel parse() throws StructureParserException {
         File inputFile = new File(mFilePath);
         StructureModel structureModel;
+        ParseEvent event = new ParseEvent();
+        event.begin();
 
-        try {
-            JAXBContext jaxbContext = JAXBContext.newInstance(StructureModel.class);
+        if (isCompiled(inputFile)) {
+            structureModel = load(inputFile);
+            // Compiled specifications are validated before they are written, but the file may have been damaged since.
+            final PipelineStats.Timer timer = mStats.start(PipelineStats.STAGE_VALIDATE);
+            try {
+                new StructureValidator(structureModel).validate();
+            } catch (UncheckedIOException e) {
+                // Graphs of the compiled specifications are decoded while they are validated.
+                throw new StructureParserException(e.getCause().getMessage());
+            } finally {
+                timer.stop();
+            }
+        } else {
+            try {
+                JAXBContext jaxbContext = null;
+                if (TextSpecParser.isText(inputFile)) {
+                    final PipelineStats.Timer timer = mStats.start(PipelineStats.STAGE_UNMARSHAL);
+                    try {
+                        structureModel = TextSpecParser.parse(inputFile);
+                    } finally {
+                        timer.stop();
+                    }
+                } else {
+                    jaxbContext = createContext();
+                    final PipelineStats.Timer timer = mStats.start(PipelineStats.STAGE_UNMARSHAL);
+                    try {
+                        Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
+                        structureModel = (StructureModel) jaxbUnmarshaller.unmarshal(inputFile);
+                    } finally {
+                        timer.stop();
+                    }
+                }
+                if (structureModel.imports != null) {
+                    ImportResolver.validateImportsOrder(inputFile, structureModel.imports);
+                    ImportResolver.merge(structureModel, new ImportResolver(jaxbContext, mStats).resolve(inputFile, structureModel.imports));
+                }
+                final PipelineStats.Timer timer = mStats.start(PipelineStats.STAGE_VALIDATE);
+                try {
+                    StructureValidator validator = new StructureValidator(structureModel);
+                    validator.validate();
+                } finally {
+                    timer.stop();
+                }
+            } catch (JAXBException e) {
+                throw new StructureParserException(e);
+            }
+        }
+
+        if (event.shouldCommit()) {
+            event.specification = mFilePath;
+            event.typeCount = structureModel.types != null ? structureModel.types.size() : 0;
+            event.graphCount = structureModel.graphs != null ? structureModel.graphs.size() : 0;
+            event.commit();
+        }
+        return structureModel;
+    }
+
+    /**
+     * Parses the provided specification file incrementally, handing each part of it to the {@code handler}
+     * as soon as it is parsed, so the whole specification never has to be kept in memory.
+     * Types are always reported first, graphs which are declared before the {@code <types>} element are held back until the types are parsed.
+     * Types and graphs of the imported files are reported before the ones of the parsed file.
+     * Please note that parts of the specification are not validated, see {@link StructureValidator#validate(GraphModel)}.
+     * The emitted {@link ParseEvent} includes the time spent by the {@code handler}.
+     * @param handler Receiver of the parsed parts of the specification.
+     * @throws StructureParserException
+     */
+    public void parse(StructureHandler handler) throws StructureParserException {
+        // Compiled and text specifications are loaded so fast that streaming them would not pay off.
+        if (isCompiled(new File(mFilePath)) || TextSpecParser.isText(new File(mFilePath))) {
+            StructureModel structureModel = parse();
+            handler.onTypes(structureModel.types != null ? structureModel.types : new ArrayList<>());
+            if (structureModel.graphs != null) {
+                for (GraphModel graphModel : structureModel.graphs) {
+                    handler.onGraph(graphModel);
+                }
+            }
+            return;
+        }
+        ParseEvent parseEvent = new ParseEvent();
+        parseEvent.begin();
+        int graphCount = 0;
+        try (InputStream inputStream = new FileInputStream(mFilePath)) {
+            final JAXBContext jaxbContext = createContext();
             Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
-            structureModel = (StructureModel) jaxbUnmarshaller.unmarshal(inputFile);
-            StructureValidator validator = new StructureValidator(structureModel);
-            validator.validate();
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(inputStream);
+
+            final ImportResolver importResolver = new ImportResolver(jaxbContext, mStats);
+            final List<ImportModel> imports = new ArrayList<>();
+            final List<TypeModel> types = new ArrayList<>();
+            final List<GraphModel> pendingGraphs = new ArrayList<>();
+            boolean insideTypes = false;
+            boolean typesReported = false;
+            while (reader.hasNext()) {
+                final int event = reader.getEventType();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    final String elementName = reader.getLocalName();
+                    if (insideTypes && "type".equals(elementName)) {
+                        // Unmarshaller moves the reader past the parsed element.
+                        final PipelineStats.Timer timer = mStats.start(PipelineStats.STAGE_UNMARSHAL);
+                        try {
+                            types.add(jaxbUnmarshaller.unmarshal(reader, TypeModel.class).getValue());
+                        } finally {
+                            timer.stop();
+                        }
+                        continue;
+                    } else if ("import".equals(elementName)) {
+                        if (insideTypes || typesReported || graphCount > 0) {
+                            throw new StructureParserException("<import> elements have to be declared before <types> and <graph> elements.");
+                        }
+                        final PipelineStats.Timer timer = mStats.start(PipelineStats.STAGE_UNMARSHAL);
+                        try {
+                            imports.add(jaxbUnmarshaller.unmarshal(reader, ImportModel.class).getValue());
+                        } finally {
+                            timer.stop();
+                        }
+                        continue;
+                    } else if ("graph".equals(elementName)) {
+                        GraphModel graphModel;
+                        final PipelineStats.Timer timer = mStats.start(PipelineStats.STAGE_UNMARSHAL);
+                        try {
+                            graphModel = jaxbUnmarshaller.unmarshal(reader, GraphModel.class).getValue();
+                        } finally {
+                            timer.stop();
+                        }
+                        ++graphCount;
+                        if (typesReported) {
+                            handler.onGraph(graphModel);
+                        } else {
+                            pendingGraphs.add(graphModel);
+                        }
+                        continue;
+                    } else if ("types".equals(elementName)) {
+                        if (typesReported) {
+                            throw new StructureParserException("<types> can be declared only once.");
+                        }
+                        insideTypes = true;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && "types".equals(reader.getLocalName())) {
+                    insideTypes = false;
+                    typesReported = true;
+                    reportPendingGraphs(handler, resolveImports(importResolver, imports), types, pendingGraphs);
+                }
+                reader.next();
+            }
+            if (!typesReported) {
+                reportPendingGraphs(handler, resolveImports(importResolver, imports), types, pendingGraphs);
+            }
+            reader.close();
+            if (parseEvent.shouldCommit()) {
+                parseEvent.specification = mFilePath;
+                parseEvent.typeCount = types.size();
+                parseEvent.graphCount = graphCount;
+                parseEvent.commit();
+            }
+        } catch (JAXBException | XMLStreamException | IOException e) {
+            throw new StructureParserException(e);
+        }
+    }
+
+    private static boolean isCompiled(File inputFile) throws StructureParserException {
+        try {
+            return CompiledSpec.isCompiled(inputFile);
+        } catch (IOException e) {
+            throw new StructureParserException(e);
+        }
+    }
+
+    private StructureModel load(File inputFile) throws StructureParserException {
+        final PipelineStats.Timer timer = mStats.start(PipelineStats.STAGE_LOAD);
+        try {
+            return CompiledSpec.load(inputFile);
+        } catch (IOException e) {
+            throw new StructureParserException(e);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Reads the specification file as it is, e.g. for converting it to another format.
+     * Imports are not resolved and the specification is not validated.
+     * @return Specification model of the file.
+     * @throws StructureParserException
+     */
+    public StructureModel read() throws StructureParserException {
+        final File inputFile = new File(mFilePath);
+        if (isCompiled(inputFile)) {
+            return load(inputFile);
+        } else if (TextSpecParser.isText(inputFile)) {
+            return TextSpecParser.parse(inputFile);
+        }
+        try {
+            return (StructureModel) createContext().createUnmarshaller().unmarshal(inputFile);
         } catch (JAXBException e) {
             throw new StructureParserException(e);
         }
+    }
 
-        return structureModel;
+    /**
+     * Lists the files imported by the specification, directly or indirectly, e.g. for checking if any of them has changed.
+     * Only the {@code <import>} elements of the files are read.
+     * @return Imported files, empty for compiled specifications which already contain the imported types and graphs.
+     * @throws StructureParserException
+     */
+    public Set<File> findImportedFiles() throws StructureParserException {
+        final File inputFile = new File(mFilePath);
+        if (isCompiled(inputFile)) {
+            return new HashSet<>();
+        }
+        return ImportResolver.findImportedFiles(inputFile);
+    }
+
+    private JAXBContext createContext() throws JAXBException {
+        final PipelineStats.Timer timer = mStats.start(PipelineStats.STAGE_JAXB_BOOTSTRAP);
+        try {
+            return JAXBContext.newInstance(StructureModel.class);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private List<StructureModel> resolveImports(ImportResolver importResolver, List<ImportModel> imports) throws StructureParserException {
+        return imports.isEmpty() ? new ArrayList<>() : importResolver.resolve(new File(mFilePath), imports);
+    }
+
+    private static void reportPendingGraphs(StructureHandler handler, List<StructureModel> importedModels, List<TypeModel> types,
+                                            List<GraphModel> pendingGraphs) throws StructureParserException {
+        final StructureModel structureModel = new StructureModel();
+        structureModel.types = types;
+        structureModel.graphs = pendingGraphs;
+        ImportResolver.merge(structureModel, importedModels);
+        handler.onTypes(structureModel.types);
+        for (GraphModel graphModel : structureModel.graphs) {
+            handler.onGraph(graphModel);
+        }
+        pendingGraphs.clear();
+    }
+
+    /**
+     * Receiver of the specification parts, see {@link #parse(StructureHandler)}.
+     */
+    public interface StructureHandler {
+        /**
+         * Called exactly once, before any of the graphs is reported.
+         * @param types Types declared in the specification, empty if there are none.
+         * @throws StructureParserException
+         */
+        void onTypes(List<TypeModel> types) throws StructureParserException;
+
+        /**
+         * Called for each of the graphs declared in the specification, in the order of declaration.
+         * @param graphModel Parsed graph.
+         * @throws StructureParserException
+         */
+        void onGraph(GraphModel graphModel) throws StructureParserException;
     }
 }
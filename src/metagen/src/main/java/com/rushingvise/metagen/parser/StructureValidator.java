@@ -16,6 +16,7 @@ limitations under the License.
 
 package com.rushingvise.metagen.parser;
 
+import com.rushingvise.metagen.jfr.ValidateGraphEvent;
 import com.rushingvise.metagen.parser.StructureModel.*;
 
 import java.util.HashSet;
@@ -23,6 +24,7 @@ import java.util.List;
 import java.util.Set;
 
 import static com.rushingvise.metagen.parser.StructureModel.Utils.findNamedItem;
+import static com.rushingvise.metagen.parser.StructureModel.Utils.hasFragments;
 
 /**
  * Validates provided {@link StructureModel}.
@@ -32,9 +34,15 @@ public class StructureValidator {
     static {
         BUILT_IN_TYPES.add("string");
         BUILT_IN_TYPES.add("integer");
+        BUILT_IN_TYPES.add("long");
+        BUILT_IN_TYPES.add("double");
+        BUILT_IN_TYPES.add("boolean");
+        BUILT_IN_TYPES.add("char");
+        BUILT_IN_TYPES.add("bytes");
     }
 
     private final StructureModel mStructureModel;
+    private final Set<String> mGraphNames = new HashSet<>();
 
     /**
      * @param structureModel {@link GraphModel} which should be validated.
@@ -51,15 +59,52 @@ public class StructureValidator {
         mGraphsModelValidator.validate(null, mStructureModel);
     }
 
+    /**
+     * Performs validation of the types declared in the provided {@link StructureModel}.
+     * Should be called before validating single graphs, see {@link #validate(GraphModel)}.
+     * @throws StructureParserException
+     */
+    public void validateTypes() throws StructureParserException {
+        if (mStructureModel.types != null) {
+            validateNames(mStructureModel.types, "<type>");
+        }
+    }
+
+    /**
+     * Performs validation of a single graph, against the types of the provided {@link StructureModel}.
+     * Can be used for validating graphs one by one, as they are being parsed.
+     * Name of the graph is checked against the names of all graphs previously validated by this instance.
+     * @param graphModel {@link GraphModel} which should be validated.
+     * @throws StructureParserException
+     */
+    public void validate(GraphModel graphModel) throws StructureParserException {
+        validateName(graphModel, mGraphNames, "<graph>");
+        validateGraph(mStructureModel, graphModel);
+    }
+
+    private void validateGraph(StructureModel structureModel, GraphModel graphModel) throws StructureParserException {
+        ValidateGraphEvent event = new ValidateGraphEvent();
+        event.begin();
+        mGraphModelValidator.validate(structureModel, graphModel);
+        if (event.shouldCommit()) {
+            event.graphName = graphModel.name;
+            event.nodeCount = graphModel.nodes.size();
+            event.edgeCount = graphModel.edges.size();
+            event.commit();
+        }
+    }
+
     interface Validator<TContext, T> {
         void validate(TContext context, T object) throws StructureParserException;
     }
 
     private final Validator<GraphModel, IncludeActionModel> mIncludeActionModelValidator = (context, object) -> {
+        validateIfNotEmpty(object.name, "<include-action> \"name\" attribute is required.");
         validateIfNotNull(findNamedItem(context.actions, object.name), "<include-action> \"name\" attribute points non-existing action \"" + object.getName() + "\".");
     };
 
     private final Validator<GraphModel, IncludeEdgeModel> mIncludeEdgeModelValidator = (context, object) -> {
+        validateIfNotEmpty(object.name, "<include-edge> \"name\" attribute is required.");
         validateIfNotNull(findNamedItem(context.edges, object.name), "<include-edge> \"name\" attribute points non-existing action \"" + object.getName() + "\".");
     };
 
@@ -85,21 +130,45 @@ public class StructureValidator {
         }
     };
 
+    private final Validator<SignatureModel, FragmentModel> mFragmentValidator = (context, object) -> {
+        final String tag = "<signature name=\"" + context.name + "\"> <emit>";
+        validate(object.text != null ^ object.argument != null, tag + " requires either \"text\" or \"arg\" attribute.");
+        if (object.argument != null) {
+            final ArgumentModel argumentModel = context.arguments != null ? findNamedItem(context.arguments, object.argument) : null;
+            validateIfNotNull(argumentModel, tag + " \"arg\" attribute points non-existing argument \"" + object.argument + "\".");
+            validate(object.separator == null || argumentModel.array || argumentModel.vararg,
+                    tag + " \"separator\" attribute is allowed only for array and variadic arguments.");
+            validate(!"bytes".equals(argumentModel.type), tag + " binary argument \"" + object.argument + "\" cannot be emitted as text.");
+        } else {
+            validate(object.separator == null, tag + " \"separator\" attribute is allowed only for arguments.");
+        }
+    };
+
+    private final Validator<GraphModel, SignatureModel> mFragmentsValidator = (context, object) -> {
+        if (object.fragments != null) {
+            for (FragmentModel fragmentModel : object.fragments) {
+                mFragmentValidator.validate(object, fragmentModel);
+            }
+        }
+    };
+
     private final Validator<GraphModel, SignatureModel> mActionSignatureValidator = (context, object) -> {
         mArgumentsValidator.validate(context, object.arguments);
-        if (object.returnType != null) {
-            validateIfNotEmpty(object.returnType, "<signature name=\"" + object.name + "\"> return attribute cannot be empty.");
-            validate(isProperType(object.returnType), "<signature name=\"" + object.name + "\"> type \"" + object.returnType + "\" in return attribute is not known.");
-        }
+        validateIfNotEmpty(object.returnType, "<signature name=\"" + object.name + "\"> return attribute is required for actions.");
+        validate(isProperType(object.returnType), "<signature name=\"" + object.name + "\"> type \"" + object.returnType + "\" in return attribute is not known.");
+        mFragmentsValidator.validate(context, object);
     };
 
     private final Validator<GraphModel, SignatureModel> mEdgeSignatureValidator = (context, object) -> {
         mArgumentsValidator.validate(context, object.arguments);
         validate(object.returnType == null, "<signature name=\"" + object.name + "\"> return attribute not allowed.");
+        mFragmentsValidator.validate(context, object);
     };
 
     private boolean isProperType(String typeName) {
-        if (BUILT_IN_TYPES.contains(typeName)) {
+        if (typeName == null) {
+            return false;
+        } else if (BUILT_IN_TYPES.contains(typeName)) {
             return true;
         } else {
             return findNamedItem(mStructureModel.types, typeName) != null;
@@ -115,6 +184,7 @@ public class StructureValidator {
 
     private final Validator<GraphModel, EdgeModel> mEdgeModelValidator = (context, object) -> {
         validateNames(object.signatures, "<signature>");
+        validateIfNotEmpty(object.target, "<edge> \"target\" attribute is required.");
         validateIfNotNull(findNamedItem(context.nodes, object.target), "<edge> \"target\" attribute points non-existing node \"" + object.target + "\".");
         for (SignatureModel signatureModel : object.signatures) {
             mEdgeSignatureValidator.validate(context, signatureModel);
@@ -134,27 +204,46 @@ public class StructureValidator {
         for (EdgeModel edgeModel : object.edges) {
             mEdgeModelValidator.validate(object, edgeModel);
         }
+        // Actions of the graphs with fragments materialize the emitted text into their result.
+        if (hasFragments(object)) {
+            for (ActionModel actionModel : object.actions) {
+                for (SignatureModel signatureModel : actionModel.signatures) {
+                    validate(signatureModel.returnType != null
+                                    && ("string".equals(signatureModel.returnType) || !BUILT_IN_TYPES.contains(signatureModel.returnType)),
+                            "<signature name=\"" + signatureModel.name + "\"> has to return string or declared type, as the graph declares fragments.");
+                }
+            }
+        }
         validateIfNotEmpty(object.initialNode, "<graph> \"initial_node\" attribute is required.");
         validateIfNotNull(findNamedItem(object.nodes, object.initialNode), "<graph> \"initial_node\" attribute points non-existing node \"" + object.initialNode + "\".");
     };
 
     private final Validator<Void, StructureModel> mGraphsModelValidator = (context, object) -> {
-        validateNames(object.graphs, "<graph>");
-        validateNames(object.types, "<type>");
-        for (GraphModel graphModel : object.graphs) {
-            mGraphModelValidator.validate(object, graphModel);
+        // Lists are missing from the specifications declaring no types or no graphs, e.g. from the imported ones.
+        if (object.types != null) {
+            validateNames(object.types, "<type>");
+        }
+        if (object.graphs != null) {
+            validateNames(object.graphs, "<graph>");
+            for (GraphModel graphModel : object.graphs) {
+                validateGraph(object, graphModel);
+            }
         }
     };
 
     private static void validateNames(List<? extends NamedModel> namedModels, String tag) throws StructureParserException {
         Set<String> names = new HashSet<>();
         for (NamedModel model : namedModels) {
-            validateIfNotEmpty(model.getName(), tag + " \"name\" attribute is required.");
-            if (names.contains(model.getName())) {
-                throw new StructureParserException(tag + " \"name\" attribute with value \"" + model.getName() + "\" is duplicated.");
-            } else {
-                names.add(model.getName());
-            }
+            validateName(model, names, tag);
+        }
+    }
+
+    private static void validateName(NamedModel model, Set<String> names, String tag) throws StructureParserException {
+        validateIfNotEmpty(model.getName(), tag + " \"name\" attribute is required.");
+        if (names.contains(model.getName())) {
+            throw new StructureParserException(tag + " \"name\" attribute with value \"" + model.getName() + "\" is duplicated.");
+        } else {
+            names.add(model.getName());
         }
     }
 
@@ -0,0 +1,464 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.parser;
+
+import com.rushingvise.metagen.parser.StructureModel.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parser of the text form of the graphs specification, files with the {@value #EXTENSION} extension.
+ * Produces the same {@link StructureModel} as the XML specification, e.g.
+ * <pre>
+ * import "common.mg";
+ * type Query fragments;
+ *
+ * graph QueryBuilder initial Initial {
+ *     edge Select -&gt; PostSelect {
+ *         select(string... columns) emit "SELECT " columns[", "];
+ *     }
+ *     action BuildQuery {
+ *         build(): Query;
+ *     }
+ *     node Initial edges Select;
+ *     node PostSelect actions BuildQuery;
+ * }
+ * </pre>
+ * Array arguments are declared as {@code type[] name}. Fragments emitted by a signature follow the {@code emit} keyword,
+ * quoted texts are constants and names refer to the arguments, with an optional quoted separator of the array items.
+ * Types composed of the fragments are followed by the {@code fragments} keyword. Names which are not plain identifiers can be quoted,
+ * {@code //} and {@code /* *}{@code /} comments are supported.
+ * The parser works directly on the characters of the file, without a separate tokenization pass,
+ * and names are interned while they are scanned, so repeated names (e.g. included edges) do not allocate new strings.
+ */
+public class TextSpecParser {
+    public static final String EXTENSION = ".mg";
+
+    private final String mFileName;
+    private final char[] mInput;
+    private final int mLength;
+    private int mPosition;
+    private String[] mNames = new String[1024];
+    private int[] mNameHashes = new int[1024];
+    private int mNameCount;
+
+    private TextSpecParser(String fileName, char[] input, int length) {
+        mFileName = fileName;
+        mInput = input;
+        mLength = length;
+    }
+
+    /**
+     * @param file Checked file.
+     * @return {@code true} if the file should be parsed as the text specification.
+     */
+    public static boolean isText(File file) {
+        return file.getName().endsWith(EXTENSION);
+    }
+
+    /**
+     * Parses the text specification, imports are neither resolved nor validated.
+     * @param file Specification file.
+     * @return Parsed specification.
+     * @throws StructureParserException
+     */
+    public static StructureModel parse(File file) throws StructureParserException {
+        final CharBuffer input = read(file);
+        return new TextSpecParser(file.getPath(), input.array(), input.limit()).parseStructure(false);
+    }
+
+    /**
+     * Parses the text specification.
+     * @param fileName Name of the parsed file, used in error messages.
+     * @param input Content of the specification.
+     * @return Parsed specification.
+     * @throws StructureParserException
+     */
+    public static StructureModel parse(String fileName, String input) throws StructureParserException {
+        return new TextSpecParser(fileName, input.toCharArray(), input.length()).parseStructure(false);
+    }
+
+    /**
+     * Parses only the leading {@code import} statements of the text specification.
+     * @param file Specification file.
+     * @return Imports of the specification.
+     * @throws StructureParserException
+     */
+    static List<ImportModel> parseImports(File file) throws StructureParserException {
+        final CharBuffer input = read(file);
+        List<ImportModel> ret = new TextSpecParser(file.getPath(), input.array(), input.limit()).parseStructure(true).imports;
+        return ret != null ? ret : new ArrayList<>();
+    }
+
+    private static CharBuffer read(File file) throws StructureParserException {
+        try {
+            // Decoded buffer is array-backed and starts at its beginning.
+            return StandardCharsets.UTF_8.decode(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+        } catch (IOException e) {
+            throw new StructureParserException(e);
+        }
+    }
+
+    private StructureModel parseStructure(boolean importsOnly) throws StructureParserException {
+        final StructureModel ret = new StructureModel();
+        ret.graphs = new ArrayList<>();
+        while (skipWhitespace()) {
+            final int statementStart = mPosition;
+            final String keyword = parseName();
+            if ("import".equals(keyword)) {
+                if (!ret.graphs.isEmpty() || ret.types != null) {
+                    throw error(statementStart, "imports have to be declared before types and graphs");
+                }
+                if (ret.imports == null) {
+                    ret.imports = new ArrayList<>();
+                }
+                ImportModel importModel = new ImportModel();
+                importModel.file = parseName();
+                expect(';');
+                ret.imports.add(importModel);
+            } else if (importsOnly) {
+                break;
+            } else if ("type".equals(keyword)) {
+                if (ret.types == null) {
+                    ret.types = new ArrayList<>();
+                }
+                TypeModel typeModel = new TypeModel();
+                typeModel.name = parseName();
+                if (!accept(';')) {
+                    expectKeyword("fragments");
+                    typeModel.fragments = true;
+                    expect(';');
+                }
+                ret.types.add(typeModel);
+            } else if ("graph".equals(keyword)) {
+                ret.graphs.add(parseGraph());
+            } else {
+                throw error(statementStart, "expected \"import\", \"type\" or \"graph\"");
+            }
+        }
+        return ret;
+    }
+
+    private GraphModel parseGraph() throws StructureParserException {
+        final GraphModel ret = new GraphModel();
+        ret.name = parseName();
+        expectKeyword("initial");
+        ret.initialNode = parseName();
+        ret.edges = new ArrayList<>();
+        ret.actions = new ArrayList<>();
+        ret.nodes = new ArrayList<>();
+        expect('{');
+        while (!accept('}')) {
+            final int statementStart = mPosition;
+            final String keyword = parseName();
+            if ("edge".equals(keyword)) {
+                EdgeModel edgeModel = new EdgeModel();
+                edgeModel.name = parseName();
+                expect('-');
+                expect('>');
+                edgeModel.target = parseName();
+                edgeModel.signatures = parseSignatures();
+                ret.edges.add(edgeModel);
+            } else if ("action".equals(keyword)) {
+                ActionModel actionModel = new ActionModel();
+                actionModel.name = parseName();
+                actionModel.signatures = parseSignatures();
+                ret.actions.add(actionModel);
+            } else if ("node".equals(keyword)) {
+                ret.nodes.add(parseNode());
+            } else {
+                throw error(statementStart, "expected \"edge\", \"action\", \"node\" or '}'");
+            }
+        }
+        return ret;
+    }
+
+    private NodeModel parseNode() throws StructureParserException {
+        final NodeModel ret = new NodeModel();
+        ret.name = parseName();
+        while (!accept(';')) {
+            final int keywordStart = mPosition;
+            final String keyword = parseName();
+            if ("edges".equals(keyword) && ret.includedEdges == null) {
+                ret.includedEdges = new ArrayList<>();
+                do {
+                    IncludeEdgeModel includeEdgeModel = new IncludeEdgeModel();
+                    includeEdgeModel.name = parseName();
+                    ret.includedEdges.add(includeEdgeModel);
+                } while (accept(','));
+            } else if ("actions".equals(keyword) && ret.includedActions == null) {
+                ret.includedActions = new ArrayList<>();
+                do {
+                    IncludeActionModel includeActionModel = new IncludeActionModel();
+                    includeActionModel.name = parseName();
+                    ret.includedActions.add(includeActionModel);
+                } while (accept(','));
+            } else {
+                throw error(keywordStart, "expected \"edges\", \"actions\" or ';'");
+            }
+        }
+        return ret;
+    }
+
+    private List<SignatureModel> parseSignatures() throws StructureParserException {
+        if (accept(';')) {
+            return null;
+        }
+        expect('{');
+        List<SignatureModel> ret = null;
+        while (!accept('}')) {
+            if (ret == null) {
+                ret = new ArrayList<>();
+            }
+            SignatureModel signatureModel = new SignatureModel();
+            signatureModel.name = parseName();
+            expect('(');
+            if (!accept(')')) {
+                signatureModel.arguments = new ArrayList<>();
+                do {
+                    signatureModel.arguments.add(parseArgument());
+                } while (accept(','));
+                expect(')');
+            }
+            if (accept(':')) {
+                signatureModel.returnType = parseName();
+            }
+            if (!accept(';')) {
+                expectKeyword("emit");
+                signatureModel.fragments = new ArrayList<>();
+                do {
+                    signatureModel.fragments.add(parseFragment());
+                } while (!accept(';'));
+            }
+            ret.add(signatureModel);
+        }
+        return ret;
+    }
+
+    private ArgumentModel parseArgument() throws StructureParserException {
+        final ArgumentModel ret = new ArgumentModel();
+        ret.type = parseName();
+        if (accept('[')) {
+            expect(']');
+            ret.array = true;
+        }
+        if (accept('.')) {
+            expect('.');
+            expect('.');
+            ret.vararg = true;
+        }
+        ret.name = parseName();
+        return ret;
+    }
+
+    private FragmentModel parseFragment() throws StructureParserException {
+        final FragmentModel ret = new FragmentModel();
+        if (acceptQuote()) {
+            ret.text = parseQuoted();
+        } else {
+            ret.argument = parseName();
+            if (accept('[')) {
+                if (!acceptQuote()) {
+                    throw error(mPosition, "expected quoted separator");
+                }
+                ret.separator = parseQuoted();
+                expect(']');
+            }
+        }
+        return ret;
+    }
+
+    private boolean acceptQuote() throws StructureParserException {
+        return skipWhitespace() && mInput[mPosition] == '"';
+    }
+
+    /**
+     * Parses an identifier or a quoted name.
+     */
+    private String parseName() throws StructureParserException {
+        if (!skipWhitespace()) {
+            throw error(mPosition, "expected name");
+        }
+        final int start = mPosition;
+        if (mInput[mPosition] == '"') {
+            return parseQuoted();
+        }
+        int hash = 0;
+        while (mPosition < mLength && isIdentifierPart(mInput[mPosition])) {
+            hash = 31 * hash + mInput[mPosition++];
+        }
+        if (mPosition == start) {
+            throw error(start, "expected name");
+        }
+        return intern(start, mPosition - start, hash);
+    }
+
+    /**
+     * @return Previously created string with the given characters or a new one, the names are kept in an open-addressing table.
+     */
+    private String intern(int start, int length, int hash) {
+        hash ^= hash >>> 16;
+        int mask = mNames.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            final String name = mNames[i];
+            if (name == null) {
+                final String ret = new String(mInput, start, length);
+                mNames[i] = ret;
+                mNameHashes[i] = hash;
+                if (++mNameCount * 2 > mNames.length) {
+                    growNames();
+                }
+                return ret;
+            }
+            if (mNameHashes[i] == hash && name.length() == length && equals(name, start)) {
+                return name;
+            }
+        }
+    }
+
+    private boolean equals(String name, int start) {
+        for (int i = 0; i < name.length(); ++i) {
+            if (name.charAt(i) != mInput[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void growNames() {
+        final String[] names = mNames;
+        final int[] hashes = mNameHashes;
+        mNames = new String[names.length * 2];
+        mNameHashes = new int[names.length * 2];
+        final int mask = mNames.length - 1;
+        for (int i = 0; i < names.length; ++i) {
+            if (names[i] != null) {
+                int j = hashes[i] & mask;
+                while (mNames[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                mNames[j] = names[i];
+                mNameHashes[j] = hashes[i];
+            }
+        }
+    }
+
+    private String parseQuoted() throws StructureParserException {
+        final int start = mPosition++;
+        StringBuilder ret = null;
+        int chunkStart = mPosition;
+        while (true) {
+            if (mPosition >= mLength || mInput[mPosition] == '\n') {
+                throw error(start, "unterminated quoted name");
+            }
+            final char c = mInput[mPosition];
+            if (c == '"') {
+                final String chunk = new String(mInput, chunkStart, mPosition++ - chunkStart);
+                return ret != null ? ret.append(chunk).toString() : chunk;
+            } else if (c == '\\' && mPosition + 1 < mLength) {
+                if (ret == null) {
+                    ret = new StringBuilder();
+                }
+                ret.append(mInput, chunkStart, mPosition - chunkStart).append(mInput[mPosition + 1]);
+                mPosition += 2;
+                chunkStart = mPosition;
+            } else {
+                ++mPosition;
+            }
+        }
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '$';
+    }
+
+    private void expectKeyword(String keyword) throws StructureParserException {
+        final int start = mPosition;
+        if (!keyword.equals(parseName())) {
+            throw error(start, "expected \"" + keyword + "\"");
+        }
+    }
+
+    private void expect(char c) throws StructureParserException {
+        if (!accept(c)) {
+            throw error(mPosition, "expected '" + c + "'");
+        }
+    }
+
+    private boolean accept(char c) throws StructureParserException {
+        if (skipWhitespace() && mInput[mPosition] == c) {
+            ++mPosition;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skips whitespace and comments.
+     * @return {@code false} if the end of the input was reached.
+     */
+    private boolean skipWhitespace() throws StructureParserException {
+        while (mPosition < mLength) {
+            final char c = mInput[mPosition];
+            if (c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\uFEFF') {
+                ++mPosition;
+            } else if (c == '/' && mPosition + 1 < mLength && mInput[mPosition + 1] == '/') {
+                while (mPosition < mLength && mInput[mPosition] != '\n') {
+                    ++mPosition;
+                }
+            } else if (c == '/' && mPosition + 1 < mLength && mInput[mPosition + 1] == '*') {
+                final int start = mPosition;
+                mPosition += 2;
+                while (mPosition + 1 < mLength && !(mInput[mPosition] == '*' && mInput[mPosition + 1] == '/')) {
+                    ++mPosition;
+                }
+                if (mPosition + 1 >= mLength) {
+                    throw error(start, "unterminated comment");
+                }
+                mPosition += 2;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates the exception pointing at the given position, line and column are computed only when an error occurs.
+     */
+    private StructureParserException error(int position, String message) {
+        int line = 1;
+        int column = 1;
+        for (int i = 0; i < position && i < mLength; ++i) {
+            if (mInput[i] == '\n') {
+                ++line;
+                column = 1;
+            } else {
+                ++column;
+            }
+        }
+        final String found = position < mLength ? "'" + mInput[position] + "'" : "end of file";
+        return new StructureParserException(mFileName + ":" + line + ":" + column + ": " + message + ", found " + found + ".");
+    }
+}
@@ -0,0 +1,202 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.parser;
+
+import com.rushingvise.metagen.parser.StructureModel.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes the graphs specification in the text form, see {@link TextSpecParser}.
+ * Parsing the written specification yields the same model, so it can be used for converting the XML specifications.
+ * Imports are written as they are, the imported files should be converted separately.
+ */
+public class TextSpecWriter {
+    private static final String INDENT = "    ";
+
+    private final Appendable mOutput;
+
+    private TextSpecWriter(Appendable output) {
+        mOutput = output;
+    }
+
+    /**
+     * @param structureModel Specification to be written.
+     * @param file Output file.
+     * @throws IOException
+     */
+    public static void write(StructureModel structureModel, File file) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            write(structureModel, writer);
+        }
+    }
+
+    /**
+     * @param structureModel Specification to be written.
+     * @param output Receiver of the text.
+     * @throws IOException
+     */
+    public static void write(StructureModel structureModel, Appendable output) throws IOException {
+        new TextSpecWriter(output).writeStructure(structureModel);
+    }
+
+    private void writeStructure(StructureModel structureModel) throws IOException {
+        boolean separate = false;
+        if (structureModel.imports != null && !structureModel.imports.isEmpty()) {
+            for (ImportModel importModel : structureModel.imports) {
+                mOutput.append("import ").append(quote(importModel.file)).append(";\n");
+            }
+            separate = true;
+        }
+        if (structureModel.types != null && !structureModel.types.isEmpty()) {
+            if (separate) {
+                mOutput.append('\n');
+            }
+            for (TypeModel typeModel : structureModel.types) {
+                mOutput.append("type ").append(name(typeModel.name)).append(typeModel.fragments ? " fragments;\n" : ";\n");
+            }
+            separate = true;
+        }
+        if (structureModel.graphs != null) {
+            for (GraphModel graphModel : structureModel.graphs) {
+                if (separate) {
+                    mOutput.append('\n');
+                }
+                writeGraph(graphModel);
+                separate = true;
+            }
+        }
+    }
+
+    private void writeGraph(GraphModel graphModel) throws IOException {
+        mOutput.append("graph ").append(name(graphModel.name)).append(" initial ").append(name(graphModel.initialNode)).append(" {\n");
+        if (graphModel.edges != null) {
+            for (EdgeModel edgeModel : graphModel.edges) {
+                mOutput.append(INDENT).append("edge ").append(name(edgeModel.name)).append(" -> ").append(name(edgeModel.target));
+                writeSignatures(edgeModel.signatures);
+            }
+        }
+        if (graphModel.actions != null) {
+            for (ActionModel actionModel : graphModel.actions) {
+                mOutput.append(INDENT).append("action ").append(name(actionModel.name));
+                writeSignatures(actionModel.signatures);
+            }
+        }
+        if (graphModel.nodes != null) {
+            for (NodeModel nodeModel : graphModel.nodes) {
+                mOutput.append(INDENT).append("node ").append(name(nodeModel.name));
+                if (nodeModel.includedEdges != null && !nodeModel.includedEdges.isEmpty()) {
+                    writeNames(" edges ", nodeModel.includedEdges);
+                }
+                if (nodeModel.includedActions != null && !nodeModel.includedActions.isEmpty()) {
+                    writeNames(" actions ", nodeModel.includedActions);
+                }
+                mOutput.append(";\n");
+            }
+        }
+        mOutput.append("}\n");
+    }
+
+    private void writeSignatures(List<SignatureModel> signatures) throws IOException {
+        if (signatures == null || signatures.isEmpty()) {
+            mOutput.append(";\n");
+            return;
+        }
+        mOutput.append(" {\n");
+        for (SignatureModel signatureModel : signatures) {
+            mOutput.append(INDENT).append(INDENT).append(name(signatureModel.name)).append('(');
+            if (signatureModel.arguments != null) {
+                for (int i = 0; i < signatureModel.arguments.size(); ++i) {
+                    final ArgumentModel argumentModel = signatureModel.arguments.get(i);
+                    if (i > 0) {
+                        mOutput.append(", ");
+                    }
+                    mOutput.append(name(argumentModel.type));
+                    if (argumentModel.array) {
+                        mOutput.append("[]");
+                    }
+                    if (argumentModel.vararg) {
+                        mOutput.append("...");
+                    }
+                    mOutput.append(' ').append(name(argumentModel.name));
+                }
+            }
+            mOutput.append(')');
+            if (signatureModel.returnType != null) {
+                mOutput.append(": ").append(name(signatureModel.returnType));
+            }
+            if (signatureModel.fragments != null && !signatureModel.fragments.isEmpty()) {
+                mOutput.append(" emit");
+                for (FragmentModel fragmentModel : signatureModel.fragments) {
+                    mOutput.append(' ');
+                    writeFragment(fragmentModel);
+                }
+            }
+            mOutput.append(";\n");
+        }
+        mOutput.append(INDENT).append("}\n");
+    }
+
+    private void writeFragment(FragmentModel fragmentModel) throws IOException {
+        if (fragmentModel.text != null) {
+            mOutput.append(quote(fragmentModel.text));
+            return;
+        }
+        // Quoted names would be taken for the constant texts.
+        final String argument = fragmentModel.argument != null ? fragmentModel.argument : "";
+        if (!argument.equals(name(argument))) {
+            throw new IOException("Argument \"" + argument + "\" referenced by <emit> cannot be written in the text form.");
+        }
+        mOutput.append(argument);
+        if (fragmentModel.separator != null) {
+            mOutput.append('[').append(quote(fragmentModel.separator)).append(']');
+        }
+    }
+
+    private void writeNames(String keyword, List<? extends NamedModel> namedModels) throws IOException {
+        mOutput.append(keyword);
+        for (int i = 0; i < namedModels.size(); ++i) {
+            if (i > 0) {
+                mOutput.append(", ");
+            }
+            mOutput.append(name(namedModels.get(i).getName()));
+        }
+    }
+
+    /**
+     * @return The name itself if it is a plain identifier, quoted name otherwise.
+     */
+    private static String name(String name) {
+        if (name == null || name.isEmpty()) {
+            return quote(name != null ? name : "");
+        }
+        for (int i = 0; i < name.length(); ++i) {
+            final char c = name.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '$')) {
+                return quote(name);
+            }
+        }
+        return name;
+    }
+
+    private static String quote(String value) {
+        // Escaped newline is taken literally by the parser.
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\\n") + "\"";
+    }
+}
@@ -0,0 +1,301 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.stats;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects metrics of the generation pipeline stages: wall time, bytes allocated by the thread running the stage,
+ * number of generated classes, methods and files and number of written bytes.
+ * Can be safely used from multiple threads, e.g. by the stages of {@link com.rushingvise.metagen.GenerationPipeline}.
+ * A disabled instance (see {@link #disabled()}) does not measure anything.
+ */
+public class PipelineStats {
+    public static final String STAGE_TOTAL = "total";
+    public static final String STAGE_JAXB_BOOTSTRAP = "jaxb-bootstrap";
+    public static final String STAGE_UNMARSHAL = "unmarshal";
+    public static final String STAGE_LOAD = "load";
+    public static final String STAGE_VALIDATE = "validate";
+    public static final String STAGE_ANALYZE = "analyze";
+    public static final String STAGE_RENDER = "render";
+    public static final String STAGE_WRITE = "write";
+    public static final String STAGE_RESTORE = "restore";
+
+    private static final PipelineStats DISABLED = new PipelineStats(false);
+    private static final Timer NO_OP_TIMER = new Timer(null, null, null);
+
+    private final boolean mEnabled;
+    private final ThreadMXBean mThreadMXBean;
+    private final Map<String, StageStats> mStages = new LinkedHashMap<>();
+    private final Map<String, UnitStats> mUnits = new LinkedHashMap<>();
+    private final AtomicLong mClasses = new AtomicLong();
+    private final AtomicLong mMethods = new AtomicLong();
+    private final AtomicLong mFiles = new AtomicLong();
+    private final AtomicLong mBytesWritten = new AtomicLong();
+    private volatile String mCache;
+
+    public PipelineStats() {
+        this(true);
+    }
+
+    private PipelineStats(boolean enabled) {
+        mEnabled = enabled;
+        mThreadMXBean = enabled ? initThreadMXBean() : null;
+    }
+
+    /**
+     * @return Shared instance which does not collect anything.
+     */
+    public static PipelineStats disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Starts measuring the given stage in the current thread, measurement ends when the timer is stopped.
+     * @param stage Name of the stage.
+     * @return Timer which should be stopped once the stage is completed.
+     */
+    public Timer start(String stage) {
+        return start(stage, null);
+    }
+
+    /**
+     * Starts measuring the given stage for the given code unit in the current thread.
+     * Stage time is accounted both in the stage totals and in the unit details.
+     * @param stage Name of the stage.
+     * @param unit Name of the code unit (main class) the stage is processing.
+     * @return Timer which should be stopped once the stage is completed.
+     */
+    public Timer start(String stage, String unit) {
+        if (!mEnabled) {
+            return NO_OP_TIMER;
+        }
+        return new Timer(this, stage, unit);
+    }
+
+    /**
+     * Records a generated class.
+     * @param methods Number of methods generated for the class, including inner classes and interfaces.
+     */
+    public void countClass(int methods) {
+        if (mEnabled) {
+            mClasses.incrementAndGet();
+            mMethods.addAndGet(methods);
+        }
+    }
+
+    /**
+     * Records a written file.
+     * @param unit Name of the code unit the file belongs to.
+     * @param bytes Size of the file.
+     */
+    public void countFile(String unit, long bytes) {
+        if (mEnabled) {
+            mFiles.incrementAndGet();
+            mBytesWritten.addAndGet(bytes);
+            synchronized (this) {
+                unit(unit).bytesWritten += bytes;
+            }
+        }
+    }
+
+    /**
+     * Records a lookup in the output cache, see {@link com.rushingvise.metagen.cache.OutputCache}.
+     * @param hit {@code true} if the output was found in the cache, so none of the other stages was run.
+     */
+    public void countCacheLookup(boolean hit) {
+        if (mEnabled) {
+            mCache = hit ? "hit" : "miss";
+        }
+    }
+
+    /**
+     * Prints the collected metrics as a human readable table.
+     * @param out Stream to which the table should be written.
+     */
+    public synchronized void printTable(PrintStream out) {
+        out.println(String.format("%-16s %8s %14s %16s", "stage", "calls", "wall [ms]", "allocated [KB]"));
+        for (StageStats stageStats : mStages.values()) {
+            out.println(String.format("%-16s %8d %14.3f %16d", stageStats.name, stageStats.calls,
+                    stageStats.wallNanos / 1e6, stageStats.allocatedBytes / 1024));
+        }
+        out.println();
+        out.println("classes: " + mClasses.get() + ", methods: " + mMethods.get()
+                + ", files: " + mFiles.get() + ", bytes written: " + mBytesWritten.get());
+        if (mCache != null) {
+            out.println("output cache: " + mCache);
+        }
+    }
+
+    /**
+     * @return Collected metrics as a JSON document, suitable for tracking over time.
+     */
+    public synchronized String toJson() {
+        StringBuilder ret = new StringBuilder();
+        ret.append("{\n  \"stages\": [");
+        String separator = "\n";
+        for (StageStats stageStats : mStages.values()) {
+            ret.append(separator).append("    {\"name\": ").append(quote(stageStats.name))
+                    .append(", \"calls\": ").append(stageStats.calls)
+                    .append(", \"wallNanos\": ").append(stageStats.wallNanos)
+                    .append(", \"allocatedBytes\": ").append(stageStats.allocatedBytes).append('}');
+            separator = ",\n";
+        }
+        ret.append("\n  ],\n  \"units\": [");
+        separator = "\n";
+        for (UnitStats unitStats : mUnits.values()) {
+            ret.append(separator).append("    {\"name\": ").append(quote(unitStats.name)).append(", \"stages\": {");
+            String stageSeparator = "";
+            for (Map.Entry<String, Long> stage : unitStats.wallNanos.entrySet()) {
+                ret.append(stageSeparator).append(quote(stage.getKey())).append(": ").append(stage.getValue());
+                stageSeparator = ", ";
+            }
+            ret.append("}, \"bytesWritten\": ").append(unitStats.bytesWritten).append('}');
+            separator = ",\n";
+        }
+        ret.append("\n  ],\n  \"classes\": ").append(mClasses.get())
+                .append(",\n  \"methods\": ").append(mMethods.get())
+                .append(",\n  \"files\": ").append(mFiles.get())
+                .append(",\n  \"bytesWritten\": ").append(mBytesWritten.get());
+        if (mCache != null) {
+            ret.append(",\n  \"cache\": ").append(quote(mCache));
+        }
+        ret.append("\n}");
+        return ret.toString();
+    }
+
+    private synchronized void record(String stage, String unit, long wallNanos, long allocatedBytes) {
+        StageStats stageStats = mStages.get(stage);
+        if (stageStats == null) {
+            stageStats = new StageStats(stage);
+            mStages.put(stage, stageStats);
+        }
+        stageStats.calls++;
+        stageStats.wallNanos += wallNanos;
+        stageStats.allocatedBytes += allocatedBytes;
+        if (unit != null) {
+            unit(unit).wallNanos.merge(stage, wallNanos, Long::sum);
+        }
+    }
+
+    private UnitStats unit(String unit) {
+        UnitStats unitStats = mUnits.get(unit);
+        if (unitStats == null) {
+            unitStats = new UnitStats(unit);
+            mUnits.put(unit, unitStats);
+        }
+        return unitStats;
+    }
+
+    /**
+     * @return Bytes allocated so far by the current thread or {@code -1} if the JVM cannot measure it.
+     */
+    private long allocatedBytes() {
+        if (mThreadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) mThreadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static ThreadMXBean initThreadMXBean() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (sunThreadMXBean.isThreadAllocatedMemorySupported()) {
+                sunThreadMXBean.setThreadAllocatedMemoryEnabled(true);
+                return threadMXBean;
+            }
+        }
+        return null;
+    }
+
+    private static String quote(String value) {
+        StringBuilder ret = new StringBuilder(value.length() + 2);
+        ret.append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                ret.append('\\').append(c);
+            } else if (c < 0x20) {
+                ret.append(String.format("\\u%04x", (int) c));
+            } else {
+                ret.append(c);
+            }
+        }
+        return ret.append('"').toString();
+    }
+
+    /**
+     * Measures a single execution of a stage, see {@link #start(String, String)}.
+     */
+    public static class Timer {
+        private final PipelineStats mStats;
+        private final String mStage;
+        private final String mUnit;
+        private final long mStartNanos;
+        private final long mStartAllocatedBytes;
+
+        private Timer(PipelineStats stats, String stage, String unit) {
+            mStats = stats;
+            mStage = stage;
+            mUnit = unit;
+            mStartAllocatedBytes = stats != null ? stats.allocatedBytes() : 0;
+            mStartNanos = stats != null ? System.nanoTime() : 0;
+        }
+
+        /**
+         * Ends the measurement, should be called from a {@code finally} block, exactly once.
+         */
+        public void stop() {
+            if (mStats != null) {
+                long wallNanos = System.nanoTime() - mStartNanos;
+                long allocatedBytes = mStartAllocatedBytes >= 0 ? mStats.allocatedBytes() - mStartAllocatedBytes : 0;
+                mStats.record(mStage, mUnit, wallNanos, allocatedBytes);
+            }
+        }
+    }
+
+    private static class StageStats {
+        final String name;
+        long calls;
+        long wallNanos;
+        long allocatedBytes;
+
+        StageStats(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class UnitStats {
+        final String name;
+        final Map<String, Long> wallNanos = new LinkedHashMap<>();
+        long bytesWritten;
+
+        UnitStats(String name) {
+            this.name = name;
+        }
+    }
+}
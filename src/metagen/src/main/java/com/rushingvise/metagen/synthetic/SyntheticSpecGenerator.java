@@ -0,0 +1,358 @@
+/*
+Copyright @ 2017 Rushing Vise OU
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package com.rushingvise.metagen.synthetic;
+
+import com.rushingvise.metagen.parser.StructureModel;
+import com.rushingvise.metagen.parser.StructureModel.*;
+import org.apache.commons.cli.*;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates valid, synthetic graph specifications of arbitrary size, used for benchmarking and profiling.
+ * Generation is driven by {@link Parameters} and is fully reproducible for the same parameters (including the seed).
+ * In each graph, node {@code N<i>} is the target of edge {@code E<i>} and includes the edge to the next node,
+ * so all the nodes are reachable from the initial one, the remaining included edges and actions are picked at random.
+ */
+public class SyntheticSpecGenerator {
+    private static final String[] BUILT_IN_TYPES = {"string", "integer", "long", "double", "boolean", "char", "bytes"};
+
+    private final Parameters mParameters;
+
+    /**
+     * Parameters of the generated specification.
+     */
+    public static class Parameters {
+        /**
+         * Seed of the random generator, the same seed always yields the same specification.
+         */
+        public long seed = 0;
+        /**
+         * Number of graphs.
+         */
+        public int graphs = 1;
+        /**
+         * Number of nodes in each graph, each node has exactly one incoming edge declared.
+         */
+        public int nodesPerGraph = 100;
+        /**
+         * Number of edges included by each node.
+         */
+        public int fanOut = 4;
+        /**
+         * Number of actions declared in each graph.
+         */
+        public int actions = 2;
+        /**
+         * Number of actions included by each node.
+         */
+        public int actionsPerNode = 1;
+        /**
+         * Number of custom types, which together with the built-in ones are used for arguments and results.
+         */
+        public int types = 4;
+        /**
+         * Number of signatures of each edge and action.
+         */
+        public int signatures = 1;
+        /**
+         * Maximal number of arguments of a signature, actual arity is picked at random.
+         */
+        public int maxArity = 3;
+        /**
+         * Probability of the last argument of a signature being variadic.
+         */
+        public double variadicRatio = 0.1;
+        /**
+         * Probability of an argument being an array.
+         */
+        public double arrayRatio = 0.1;
+    }
+
+    /**
+     * @param parameters Parameters of the generated specification.
+     */
+    public SyntheticSpecGenerator(Parameters parameters) {
+        mParameters = parameters;
+    }
+
+    /**
+     * Generates the specification directly as an in-memory model.
+     * @return Specification model, which passes {@link com.rushingvise.metagen.parser.StructureValidator} validation.
+     */
+    public StructureModel generate() {
+        Random random = new Random(mParameters.seed);
+        StructureModel structureModel = new StructureModel();
+        structureModel.types = new ArrayList<>(mParameters.types);
+        String[] typeNames = new String[BUILT_IN_TYPES.length + mParameters.types];
+        System.arraycopy(BUILT_IN_TYPES, 0, typeNames, 0, BUILT_IN_TYPES.length);
+        for (int i = 0; i < mParameters.types; ++i) {
+            TypeModel typeModel = new TypeModel();
+            typeModel.name = "Type" + i;
+            structureModel.types.add(typeModel);
+            typeNames[BUILT_IN_TYPES.length + i] = typeModel.name;
+        }
+        structureModel.graphs = new ArrayList<>(mParameters.graphs);
+        for (int i = 0; i < mParameters.graphs; ++i) {
+            structureModel.graphs.add(generateGraph(random, "Graph" + i, typeNames));
+        }
+        return structureModel;
+    }
+
+    /**
+     * Generates the specification and writes it as XML.
+     * @param file Output file.
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        write(generate(), file);
+    }
+
+    /**
+     * Writes the given specification as XML, readable by {@link com.rushingvise.metagen.parser.StructureParser}.
+     * @param structureModel Specification to be written.
+     * @param file Output file.
+     * @throws IOException
+     */
+    public static void write(StructureModel structureModel, File file) throws IOException {
+        try {
+            Marshaller marshaller = JAXBContext.newInstance(StructureModel.class).createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            marshaller.marshal(structureModel, file);
+        } catch (JAXBException e) {
+            throw new IOException("Failed to write the specification: " + e.getMessage(), e);
+        }
+    }
+
+    private GraphModel generateGraph(Random random, String name, String[] typeNames) {
+        final int nodes = Math.max(1, mParameters.nodesPerGraph);
+        GraphModel graphModel = new GraphModel();
+        graphModel.name = name;
+        graphModel.initialNode = "N0";
+        graphModel.edges = new ArrayList<>(nodes);
+        graphModel.actions = new ArrayList<>(mParameters.actions);
+        graphModel.nodes = new ArrayList<>(nodes);
+
+        for (int i = 0; i < mParameters.actions; ++i) {
+            ActionModel actionModel = new ActionModel();
+            actionModel.name = "A" + i;
+            actionModel.signatures = generateSignatures(random, "action" + i, typeNames, true);
+            graphModel.actions.add(actionModel);
+        }
+        for (int i = 0; i < nodes; ++i) {
+            EdgeModel edgeModel = new EdgeModel();
+            edgeModel.name = "E" + i;
+            edgeModel.target = "N" + i;
+            edgeModel.signatures = generateSignatures(random, "edge" + i, typeNames, false);
+            graphModel.edges.add(edgeModel);
+        }
+
+        Sampler edgeSampler = new Sampler(nodes);
+        Sampler actionSampler = new Sampler(mParameters.actions);
+        for (int i = 0; i < nodes; ++i) {
+            NodeModel nodeModel = new NodeModel();
+            nodeModel.name = "N" + i;
+            nodeModel.includedEdges = new ArrayList<>();
+            int next = (i + 1) % nodes;
+            edgeSampler.reset(next);
+            addIncludedEdge(nodeModel, next);
+            for (int j = 1; j < Math.min(mParameters.fanOut, nodes); ++j) {
+                addIncludedEdge(nodeModel, edgeSampler.next(random));
+            }
+            nodeModel.includedActions = new ArrayList<>();
+            actionSampler.reset(-1);
+            for (int j = 0; j < Math.min(mParameters.actionsPerNode, mParameters.actions); ++j) {
+                IncludeActionModel includeActionModel = new IncludeActionModel();
+                includeActionModel.name = "A" + actionSampler.next(random);
+                nodeModel.includedActions.add(includeActionModel);
+            }
+            graphModel.nodes.add(nodeModel);
+        }
+        return graphModel;
+    }
+
+    private static void addIncludedEdge(NodeModel nodeModel, int edge) {
+        IncludeEdgeModel includeEdgeModel = new IncludeEdgeModel();
+        includeEdgeModel.name = "E" + edge;
+        nodeModel.includedEdges.add(includeEdgeModel);
+    }
+
+    private List<SignatureModel> generateSignatures(Random random, String name, String[] typeNames, boolean withResult) {
+        List<SignatureModel> ret = new ArrayList<>(mParameters.signatures);
+        for (int i = 0; i < Math.max(1, mParameters.signatures); ++i) {
+            SignatureModel signatureModel = new SignatureModel();
+            // Signature names are unique in the whole graph, so nodes never get conflicting methods.
+            signatureModel.name = i == 0 ? name : name + "Variant" + i;
+            int arity = random.nextInt(mParameters.maxArity + 1);
+            signatureModel.arguments = new ArrayList<>(arity);
+            for (int j = 0; j < arity; ++j) {
+                ArgumentModel argumentModel = new ArgumentModel();
+                argumentModel.name = "arg" + j;
+                argumentModel.type = typeNames[random.nextInt(typeNames.length)];
+                argumentModel.vararg = j == arity - 1 && random.nextDouble() < mParameters.variadicRatio;
+                argumentModel.array = !argumentModel.vararg && random.nextDouble() < mParameters.arrayRatio;
+                signatureModel.arguments.add(argumentModel);
+            }
+            if (withResult) {
+                signatureModel.returnType = typeNames[random.nextInt(typeNames.length)];
+            }
+            ret.add(signatureModel);
+        }
+        return ret;
+    }
+
+    /**
+     * Picks distinct random indices, in time proportional to the number of picked indices.
+     */
+    private static class Sampler {
+        private final int[] mIndices;
+        private final int[] mPositions;
+        private int mPicked;
+
+        Sampler(int size) {
+            mIndices = new int[size];
+            mPositions = new int[size];
+            for (int i = 0; i < size; ++i) {
+                mIndices[i] = i;
+                mPositions[i] = i;
+            }
+        }
+
+        /**
+         * Starts a new sample.
+         * @param excluded Index which is considered already picked, or {@code -1}.
+         */
+        void reset(int excluded) {
+            mPicked = 0;
+            if (excluded >= 0) {
+                swap(0, mPositions[excluded]);
+                mPicked = 1;
+            }
+        }
+
+        int next(Random random) {
+            swap(mPicked, mPicked + random.nextInt(mIndices.length - mPicked));
+            return mIndices[mPicked++];
+        }
+
+        private void swap(int i, int j) {
+            int index = mIndices[i];
+            mIndices[i] = mIndices[j];
+            mIndices[j] = index;
+            mPositions[mIndices[i]] = i;
+            mPositions[mIndices[j]] = j;
+        }
+    }
+
+    public static void main(String[] args) {
+        final Parameters defaults = new Parameters();
+        final Option outputOption = Option.builder("o").required(true).desc("Output spec file").longOpt("output").hasArg(true).build();
+        final Option seedOption = Option.builder().desc("Random seed (default: " + defaults.seed + ")").longOpt("seed").hasArg(true).build();
+        final Option graphsOption = Option.builder().desc("Number of graphs (default: " + defaults.graphs + ")").longOpt("graphs").hasArg(true).build();
+        final Option nodesOption = Option.builder().desc("Number of nodes per graph (default: " + defaults.nodesPerGraph + ")").longOpt("nodes").hasArg(true).build();
+        final Option fanOutOption = Option.builder().desc("Number of edges included by each node (default: " + defaults.fanOut + ")").longOpt("fan-out").hasArg(true).build();
+        final Option actionsOption = Option.builder().desc("Number of actions per graph (default: " + defaults.actions + ")").longOpt("actions").hasArg(true).build();
+        final Option actionsPerNodeOption = Option.builder().desc("Number of actions included by each node (default: " + defaults.actionsPerNode + ")").longOpt("actions-per-node").hasArg(true).build();
+        final Option typesOption = Option.builder().desc("Number of custom types (default: " + defaults.types + ")").longOpt("types").hasArg(true).build();
+        final Option signaturesOption = Option.builder().desc("Number of signatures per edge and action (default: " + defaults.signatures + ")").longOpt("signatures").hasArg(true).build();
+        final Option arityOption = Option.builder().desc("Maximal number of arguments of a signature (default: " + defaults.maxArity + ")").longOpt("max-arity").hasArg(true).build();
+        final Option variadicOption = Option.builder().desc("Ratio of signatures ending with a variadic argument (default: " + defaults.variadicRatio + ")").longOpt("variadic-ratio").hasArg(true).build();
+        final Option arrayOption = Option.builder().desc("Ratio of array arguments (default: " + defaults.arrayRatio + ")").longOpt("array-ratio").hasArg(true).build();
+
+        Options options = new Options();
+        options.addOption(outputOption);
+        options.addOption(seedOption);
+        options.addOption(graphsOption);
+        options.addOption(nodesOption);
+        options.addOption(fanOutOption);
+        options.addOption(actionsOption);
+        options.addOption(actionsPerNodeOption);
+        options.addOption(typesOption);
+        options.addOption(signaturesOption);
+        options.addOption(arityOption);
+        options.addOption(variadicOption);
+        options.addOption(arrayOption);
+
+        try {
+            CommandLine commandLine = new DefaultParser().parse(options, args, false);
+            Parameters parameters = new Parameters();
+            final String seed = commandLine.getOptionValue(seedOption.getLongOpt());
+            if (seed != null) {
+                try {
+                    parameters.seed = Long.parseLong(seed);
+                } catch (NumberFormatException e) {
+                    throw new ParseException("Invalid value of --" + seedOption.getLongOpt() + ": " + seed);
+                }
+            }
+            parameters.graphs = getNumber(commandLine, graphsOption, defaults.graphs, 0);
+            parameters.nodesPerGraph = getNumber(commandLine, nodesOption, defaults.nodesPerGraph, 1);
+            parameters.fanOut = getNumber(commandLine, fanOutOption, defaults.fanOut, 1);
+            parameters.actions = getNumber(commandLine, actionsOption, defaults.actions, 0);
+            parameters.actionsPerNode = getNumber(commandLine, actionsPerNodeOption, defaults.actionsPerNode, 0);
+            parameters.types = getNumber(commandLine, typesOption, defaults.types, 0);
+            parameters.signatures = getNumber(commandLine, signaturesOption, defaults.signatures, 1);
+            parameters.maxArity = getNumber(commandLine, arityOption, defaults.maxArity, 0);
+            parameters.variadicRatio = getRatio(commandLine, variadicOption, defaults.variadicRatio);
+            parameters.arrayRatio = getRatio(commandLine, arrayOption, defaults.arrayRatio);
+            new SyntheticSpecGenerator(parameters).write(new File(commandLine.getOptionValue(outputOption.getOpt())));
+        } catch (ParseException exception) {
+            System.out.println(exception.getMessage());
+            new HelpFormatter().printHelp("metagen-synthetic", options);
+        } catch (IOException e) {
+            System.out.println("Exception occurred while writing the specification: " + e.getMessage());
+        }
+    }
+
+    private static int getNumber(CommandLine commandLine, Option option, int defaultValue, int minValue) throws ParseException {
+        final String value = commandLine.getOptionValue(option.getLongOpt());
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int ret = Integer.parseInt(value);
+            if (ret >= minValue) {
+                return ret;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        throw new ParseException("Invalid value of --" + option.getLongOpt() + ": " + value);
+    }
+
+    private static double getRatio(CommandLine commandLine, Option option, double defaultValue) throws ParseException {
+        final String value = commandLine.getOptionValue(option.getLongOpt());
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            double ret = Double.parseDouble(value);
+            if (ret >= 0 && ret <= 1) {
+                return ret;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        throw new ParseException("Invalid value of --" + option.getLongOpt() + ": " + value);
+    }
+}